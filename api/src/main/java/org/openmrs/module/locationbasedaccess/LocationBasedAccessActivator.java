@@ -20,14 +20,35 @@ import org.openmrs.api.context.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.aop.RestrictedMethodRegistry;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationRunner;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import org.openmrs.module.locationbasedaccess.stats.LocationStatsReconciliationTask;
+import org.openmrs.module.locationbasedaccess.utils.LocationHierarchyIndex;
+import org.openmrs.module.locationbasedaccess.utils.LocationRegistry;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
 
-public class LocationBasedAccessActivator extends BaseModuleActivator {
+public class LocationBasedAccessActivator extends BaseModuleActivator implements DaemonTokenAware {
 
 
     protected Logger log = LoggerFactory.getLogger(getClass());
 
+    private LocationBasedAccessSettingsListener settingsListener;
+
+    private DaemonToken daemonToken;
+
+    /**
+     * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+     */
+    public void setDaemonToken(DaemonToken token) {
+        this.daemonToken = token;
+    }
+
     /**
      * @see ModuleActivator#willRefreshContext()
      */
@@ -60,6 +81,21 @@ public class LocationBasedAccessActivator extends BaseModuleActivator {
 	    createGlobalPropertyForLocationAttribute(LocationBasedAccessConstants.REF_APP_LOCATION_USER_PROPERTY_NAME,
 			    LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
 	    createGlobalPropertyForEntityRestrictions();
+	    createGlobalPropertyForLocationAttribute(LocationBasedAccessConstants.PATIENT_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME,
+			    LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_FALSE);
+	    createGlobalPropertyForLocationAttribute(LocationBasedAccessConstants.ENCOUNTER_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME,
+			    LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_FALSE);
+	    createGlobalPropertyForLocationAttribute(LocationBasedAccessConstants.HIERARCHICAL_ACCESS_GLOBAL_PROPERTY_NAME,
+			    LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_FALSE);
+	    createGlobalPropertyForLocationAttribute(LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME,
+			    LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_FALSE);
+	    LocationBasedAccessSettings.start();
+	    RestrictedMethodRegistry.reload();
+	    settingsListener = new LocationBasedAccessSettingsListener();
+	    Context.getAdministrationService().addGlobalPropertyListener(settingsListener);
+	    LocationAccessMetrics.registerMBeans();
+	    LocationStatsReconciliationTask.register();
+	    PatientMigrationRunner.start(daemonToken);
 	    log.info("Location Based Access Control Module started");
     }
 
@@ -118,6 +154,18 @@ public class LocationBasedAccessActivator extends BaseModuleActivator {
      * @see ModuleActivator#stopped()
      */
     public void stopped() {
+        if (settingsListener != null) {
+            Context.getAdministrationService().removeGlobalPropertyListener(settingsListener);
+            settingsListener = null;
+        }
+        PatientMigrationRunner.stop();
+        LocationBasedAccessSettings.stop();
+        RestrictedMethodRegistry.clear();
+        PagedSearch.clear();
+        LocationHierarchyIndex.clear();
+        LocationRegistry.clear();
+        LocationStats.markStale();
+        LocationAccessMetrics.unregisterMBeans();
         log.info("Location Based Access Control Module stopped");
     }
 }
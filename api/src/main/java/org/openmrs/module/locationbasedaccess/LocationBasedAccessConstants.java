@@ -28,5 +28,19 @@ public class LocationBasedAccessConstants {
     public static final String USER_RESTRICTION_GLOBAL_PROPERTY_NAME = "locationbasedaccess.access.user";
     public static final String ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME = "locationbasedaccess.access.encounter";
     public static final String LOCATION_BASED_RESTRICTION_VALUE_TRUE = "true";
+    public static final String LOCATION_BASED_RESTRICTION_VALUE_FALSE = "false";
+
+    public static final String PATIENT_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME = "locationbasedaccess.databaseFiltering.patient";
+    public static final String ENCOUNTER_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME = "locationbasedaccess.databaseFiltering.encounter";
+
+    public static final String HIERARCHICAL_ACCESS_GLOBAL_PROPERTY_NAME = "locationbasedaccess.hierarchicalAccess";
+
+    public static final String PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME = "locationbasedaccess.pagedOverFetch";
+
+    public static final String RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME = "locationbasedaccess.restrictedMethods";
+
+    public static final String ENCOUNTER_COUNT_PERIOD_DAY = "day";
+    public static final String ENCOUNTER_COUNT_PERIOD_WEEK = "week";
+    public static final String ENCOUNTER_COUNT_PERIOD_MONTH = "month";
 
 }
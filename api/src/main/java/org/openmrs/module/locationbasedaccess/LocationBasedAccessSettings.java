@@ -0,0 +1,190 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess;
+
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of the locationbasedaccess global properties. Once the module is started the snapshot is
+ * loaded a single time and swapped atomically by {@link LocationBasedAccessSettingsListener} whenever one of the
+ * properties changes, so the interceptors can read it without touching the database. Before {@link #start()} (or
+ * after {@link #stop()}) every call to {@link #get()} loads a fresh snapshot.
+ */
+public final class LocationBasedAccessSettings {
+
+    /**
+     * The global properties captured by the snapshot
+     */
+    public static final Set<String> PROPERTY_NAMES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.LOCATION_RESTRICTION_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.PERSON_RESTRICTION_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.USER_RESTRICTION_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_ENCOUNTER_LOCATION,
+            LocationBasedAccessConstants.PATIENT_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.ENCOUNTER_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.HIERARCHICAL_ACCESS_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME,
+            LocationBasedAccessConstants.RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME)));
+
+    private static final AtomicReference<LocationBasedAccessSettings> current = new AtomicReference<LocationBasedAccessSettings>();
+
+    private final Map<String, String> values;
+
+    private LocationBasedAccessSettings(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return the cached snapshot if the cache is started, otherwise a snapshot freshly loaded from the database
+     */
+    public static LocationBasedAccessSettings get() {
+        LocationBasedAccessSettings settings = current.get();
+        return settings != null ? settings : load();
+    }
+
+    /**
+     * Loads the snapshot and starts serving it from memory. Called when the module is started.
+     */
+    public static void start() {
+        current.set(load());
+    }
+
+    /**
+     * Stops the cache, subsequent calls of {@link #get()} read the database again. Called when the module is stopped.
+     */
+    public static void stop() {
+        current.set(null);
+    }
+
+    /**
+     * Replaces the value of a single global property in the cached snapshot, if the cache is started.
+     * @param propertyName name of the global property
+     * @param propertyValue new value, or null if the property was deleted
+     */
+    public static void update(String propertyName, String propertyValue) {
+        while (true) {
+            LocationBasedAccessSettings settings = current.get();
+            if (settings == null || current.compareAndSet(settings, settings.with(propertyName, propertyValue))) {
+                return;
+            }
+        }
+    }
+
+    private static LocationBasedAccessSettings load() {
+        AdministrationService administrationService = Context.getAdministrationService();
+        Map<String, String> values = new HashMap<String, String>();
+        for (String propertyName : PROPERTY_NAMES) {
+            values.put(propertyName, administrationService.getGlobalProperty(propertyName));
+        }
+        return new LocationBasedAccessSettings(values);
+    }
+
+    private LocationBasedAccessSettings with(String propertyName, String propertyValue) {
+        Map<String, String> updatedValues = new HashMap<String, String>(values);
+        updatedValues.put(propertyName, propertyValue);
+        return new LocationBasedAccessSettings(updatedValues);
+    }
+
+    private boolean isTrue(String propertyName) {
+        return LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_TRUE.equals(values.get(propertyName));
+    }
+
+    public boolean isPatientRestricted() {
+        return isTrue(LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME);
+    }
+
+    public boolean isLocationRestricted() {
+        return isTrue(LocationBasedAccessConstants.LOCATION_RESTRICTION_GLOBAL_PROPERTY_NAME);
+    }
+
+    public boolean isPersonRestricted() {
+        return isTrue(LocationBasedAccessConstants.PERSON_RESTRICTION_GLOBAL_PROPERTY_NAME);
+    }
+
+    public boolean isUserRestricted() {
+        return isTrue(LocationBasedAccessConstants.USER_RESTRICTION_GLOBAL_PROPERTY_NAME);
+    }
+
+    public boolean isEncounterRestricted() {
+        return isTrue(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME);
+    }
+
+    /**
+     * @return true if patient searches are restricted in the database query instead of filtering the results
+     */
+    public boolean isPatientDatabaseFiltering() {
+        return isTrue(LocationBasedAccessConstants.PATIENT_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME);
+    }
+
+    /**
+     * @return true if encounter searches are restricted in the database query instead of filtering the results
+     */
+    public boolean isEncounterDatabaseFiltering() {
+        return isTrue(LocationBasedAccessConstants.ENCOUNTER_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME);
+    }
+
+    /**
+     * @return true if a user assigned to a location can access all the descendants of the location
+     */
+    public boolean isHierarchicalAccess() {
+        return isTrue(LocationBasedAccessConstants.HIERARCHICAL_ACCESS_GLOBAL_PROPERTY_NAME);
+    }
+
+    /**
+     * @return true if the pages of the paged finders are filled with accessible results, see
+     * {@link org.openmrs.module.locationbasedaccess.aop.PagedSearch}
+     */
+    public boolean isPagedOverFetch() {
+        return isTrue(LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME);
+    }
+
+    /**
+     * @return the restricted method lines, see {@link org.openmrs.module.locationbasedaccess.aop.RestrictedMethodRegistry}
+     */
+    public String getRestrictedMethods() {
+        return values.get(LocationBasedAccessConstants.RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME);
+    }
+
+    public String getLocationAttributeUuid() {
+        return values.get(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+    }
+
+    public String getEncounterRestrictionType() {
+        return values.get(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_ENCOUNTER_LOCATION);
+    }
+
+    public boolean isPatientLocationRestrictionType() {
+        return LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_PATIENT_LOCATION.equals(getEncounterRestrictionType());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof LocationBasedAccessSettings
+                && values.equals(((LocationBasedAccessSettings) other).values));
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+}
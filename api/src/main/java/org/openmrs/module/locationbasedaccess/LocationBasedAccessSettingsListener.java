@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.aop.RestrictedMethodRegistry;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
+
+/**
+ * Keeps the {@link LocationBasedAccessSettings} snapshot in sync with the locationbasedaccess global properties.
+ */
+public class LocationBasedAccessSettingsListener implements GlobalPropertyListener {
+
+    @Override
+    public boolean supportsPropertyName(String propertyName) {
+        return LocationBasedAccessSettings.PROPERTY_NAMES.contains(propertyName);
+    }
+
+    @Override
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        LocationBasedAccessSettings.update(newValue.getProperty(), newValue.getPropertyValue());
+        LocationAccessContextHolder.clear();
+        PagedSearch.clear();
+        markStatsStaleIfNeeded(newValue.getProperty());
+        reloadRestrictedMethodsIfNeeded(newValue.getProperty());
+    }
+
+    @Override
+    public void globalPropertyDeleted(String propertyName) {
+        LocationBasedAccessSettings.update(propertyName, null);
+        LocationAccessContextHolder.clear();
+        PagedSearch.clear();
+        markStatsStaleIfNeeded(propertyName);
+        reloadRestrictedMethodsIfNeeded(propertyName);
+    }
+
+    /**
+     * The patient stats are counted by the location attribute, they have to be rebuilt when it changes
+     */
+    private void markStatsStaleIfNeeded(String propertyName) {
+        if (LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME.equals(propertyName)) {
+            LocationStats.markStale();
+        }
+    }
+
+    private void reloadRestrictedMethodsIfNeeded(String propertyName) {
+        if (LocationBasedAccessConstants.RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME.equals(propertyName)) {
+            RestrictedMethodRegistry.reload();
+        }
+    }
+}
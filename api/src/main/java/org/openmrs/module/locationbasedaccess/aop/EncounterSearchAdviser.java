@@ -17,34 +17,20 @@ import org.openmrs.module.locationbasedaccess.aop.interceptor.EncounterServiceIn
 import org.springframework.aop.Advisor;
 import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
 
 public class EncounterSearchAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
 
     private static final Log log = LogFactory.getLog(EncounterSearchAdviser.class);
-    private Set<String> restrictedGetMethodNames = new HashSet<String>();
-
-    public EncounterSearchAdviser() {
-        restrictedGetMethodNames.add("getEncounter");
-        restrictedGetMethodNames.add("getEncounterByUuid");
-        restrictedGetMethodNames.add("getEncounters");
-        restrictedGetMethodNames.add("getEncountersByPatientId");
-        restrictedGetMethodNames.add("getEncountersByPatient");
-        restrictedGetMethodNames.add("getEncountersByVisit");
-        restrictedGetMethodNames.add("getEncountersNotAssignedToAnyVisit");
-        restrictedGetMethodNames.add("getEncountersByVisitsAndPatient");
-        restrictedGetMethodNames.add("getAllEncounters");
-    }
+    private final MethodDispatchTable dispatchTable = MethodDispatchTable.ENCOUNTER;
 
     @Override
     public boolean matches(Method method, Class targetClass) {
-        return restrictedGetMethodNames.contains(method.getName());
+        return dispatchTable.matches(method);
     }
 
     @Override
     public Advice getAdvice() {
-        return new EncounterServiceInterceptorAdvice();
+        return new EncounterServiceInterceptorAdvice(dispatchTable);
     }
 
 }
@@ -0,0 +1,41 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.aopalliance.aop.Advice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.LocationHierarchyInterceptorAdvice;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LocationHierarchyAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
+
+    private Set<String> hierarchyChangingMethodNames = new HashSet<String>();
+
+    public LocationHierarchyAdviser() {
+        hierarchyChangingMethodNames.add("saveLocation");
+        hierarchyChangingMethodNames.add("retireLocation");
+        hierarchyChangingMethodNames.add("unretireLocation");
+        hierarchyChangingMethodNames.add("purgeLocation");
+    }
+
+    @Override
+    public boolean matches(Method method, Class targetClass) {
+        return hierarchyChangingMethodNames.contains(method.getName());
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return new LocationHierarchyInterceptorAdvice();
+    }
+}
@@ -17,32 +17,19 @@ import org.openmrs.module.locationbasedaccess.aop.interceptor.LocationServiceInt
 import org.springframework.aop.Advisor;
 import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
 
 public class LocationSearchAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
 
     private static final Log log = LogFactory.getLog(LocationSearchAdviser.class);
-    private Set<String> restrictedGetMethodNames = new HashSet<String>();
-
-    public LocationSearchAdviser() {
-        restrictedGetMethodNames.add("getDefaultLocation");
-        restrictedGetMethodNames.add("getDefaultLocationFromSting");
-        restrictedGetMethodNames.add("getLocationByUuid");
-        restrictedGetMethodNames.add("getAllLocations");
-        restrictedGetMethodNames.add("getLocations");
-        restrictedGetMethodNames.add("getLocationsByTag");
-        restrictedGetMethodNames.add("getRootLocations");
-        // TODO : How to address the restrictions for getLocation() method
-    }
+    private final MethodDispatchTable dispatchTable = MethodDispatchTable.LOCATION;
 
     @Override
     public boolean matches(Method method, Class targetClass) {
-        return restrictedGetMethodNames.contains(method.getName());
+        return dispatchTable.matches(method);
     }
 
     @Override
     public Advice getAdvice() {
-        return new LocationServiceInterceptorAdvice(restrictedGetMethodNames);
+        return new LocationServiceInterceptorAdvice(dispatchTable);
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.aopalliance.aop.Advice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.LocationStatsInterceptorAdvice;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LocationStatsAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
+
+    private Set<String> statsChangingMethodNames = new HashSet<String>();
+
+    public LocationStatsAdviser() {
+        // PatientService
+        statsChangingMethodNames.add("savePatient");
+        statsChangingMethodNames.add("voidPatient");
+        statsChangingMethodNames.add("unvoidPatient");
+        statsChangingMethodNames.add("purgePatient");
+        statsChangingMethodNames.add("mergePatients");
+        // PersonService
+        statsChangingMethodNames.add("savePerson");
+        statsChangingMethodNames.add("voidPerson");
+        statsChangingMethodNames.add("unvoidPerson");
+        statsChangingMethodNames.add("purgePerson");
+        // EncounterService
+        statsChangingMethodNames.add("saveEncounter");
+        statsChangingMethodNames.add("voidEncounter");
+        statsChangingMethodNames.add("unvoidEncounter");
+        statsChangingMethodNames.add("purgeEncounter");
+        // UserService
+        statsChangingMethodNames.add("createUser");
+        statsChangingMethodNames.add("saveUser");
+        statsChangingMethodNames.add("purgeUser");
+        statsChangingMethodNames.add("setUserProperty");
+        statsChangingMethodNames.add("removeUserProperty");
+        statsChangingMethodNames.add("saveUserProperty");
+        statsChangingMethodNames.add("saveUserProperties");
+    }
+
+    @Override
+    public boolean matches(Method method, Class targetClass) {
+        return statsChangingMethodNames.contains(method.getName());
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return new LocationStatsInterceptorAdvice();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * How the interceptors handle the calls of an advised service method, worked out once from its signature by
+ * {@link MethodDispatchTable} so the calls do not inspect the method or the type of its result.
+ */
+public final class MethodDispatch {
+
+    /**
+     * The type of result the method returns
+     */
+    public enum ResultShape {
+        /** A single entity, removed by returning null */
+        ENTITY,
+        /** A list of entities, filtered in place */
+        LIST,
+        /** A set of entities, filtered in place */
+        SET,
+        /** A map of entity lists, such as the encounters by patient of EncounterService#getAllEncounters(Cohort) */
+        MAP,
+        /** Anything else, returned as is */
+        OTHER
+    }
+
+    /**
+     * The searches which are restricted in the database query instead of filtering their results
+     */
+    public enum Search {
+        NONE,
+        /** PatientService#getPatients(String query...) */
+        PATIENT_QUERY,
+        /** EncounterService#getEncounters(EncounterSearchCriteria) */
+        ENCOUNTER_CRITERIA,
+        /** EncounterService#getAllEncounters(Cohort) */
+        ENCOUNTER_COHORT,
+        /** PatientService#getCountOfPatients(String query...), counted in the database */
+        PATIENT_COUNT,
+        /** EncounterService#getCountOfEncounters(String, boolean), counted in the database */
+        ENCOUNTER_COUNT
+    }
+
+    private final boolean restricted;
+
+    private final ResultShape resultShape;
+
+    private final Search search;
+
+    private final int startArgument;
+
+    private final int lengthArgument;
+
+    MethodDispatch(boolean restricted, ResultShape resultShape, Search search) {
+        this(restricted, resultShape, search, -1, -1);
+    }
+
+    MethodDispatch(boolean restricted, ResultShape resultShape, Search search, int startArgument, int lengthArgument) {
+        this.restricted = restricted;
+        this.resultShape = resultShape;
+        this.search = search;
+        this.startArgument = startArgument;
+        this.lengthArgument = lengthArgument;
+    }
+
+    /**
+     * @return true if the method is one of the restricted methods of its table
+     */
+    public boolean isRestricted() {
+        return restricted;
+    }
+
+    public ResultShape getResultShape() {
+        return resultShape;
+    }
+
+    public Search getSearch() {
+        return search;
+    }
+
+    /**
+     * @return true if the method is a paged finder, returning a list and taking the start and length of the page
+     */
+    public boolean isPaged() {
+        return startArgument >= 0;
+    }
+
+    /**
+     * @return index of the argument giving the first result of the page, or -1 if the method is not paged
+     */
+    public int getStartArgument() {
+        return startArgument;
+    }
+
+    /**
+     * @return index of the argument giving the number of results of the page, or -1 if the method is not paged
+     */
+    public int getLengthArgument() {
+        return lengthArgument;
+    }
+
+    /**
+     * @return true if the method counts entities, a count cannot be filtered so it is always made in the database
+     */
+    public boolean isCount() {
+        return search == Search.PATIENT_COUNT || search == Search.ENCOUNTER_COUNT;
+    }
+
+    /**
+     * @return true if the method returns a list or a set of entities
+     */
+    public boolean isCollection() {
+        return resultShape == ResultShape.LIST || resultShape == ResultShape.SET;
+    }
+
+    /**
+     * @return the result returned when the user has no accessible location
+     */
+    public Object emptyResult() {
+        switch (resultShape) {
+            case LIST:
+                return new ArrayList<Object>();
+            case SET:
+                return new LinkedHashSet<Object>();
+            case MAP:
+                return new HashMap<Object, Object>();
+            default:
+                return isCount() ? Integer.valueOf(0) : null;
+        }
+    }
+}
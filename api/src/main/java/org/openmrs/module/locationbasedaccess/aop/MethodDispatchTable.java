@@ -0,0 +1,286 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.UserService;
+import org.openmrs.parameter.EncounterSearchCriteria;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The restricted methods of a service and the {@link MethodDispatch} of each method the interceptor is called for.
+ * The dispatch of an advised method is compiled when its adviser matches it, as the advisor is applied to the service,
+ * and then read from a hashed map keyed by the method. The reflected methods are copies, so the map compares them by
+ * equality rather than identity. A method the adviser did not match, e.g. when the interceptor is called without its
+ * adviser, is compiled on its first call.
+ * <p>
+ * The methods restricted by default are given to the constructor, the {@link RestrictedMethod} lines configured in
+ * {@link RestrictedMethodRegistry} add methods to them, change their strategy or exclude them. A new configuration
+ * replaces the map, with the dispatches of the advised methods compiled again before it is used.
+ */
+public class MethodDispatchTable {
+
+    public static final MethodDispatchTable PATIENT = new MethodDispatchTable(PatientService.class, Patient.class,
+            "getPatients", "getPatient", "getPatientByUuid", "getCountOfPatients");
+
+    public static final MethodDispatchTable PERSON = new MethodDispatchTable(PersonService.class, Person.class,
+            "getPeople", "getPerson", "getPersonByUuid", "getSimilarPeople");
+
+    public static final MethodDispatchTable ENCOUNTER = new MethodDispatchTable(EncounterService.class, Encounter.class,
+            "getEncounter", "getEncounterByUuid", "getEncounters", "getEncountersByPatientId", "getEncountersByPatient",
+            "getEncountersByVisit", "getEncountersNotAssignedToAnyVisit", "getEncountersByVisitsAndPatient",
+            "getAllEncounters", "getCountOfEncounters");
+
+    public static final MethodDispatchTable USER = new MethodDispatchTable(UserService.class, User.class,
+            "getUsers", "getAllUsers", "getUser", "getUserByUuid", "getUserByUsername", "getUserByName",
+            "getUsersByName", "getUsersByPerson");
+
+    // TODO : How to address the restrictions for getLocation() method
+    public static final MethodDispatchTable LOCATION = new MethodDispatchTable(LocationService.class, Location.class,
+            "getDefaultLocation", "getDefaultLocationFromSting", "getLocationByUuid", "getAllLocations", "getLocations",
+            "getLocationsByTag", "getRootLocations");
+
+    private final Class<?> serviceClass;
+
+    private final Class<?> entityClass;
+
+    private final Set<String> defaultMethodNames;
+
+    private final Set<Method> advisedMethods = Collections.newSetFromMap(new ConcurrentHashMap<Method, Boolean>());
+
+    private volatile Configuration configuration = new Configuration(Collections.<RestrictedMethod>emptyList());
+
+    public MethodDispatchTable(Class<?> serviceClass, Class<?> entityClass, String... defaultMethodNames) {
+        this(serviceClass, entityClass, Arrays.asList(defaultMethodNames));
+    }
+
+    /**
+     * @param serviceClass the service interface
+     * @param entityClass the type of entity returned by the methods
+     * @param defaultMethodNames names of the methods whose results are restricted by location by default
+     */
+    public MethodDispatchTable(Class<?> serviceClass, Class<?> entityClass, Collection<String> defaultMethodNames) {
+        this.serviceClass = serviceClass;
+        this.entityClass = entityClass;
+        this.defaultMethodNames = Collections.unmodifiableSet(new HashSet<String>(defaultMethodNames));
+    }
+
+    /**
+     * Used by the advisers to select the methods to advise. All the methods returning the entity or a collection,
+     * and the count methods, are advised, since the configuration can restrict any of them without restarting, and
+     * the interceptors proceed straight away with the methods which are not restricted. The dispatch of a matched
+     * method is compiled here, so its calls only read it.
+     * @param method a method of the advised service
+     * @return true if the method can be restricted
+     */
+    public boolean matches(Method method) {
+        if (getResultShape(method) == MethodDispatch.ResultShape.OTHER
+                && getSearch(method) == MethodDispatch.Search.NONE) {
+            return false;
+        }
+        advisedMethods.add(method);
+        get(method);
+        return true;
+    }
+
+    /**
+     * @param method the called method
+     * @return how the calls of the method are handled
+     */
+    public MethodDispatch get(Method method) {
+        Configuration current = configuration;
+        MethodDispatch dispatch = current.dispatches.get(method);
+        if (dispatch == null) {
+            dispatch = compile(method, current.restrictedMethods);
+            MethodDispatch existing = current.dispatches.putIfAbsent(method, dispatch);
+            if (existing != null) {
+                dispatch = existing;
+            }
+        }
+        return dispatch;
+    }
+
+    /**
+     * Replaces the configured methods, the lines which are not for the service of this table are ignored
+     * @param restrictedMethods the configured methods
+     */
+    public void configure(Collection<RestrictedMethod> restrictedMethods) {
+        List<RestrictedMethod> serviceMethods = new ArrayList<RestrictedMethod>();
+        for (RestrictedMethod restrictedMethod : restrictedMethods) {
+            if (restrictedMethod.isFor(serviceClass)) {
+                serviceMethods.add(restrictedMethod);
+            }
+        }
+        Configuration newConfiguration = new Configuration(serviceMethods);
+        for (Method method : advisedMethods) {
+            newConfiguration.dispatches.put(method, compile(method, serviceMethods));
+        }
+        configuration = newConfiguration;
+    }
+
+    public Class<?> getServiceClass() {
+        return serviceClass;
+    }
+
+    public Set<String> getDefaultMethodNames() {
+        return defaultMethodNames;
+    }
+
+    private MethodDispatch compile(Method method, List<RestrictedMethod> restrictedMethods) {
+        RestrictedMethod.Strategy strategy = getStrategy(method, restrictedMethods);
+        MethodDispatch.ResultShape resultShape = getResultShape(method);
+        int startArgument = resultShape == MethodDispatch.ResultShape.LIST ? getStartArgument(method) : -1;
+        MethodDispatch.Search search = getSearch(method);
+        boolean count = search == MethodDispatch.Search.PATIENT_COUNT || search == MethodDispatch.Search.ENCOUNTER_COUNT;
+        // A count cannot be filtered, so a restricted count is made in the database whatever its strategy
+        if (strategy == RestrictedMethod.Strategy.NONE || strategy == RestrictedMethod.Strategy.FILTER && !count) {
+            search = MethodDispatch.Search.NONE;
+        }
+        return new MethodDispatch(strategy != RestrictedMethod.Strategy.NONE, resultShape, search, startArgument,
+                startArgument >= 0 ? startArgument + 1 : -1);
+    }
+
+    /**
+     * The paged finders of the OpenMRS services take a query first and the start and length of the page as their
+     * last two Integer parameters, e.g. PatientService#getPatients(String, Integer, Integer) or
+     * UserService#getUsers(String, List, boolean, Integer, Integer).
+     * @return index of the start parameter, or -1 if the method is not a paged finder
+     */
+    private static int getStartArgument(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length < 3 || parameterTypes[0] != String.class) {
+            return -1;
+        }
+        for (int i = parameterTypes.length - 1; i > 1; i--) {
+            if (parameterTypes[i] == Integer.class) {
+                return parameterTypes[i - 1] == Integer.class ? i - 1 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the strategy of the last configured line with the parameter types of the method, else of the last
+     * line with its name, else {@link RestrictedMethod.Strategy#DATABASE} for the methods restricted by default
+     */
+    private RestrictedMethod.Strategy getStrategy(Method method, List<RestrictedMethod> restrictedMethods) {
+        RestrictedMethod.Strategy signatureStrategy = null;
+        RestrictedMethod.Strategy nameStrategy = null;
+        for (RestrictedMethod restrictedMethod : restrictedMethods) {
+            if (restrictedMethod.matches(method)) {
+                if (restrictedMethod.hasParameterTypes()) {
+                    signatureStrategy = restrictedMethod.getStrategy();
+                } else {
+                    nameStrategy = restrictedMethod.getStrategy();
+                }
+            }
+        }
+        if (signatureStrategy != null) {
+            return signatureStrategy;
+        }
+        if (nameStrategy != null) {
+            return nameStrategy;
+        }
+        return defaultMethodNames.contains(method.getName()) ? RestrictedMethod.Strategy.DATABASE
+                : RestrictedMethod.Strategy.NONE;
+    }
+
+    private MethodDispatch.ResultShape getResultShape(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (entityClass.isAssignableFrom(returnType)) {
+            return MethodDispatch.ResultShape.ENTITY;
+        }
+        if (List.class.isAssignableFrom(returnType)) {
+            return MethodDispatch.ResultShape.LIST;
+        }
+        if (Set.class.isAssignableFrom(returnType)) {
+            return MethodDispatch.ResultShape.SET;
+        }
+        if (Map.class.isAssignableFrom(returnType)) {
+            return MethodDispatch.ResultShape.MAP;
+        }
+        return MethodDispatch.ResultShape.OTHER;
+    }
+
+    private static MethodDispatch.Search getSearch(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if ("getPatients".equals(method.getName()) && isQuerySearch(parameterTypes)) {
+            return MethodDispatch.Search.PATIENT_QUERY;
+        }
+        if ("getEncounters".equals(method.getName()) && parameterTypes.length == 1
+                && parameterTypes[0] == EncounterSearchCriteria.class) {
+            return MethodDispatch.Search.ENCOUNTER_CRITERIA;
+        }
+        if ("getAllEncounters".equals(method.getName()) && parameterTypes.length == 1
+                && parameterTypes[0] == Cohort.class) {
+            return MethodDispatch.Search.ENCOUNTER_COHORT;
+        }
+        if ("getCountOfPatients".equals(method.getName()) && parameterTypes.length > 0 && parameterTypes[0] == String.class
+                && (parameterTypes.length == 1 || parameterTypes.length == 2 && parameterTypes[1] == boolean.class)) {
+            return MethodDispatch.Search.PATIENT_COUNT;
+        }
+        if ("getCountOfEncounters".equals(method.getName()) && parameterTypes.length == 2
+                && parameterTypes[0] == String.class && parameterTypes[1] == boolean.class) {
+            return MethodDispatch.Search.ENCOUNTER_COUNT;
+        }
+        return MethodDispatch.Search.NONE;
+    }
+
+    /**
+     * Used to check whether the parameters are the ones of the PatientService#getPatients(String query...) searches
+     * which can be restricted in the database query, i.e. getPatients(String), getPatients(String, Integer, Integer)
+     * and getPatients(String, boolean, Integer, Integer).
+     */
+    private static boolean isQuerySearch(Class<?>[] parameterTypes) {
+        if (parameterTypes.length == 0 || parameterTypes[0] != String.class) {
+            return false;
+        }
+        if (parameterTypes.length == 1) {
+            return true;
+        }
+        if (parameterTypes.length == 3) {
+            return parameterTypes[1] == Integer.class && parameterTypes[2] == Integer.class;
+        }
+        return parameterTypes.length == 4 && parameterTypes[1] == boolean.class
+                && parameterTypes[2] == Integer.class && parameterTypes[3] == Integer.class;
+    }
+
+    private static final class Configuration {
+
+        private final List<RestrictedMethod> restrictedMethods;
+
+        private final ConcurrentMap<Method, MethodDispatch> dispatches = new ConcurrentHashMap<Method, MethodDispatch>();
+
+        private Configuration(List<RestrictedMethod> restrictedMethods) {
+            this.restrictedMethods = restrictedMethods;
+        }
+    }
+}
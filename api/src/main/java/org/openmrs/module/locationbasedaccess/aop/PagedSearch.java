@@ -0,0 +1,371 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.springframework.aop.ProxyMethodInvocation;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Fills the pages of the paged finders with accessible results. Filtering the results of a page the service already
+ * cut leaves the page short, so instead the start and length of the call are taken as positions among the accessible
+ * results, and the service is called for successive batches of rows until the page is full or the rows run out. The
+ * rows only run out when a call returns none, as a service may return fewer rows than asked, e.g. when it caps the
+ * length of its pages. A page is never returned short while there are rows left, however many rows it takes to fill
+ * it, the rows are only asked for in batches of at most {@link #MAX_BATCH_SIZE}.
+ * <p>
+ * The size of a batch is the number of accessible results still needed divided by the share of accessible rows
+ * observed for the user on the method, so a user who can access few rows asks for bigger batches. Where a page ended
+ * in the rows of the service is kept as a cursor for the user and the search, so the next page continues from there
+ * instead of scanning the rows again. The search is told apart by the values of its arguments, the entities by their
+ * uuid, so the cursors do not hold on to the entities of a session.
+ * <p>
+ * The cursors are only a best effort: they are a position in the rows of the service and are not moved when rows are
+ * added or voided. A row added or voided before a cursor shifts the pages continued from it by one row, so a result
+ * may be repeated or missed, as when paging through the service itself. The cursors expire after
+ * {@link #CURSOR_TIMEOUT_MILLIS} to bound how long such a shift lasts.
+ * <p>
+ * The page is returned as a {@link Page}, a list which also tells where the search ended, so a caller which gets the
+ * result of the service can ask for the next page with {@link Continuation#getNextStart()}.
+ */
+public class PagedSearch {
+
+    /**
+     * Maximum number of rows asked to the service in a single call
+     */
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Time after which the cursors of a search are dropped
+     */
+    public static final long CURSOR_TIMEOUT_MILLIS = 300000;
+
+    private static final int MAX_SEARCHES = 1000;
+
+    private static final int MAX_SHARES = 1000;
+
+    private static final int MAX_CURSORS_PER_SEARCH = 64;
+
+    private static final double MIN_ACCESSIBLE_SHARE = 0.01;
+
+    private static final Map<List<Object>, SearchCursors> cursorsBySearch = new LinkedHashMap<List<Object>, SearchCursors>(
+            16, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, SearchCursors> eldest) {
+            return size() > MAX_SEARCHES;
+        }
+    };
+
+    private static final Map<List<Object>, Double> accessibleShares = new LinkedHashMap<List<Object>, Double>(16, 0.75f,
+            true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Double> eldest) {
+            return size() > MAX_SHARES;
+        }
+    };
+
+    /**
+     * Selects the accessible rows of a batch
+     */
+    public interface Filter {
+
+        /**
+         * @param rows the rows of the batch, which cannot be modified
+         * @return the accessible rows in their order, the given rows if they are all accessible
+         */
+        List<Object> filter(List<Object> rows);
+    }
+
+    /**
+     * @param invocation the call of the method
+     * @param dispatch the dispatch of the method
+     * @return true if the method is a paged finder called with a page length
+     */
+    public static boolean isPagedCall(MethodInvocation invocation, MethodDispatch dispatch) {
+        if (!dispatch.isPaged() || !(invocation instanceof ProxyMethodInvocation)) {
+            return false;
+        }
+        Integer length = (Integer) invocation.getArguments()[dispatch.getLengthArgument()];
+        return length != null && length > 0;
+    }
+
+    /**
+     * Returns the page of accessible results
+     * @param invocation the call of a paged finder, see {@link #isPagedCall(MethodInvocation, MethodDispatch)}
+     * @param dispatch the dispatch of the method
+     * @param userId id of the authenticated user
+     * @param accessScope what the user can access, searches with different scopes do not share their cursors
+     * @param filter removes the rows which are not accessible
+     * @return the accessible results from the start argument, at most the length argument of them, with where the
+     * search ended
+     */
+    public static Page fetch(MethodInvocation invocation, MethodDispatch dispatch, Integer userId,
+                             Object accessScope, Filter filter) throws Throwable {
+        Object[] arguments = invocation.getArguments();
+        Integer startArgument = (Integer) arguments[dispatch.getStartArgument()];
+        int start = startArgument != null ? Math.max(startArgument, 0) : 0;
+        int length = (Integer) arguments[dispatch.getLengthArgument()];
+
+        List<Object> shareKey = Arrays.<Object>asList(userId, invocation.getMethod());
+        List<Object> searchKey = getSearchKey(invocation, dispatch, userId, accessScope);
+        Map.Entry<Integer, Integer> cursor = getCursor(searchKey, start);
+        int skip = start - cursor.getKey();
+        int rowOffset = cursor.getValue();
+
+        List<Object> results = new ArrayList<Object>(length);
+        int scannedRows = 0;
+        boolean exhausted = false;
+        while (results.size() < length && !exhausted) {
+            int needed = skip + length - results.size();
+            int batchSize = (int) Math.min(MAX_BATCH_SIZE, Math.ceil(needed / getAccessibleShare(shareKey)));
+            Object[] batchArguments = arguments.clone();
+            batchArguments[dispatch.getStartArgument()] = rowOffset;
+            batchArguments[dispatch.getLengthArgument()] = batchSize;
+            List<Object> rows = (List<Object>) LocationAccessMetrics.proceed(
+                    ((ProxyMethodInvocation) invocation).invocableClone(batchArguments));
+            if (rows == null || rows.isEmpty()) {
+                exhausted = true;
+                break;
+            }
+            List<Object> accessible = filter.filter(Collections.unmodifiableList(rows));
+
+            // The accessible rows keep their order, so they are matched back to their position in the batch
+            int consumedRows = rows.size();
+            int next = 0;
+            for (int i = 0; i < rows.size() && next < accessible.size(); i++) {
+                if (rows.get(i) != accessible.get(next)) {
+                    continue;
+                }
+                next++;
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    results.add(rows.get(i));
+                    if (results.size() == length) {
+                        consumedRows = i + 1;
+                        break;
+                    }
+                }
+            }
+            updateAccessibleShare(shareKey, consumedRows, next);
+            scannedRows += consumedRows;
+            rowOffset += consumedRows;
+        }
+
+        int nextStart = start - skip + results.size();
+        if (!exhausted) {
+            putCursor(searchKey, nextStart, rowOffset);
+        }
+        return new Page(results, new Continuation(nextStart, rowOffset, !exhausted, scannedRows));
+    }
+
+    /**
+     * Drops all the cursors and observed shares of accessible rows
+     */
+    public static void clear() {
+        synchronized (cursorsBySearch) {
+            cursorsBySearch.clear();
+        }
+        synchronized (accessibleShares) {
+            accessibleShares.clear();
+        }
+    }
+
+    private static List<Object> getSearchKey(MethodInvocation invocation, MethodDispatch dispatch, Integer userId,
+                                             Object accessScope) {
+        Object[] arguments = invocation.getArguments();
+        List<Object> searchArguments = new ArrayList<Object>(arguments.length);
+        for (int i = 0; i < arguments.length; i++) {
+            boolean page = i == dispatch.getStartArgument() || i == dispatch.getLengthArgument();
+            searchArguments.add(page ? null : getKeyValue(arguments[i]));
+        }
+        return Arrays.asList(userId, invocation.getMethod(), searchArguments, getKeyValue(accessScope));
+    }
+
+    /**
+     * @return the value of an argument to compare the searches by, the uuid of an entity. An argument of another type
+     * is only compared by its string, so a type without its own toString() never finds the cursors of an earlier
+     * search.
+     */
+    private static Object getKeyValue(Object argument) {
+        if (argument == null || argument instanceof String || argument instanceof Number
+                || argument instanceof Boolean || argument instanceof Character || argument instanceof Enum) {
+            return argument;
+        }
+        if (argument instanceof Date) {
+            return ((Date) argument).getTime();
+        }
+        if (argument instanceof OpenmrsObject) {
+            return ((OpenmrsObject) argument).getUuid();
+        }
+        if (argument instanceof Collection || argument instanceof Object[]) {
+            Collection<?> elements = argument instanceof Collection ? (Collection<?>) argument
+                    : Arrays.asList((Object[]) argument);
+            // A set is compared as a set, whatever the order of its elements
+            Collection<Object> values = argument instanceof Set ? new HashSet<Object>()
+                    : new ArrayList<Object>(elements.size());
+            for (Object element : elements) {
+                values.add(getKeyValue(element));
+            }
+            return values;
+        }
+        return argument.toString();
+    }
+
+    /**
+     * @return the furthest cursor at or before the start, as the position among the accessible results and the
+     * position in the rows of the service, or the first row if there is none
+     */
+    private static Map.Entry<Integer, Integer> getCursor(List<Object> searchKey, int start) {
+        synchronized (cursorsBySearch) {
+            SearchCursors searchCursors = cursorsBySearch.get(searchKey);
+            if (searchCursors != null && !searchCursors.isExpired()) {
+                Map.Entry<Integer, Integer> cursor = searchCursors.rowOffsets.floorEntry(start);
+                if (cursor != null) {
+                    return cursor;
+                }
+            }
+        }
+        return new AbstractMap.SimpleImmutableEntry<Integer, Integer>(0, 0);
+    }
+
+    private static void putCursor(List<Object> searchKey, int resultOffset, int rowOffset) {
+        synchronized (cursorsBySearch) {
+            SearchCursors searchCursors = cursorsBySearch.get(searchKey);
+            if (searchCursors == null || searchCursors.isExpired()) {
+                searchCursors = new SearchCursors();
+                cursorsBySearch.put(searchKey, searchCursors);
+            }
+            searchCursors.rowOffsets.put(resultOffset, rowOffset);
+            if (searchCursors.rowOffsets.size() > MAX_CURSORS_PER_SEARCH) {
+                searchCursors.rowOffsets.pollFirstEntry();
+            }
+        }
+    }
+
+    private static double getAccessibleShare(List<Object> shareKey) {
+        synchronized (accessibleShares) {
+            Double share = accessibleShares.get(shareKey);
+            return share != null ? share : 1.0;
+        }
+    }
+
+    /**
+     * Averages the observed share of accessible rows with the previous ones, so it follows a change of the user's
+     * locations without jumping on a single short batch
+     */
+    private static void updateAccessibleShare(List<Object> shareKey, int scannedRows, int accessibleRows) {
+        if (scannedRows == 0) {
+            return;
+        }
+        double share = Math.max((double) accessibleRows / scannedRows, MIN_ACCESSIBLE_SHARE);
+        synchronized (accessibleShares) {
+            Double previousShare = accessibleShares.get(shareKey);
+            accessibleShares.put(shareKey, previousShare != null ? (previousShare + share) / 2 : share);
+        }
+    }
+
+    private static class SearchCursors {
+
+        private final TreeMap<Integer, Integer> rowOffsets = new TreeMap<Integer, Integer>();
+
+        private final long createdAt = System.currentTimeMillis();
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > CURSOR_TIMEOUT_MILLIS;
+        }
+    }
+
+    /**
+     * A page of accessible results, returned in place of the list of the service
+     */
+    public static final class Page extends ArrayList<Object> {
+
+        private final Continuation continuation;
+
+        private Page(List<Object> results, Continuation continuation) {
+            super(results);
+            this.continuation = continuation;
+        }
+
+        /**
+         * @return where the search of this page ended
+         */
+        public Continuation getContinuation() {
+            return continuation;
+        }
+    }
+
+    /**
+     * Where a paged search ended
+     */
+    public static final class Continuation {
+
+        private final int nextStart;
+
+        private final int rowOffset;
+
+        private final boolean hasMore;
+
+        private final int scannedRows;
+
+        private Continuation(int nextStart, int rowOffset, boolean hasMore, int scannedRows) {
+            this.nextStart = nextStart;
+            this.rowOffset = rowOffset;
+            this.hasMore = hasMore;
+            this.scannedRows = scannedRows;
+        }
+
+        /**
+         * @return the start argument of the next page
+         */
+        public int getNextStart() {
+            return nextStart;
+        }
+
+        /**
+         * @return the position in the rows of the service the next page continues from
+         */
+        public int getRowOffset() {
+            return rowOffset;
+        }
+
+        /**
+         * @return false if the rows of the service ran out, so there is no next page
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * @return the number of rows of the service scanned for the page, fewer when it continued from a cursor
+         */
+        public int getScannedRows() {
+            return scannedRows;
+        }
+    }
+}
@@ -17,27 +17,19 @@ import org.openmrs.module.locationbasedaccess.aop.interceptor.PatientServiceInte
 import org.springframework.aop.Advisor;
 import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
 
 public class PatientSearchAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
 
     private static final Log log = LogFactory.getLog(PatientSearchAdviser.class);
-    private Set<String> restrictedGetMethodNames = new HashSet<String>();
-
-    public PatientSearchAdviser() {
-        restrictedGetMethodNames.add("getPatients");
-        restrictedGetMethodNames.add("getPatient");
-        restrictedGetMethodNames.add("getPatientByUuid");
-    }
+    private final MethodDispatchTable dispatchTable = MethodDispatchTable.PATIENT;
 
     @Override
     public boolean matches(Method method, Class targetClass) {
-        return restrictedGetMethodNames.contains(method.getName());
+        return dispatchTable.matches(method);
     }
 
     @Override
     public Advice getAdvice() {
-        return new PatientServiceInterceptorAdvice();
+        return new PatientServiceInterceptorAdvice(dispatchTable);
     }
 }
@@ -17,29 +17,20 @@ import org.openmrs.module.locationbasedaccess.aop.interceptor.PersonServiceInter
 import org.springframework.aop.Advisor;
 import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
 
 public class PersonSearchAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
 
     private static final Log log = LogFactory.getLog(PersonSearchAdviser.class);
-    private Set<String> restrictedGetMethodNames = new HashSet<String>();
-
-    public PersonSearchAdviser() {
-        restrictedGetMethodNames.add("getPeople");
-        restrictedGetMethodNames.add("getPerson");
-        restrictedGetMethodNames.add("getPersonByUuid");
-        restrictedGetMethodNames.add("getSimilarPeople");
-    }
+    private final MethodDispatchTable dispatchTable = MethodDispatchTable.PERSON;
 
     @Override
     public boolean matches(Method method, Class targetClass) {
-        return restrictedGetMethodNames.contains(method.getName());
+        return dispatchTable.matches(method);
     }
 
     @Override
     public Advice getAdvice() {
-        return new PersonServiceInterceptorAdvice();
+        return new PersonServiceInterceptorAdvice(dispatchTable);
     }
 
 }
@@ -0,0 +1,172 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A configured service method and how its results are restricted, parsed from a line such as
+ * <pre>
+ * PatientService.getPatients(String,Integer,Integer) = filter
+ * </pre>
+ * The service is the simple or the fully qualified name of the service interface, the parameter types are simple or
+ * fully qualified class names. Without parameter types the line applies to all the methods with this name, a line with
+ * parameter types takes precedence over it. Without a strategy the method is restricted with {@link Strategy#DATABASE}.
+ */
+public class RestrictedMethod {
+
+    /**
+     * How the results of a method are restricted
+     */
+    public enum Strategy {
+        /**
+         * Restricted in the database query when the method is one of the supported searches and the database
+         * filtering global property of the entity is on, otherwise the results are filtered
+         */
+        DATABASE,
+        /** The results are always filtered after the call */
+        FILTER,
+        /** Not restricted, used to exclude one of the methods restricted by default */
+        NONE
+    }
+
+    private final String serviceName;
+
+    private final String methodName;
+
+    private final List<String> parameterTypes;
+
+    private final Strategy strategy;
+
+    /**
+     * @param serviceName simple or fully qualified name of the service interface
+     * @param methodName name of the method
+     * @param parameterTypes the parameter types, or null for all the methods with this name
+     * @param strategy how the results are restricted
+     */
+    public RestrictedMethod(String serviceName, String methodName, List<String> parameterTypes, Strategy strategy) {
+        this.serviceName = serviceName;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes != null ? Collections.unmodifiableList(parameterTypes) : null;
+        this.strategy = strategy;
+    }
+
+    /**
+     * @param line the configuration line, service.method[(parameter types)] [= strategy]
+     * @return the restricted method
+     * @throws IllegalArgumentException if the line is not valid
+     */
+    public static RestrictedMethod parse(String line) {
+        String signature = line.trim();
+        Strategy strategy = Strategy.DATABASE;
+        int equals = signature.lastIndexOf('=');
+        if (equals >= 0) {
+            String strategyName = signature.substring(equals + 1).trim();
+            try {
+                strategy = Strategy.valueOf(strategyName.toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown strategy " + strategyName + " in " + line);
+            }
+            signature = signature.substring(0, equals).trim();
+        }
+        List<String> parameterTypes = null;
+        int parenthesis = signature.indexOf('(');
+        if (parenthesis >= 0) {
+            if (!signature.endsWith(")")) {
+                throw new IllegalArgumentException("Missing ) in " + line);
+            }
+            parameterTypes = new ArrayList<String>();
+            String parameters = signature.substring(parenthesis + 1, signature.length() - 1).trim();
+            if (!parameters.isEmpty()) {
+                for (String parameterType : parameters.split(",")) {
+                    parameterTypes.add(StringUtils.deleteWhitespace(parameterType));
+                }
+            }
+            signature = signature.substring(0, parenthesis).trim();
+        }
+        int dot = signature.lastIndexOf('.');
+        if (dot <= 0 || dot == signature.length() - 1) {
+            throw new IllegalArgumentException("Expected service.method in " + line);
+        }
+        return new RestrictedMethod(signature.substring(0, dot), signature.substring(dot + 1), parameterTypes, strategy);
+    }
+
+    /**
+     * @param serviceClass a service interface
+     * @return true if the line is for this service
+     */
+    public boolean isFor(Class<?> serviceClass) {
+        return serviceName.equals(serviceClass.getSimpleName()) || serviceName.equals(serviceClass.getName());
+    }
+
+    /**
+     * @param method a method of the service
+     * @return true if the method has the name, and the parameter types if they are given
+     */
+    public boolean matches(Method method) {
+        if (!methodName.equals(method.getName())) {
+            return false;
+        }
+        if (parameterTypes == null) {
+            return true;
+        }
+        Class<?>[] methodParameterTypes = method.getParameterTypes();
+        if (methodParameterTypes.length != parameterTypes.size()) {
+            return false;
+        }
+        for (int i = 0; i < methodParameterTypes.length; i++) {
+            String parameterType = parameterTypes.get(i);
+            if (!parameterType.equals(methodParameterTypes[i].getSimpleName())
+                    && !parameterType.equals(methodParameterTypes[i].getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the line gives the parameter types of the method
+     */
+    public boolean hasParameterTypes() {
+        return parameterTypes != null;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public List<String> getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder(serviceName).append('.').append(methodName);
+        if (parameterTypes != null) {
+            line.append('(').append(StringUtils.join(parameterTypes, ',')).append(')');
+        }
+        return line.append(" = ").append(strategy.name().toLowerCase()).toString();
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The configured restricted methods, on top of the methods restricted by default by the {@link MethodDispatchTable}s
+ * of the advisers. The lines are read from the {@link #FILE_NAME} file of the locationbasedaccess folder of the
+ * application data directory, then from the
+ * {@link LocationBasedAccessConstants#RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME} global property, so a line of the
+ * global property takes precedence over the same line of the file. The lines are separated by new lines or
+ * semicolons, and a line starting with # is a comment, see {@link RestrictedMethod} for the format.
+ * <p>
+ * The configuration is loaded when the module starts, and reloaded when the global property changes or
+ * {@link #reload()} is called, without restarting since the advisers match all the methods which can be restricted.
+ */
+public class RestrictedMethodRegistry {
+
+    private static final Log log = LogFactory.getLog(RestrictedMethodRegistry.class);
+
+    /**
+     * Name of the configuration file in the locationbasedaccess folder of the application data directory
+     */
+    public static final String FILE_NAME = "restricted-methods.conf";
+
+    private static final List<MethodDispatchTable> TABLES = Collections.unmodifiableList(Arrays.asList(
+            MethodDispatchTable.PATIENT, MethodDispatchTable.PERSON, MethodDispatchTable.ENCOUNTER,
+            MethodDispatchTable.USER, MethodDispatchTable.LOCATION));
+
+    private static volatile List<RestrictedMethod> restrictedMethods = Collections.emptyList();
+
+    /**
+     * Reads the configuration file and global property again and reconfigures the tables
+     * @return the configured methods
+     */
+    public static synchronized List<RestrictedMethod> reload() {
+        List<RestrictedMethod> loadedMethods = new ArrayList<RestrictedMethod>();
+        File file = getConfigurationFile();
+        if (file.isFile()) {
+            try {
+                loadedMethods.addAll(parse(FileUtils.readFileToString(file, "UTF-8"), file.getPath()));
+            }
+            catch (IOException e) {
+                log.error("Unable to read the restricted methods from " + file.getPath(), e);
+            }
+        }
+        loadedMethods.addAll(parse(LocationBasedAccessSettings.get().getRestrictedMethods(),
+                LocationBasedAccessConstants.RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME));
+        configure(loadedMethods);
+        log.info("Loaded " + loadedMethods.size() + " restricted method lines");
+        return restrictedMethods;
+    }
+
+    /**
+     * Drops the configuration, only the methods restricted by default stay restricted
+     */
+    public static synchronized void clear() {
+        configure(Collections.<RestrictedMethod>emptyList());
+    }
+
+    /**
+     * @return the configured methods, in the order they were read
+     */
+    public static List<RestrictedMethod> getRestrictedMethods() {
+        return restrictedMethods;
+    }
+
+    public static File getConfigurationFile() {
+        return new File(new File(OpenmrsUtil.getApplicationDataDirectory(), "locationbasedaccess"), FILE_NAME);
+    }
+
+    /**
+     * Parses the configuration lines, the invalid lines are logged and skipped so the other lines still apply
+     * @param text the configuration
+     * @param source where the configuration was read from, for the log
+     * @return the configured methods
+     */
+    static List<RestrictedMethod> parse(String text, String source) {
+        List<RestrictedMethod> parsedMethods = new ArrayList<RestrictedMethod>();
+        if (StringUtils.isBlank(text)) {
+            return parsedMethods;
+        }
+        for (String line : text.split("[\\r\\n;]+")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                RestrictedMethod restrictedMethod = RestrictedMethod.parse(line);
+                if (isForAdvisedService(restrictedMethod)) {
+                    parsedMethods.add(restrictedMethod);
+                } else {
+                    log.warn("Ignoring restricted method " + line + " of " + source
+                            + ", the service is not advised by the module");
+                }
+            }
+            catch (IllegalArgumentException e) {
+                log.warn("Ignoring invalid restricted method of " + source + ": " + e.getMessage());
+            }
+        }
+        return parsedMethods;
+    }
+
+    private static boolean isForAdvisedService(RestrictedMethod restrictedMethod) {
+        for (MethodDispatchTable table : TABLES) {
+            if (restrictedMethod.isFor(table.getServiceClass())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void configure(List<RestrictedMethod> configuredMethods) {
+        restrictedMethods = Collections.unmodifiableList(new ArrayList<RestrictedMethod>(configuredMethods));
+        for (MethodDispatchTable table : TABLES) {
+            table.configure(configuredMethods);
+        }
+    }
+}
@@ -17,32 +17,20 @@ import org.openmrs.module.locationbasedaccess.aop.interceptor.UserServiceInterce
 import org.springframework.aop.Advisor;
 import org.springframework.aop.support.StaticMethodMatcherPointcutAdvisor;
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.Set;
 
 public class UserSearchAdviser extends StaticMethodMatcherPointcutAdvisor implements Advisor {
 
     private static final Log log = LogFactory.getLog(UserSearchAdviser.class);
-    private Set<String> restrictedGetMethodNames = new HashSet<String>();
-
-    public UserSearchAdviser() {
-        restrictedGetMethodNames.add("getUsers");
-        restrictedGetMethodNames.add("getAllUsers");
-        restrictedGetMethodNames.add("getUser");
-        restrictedGetMethodNames.add("getUserByUuid");
-        restrictedGetMethodNames.add("getUserByUsername");
-        restrictedGetMethodNames.add("getUserByName");
-        restrictedGetMethodNames.add("getUsersByPerson");
-    }
+    private final MethodDispatchTable dispatchTable = MethodDispatchTable.USER;
 
     @Override
     public boolean matches(Method method, Class targetClass) {
-        return restrictedGetMethodNames.contains(method.getName());
+        return dispatchTable.matches(method);
     }
 
     @Override
     public Advice getAdvice() {
-        return new UserServiceInterceptorAdvice();
+        return new UserServiceInterceptorAdvice(dispatchTable);
     }
 
 }
@@ -14,88 +14,186 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
 import org.openmrs.Encounter;
 import org.openmrs.Location;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.context.Daemon;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatch;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
+import org.openmrs.parameter.EncounterSearchCriteria;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 
 public class EncounterServiceInterceptorAdvice implements MethodInterceptor {
 
     private static final Log log = LogFactory.getLog(EncounterServiceInterceptorAdvice.class);
 
+    private final MethodDispatchTable dispatchTable;
+
+    public EncounterServiceInterceptorAdvice() {
+        this(MethodDispatchTable.ENCOUNTER);
+    }
+
+    public EncounterServiceInterceptorAdvice(MethodDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
     public Object invoke(MethodInvocation invocation) throws Throwable {
+        MethodDispatch dispatch = dispatchTable.get(invocation.getMethod());
+        if (!dispatch.isRestricted()) {
+            return invocation.proceed();
+        }
+        LocationAccessMetrics.begin();
+        Object object = null;
+        try {
+            object = invokeAndFilter(invocation, dispatch);
+            return object;
+        } finally {
+            LocationAccessMetrics.ENCOUNTER.record(invocation.getMethod(), object);
+        }
+    }
+
+    private Object invokeAndFilter(MethodInvocation invocation, MethodDispatch dispatch) throws Throwable {
         User authenticatedUser = Context.getAuthenticatedUser();
         if (authenticatedUser == null) {
             return null;
         }
+        if (LocationAccessContextHolder.isInternalCall()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
 
-        Object object = invocation.proceed();
-        String lbacRestriction = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME);
-        if (Daemon.isDaemonUser(authenticatedUser) || authenticatedUser.isSuperUser() || !(lbacRestriction.equals("true"))) {
-            return object;
+        final LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        if (!accessContext.isEncounterRestricted()) {
+            return LocationAccessMetrics.proceed(invocation);
         }
 
-        List<String> accessibleLocationUuids = LocationUtils.getUserAccessibleLocationUuids(authenticatedUser);
-        if (accessibleLocationUuids != null) {
-            if (object instanceof List) {
-                List<Encounter> encounterList = (List<Encounter>) object;
-                object = removeEncountersIfNotBelongToGivenLocations(encounterList, accessibleLocationUuids);
-            } else if (object instanceof Map) {
-                Map<Integer, List<Encounter>> encounterMap = (Map<Integer, List<Encounter>>) object;
-                Iterator<Map.Entry<Integer, List<Encounter>>> mapIterator = encounterMap.entrySet().iterator();
-                while (mapIterator.hasNext()) {
-                    Map.Entry<Integer, List<Encounter>> entry = mapIterator.next();
-                    List<Encounter> encounterList = entry.getValue();
-                    entry.setValue(removeEncountersIfNotBelongToGivenLocations(encounterList, accessibleLocationUuids));
-                    //TODO: remove the entry from the map, if the encounter list is empty and update the map index
-                }
-                object = encounterMap;
-            } else if (object instanceof Encounter) {
-                if (!doesEncounterBelongToGivenLocations((Encounter) object, accessibleLocationUuids)) {
-                    object = null;
-                }
+        AccessibleLocations accessibleLocations = accessContext.getAccessibleLocations();
+        if (dispatch.getSearch() == MethodDispatch.Search.ENCOUNTER_COUNT) {
+            if (accessibleLocations == null
+                    || accessContext.isPatientLocationRestrictionType() && accessContext.getLocationAttributeType() == null) {
+                log.debug("Count Encounters : Null Session Location or location attribute type");
+                return 0;
             }
-        } else {
-            log.debug("Search Encounter : Null Session Location in the UserContext");
-            if (object instanceof Encounter) {
-                // If the sessionLocationId is null, then return null for a Encounter instance
+            Object[] arguments = invocation.getArguments();
+            long queryStart = LocationAccessMetrics.startQuery();
+            return LocationAccessMetrics.endQuery(queryStart, Context.getService(LocationBasedAccessService.class)
+                    .getCountOfEncounters((String) arguments[0], (Boolean) arguments[1],
+                            getPatientLocationAttributeType(accessContext), accessibleLocations.asSet()));
+        }
+        if (accessibleLocations != null && dispatch.getSearch() != MethodDispatch.Search.NONE
+                && LocationBasedAccessSettings.get().isEncounterDatabaseFiltering()
+                && (!accessContext.isPatientLocationRestrictionType() || accessContext.getLocationAttributeType() != null)) {
+            long queryStart = LocationAccessMetrics.startQuery();
+            if (dispatch.getSearch() == MethodDispatch.Search.ENCOUNTER_CRITERIA) {
+                return LocationAccessMetrics.endQuery(queryStart, Context.getService(LocationBasedAccessService.class)
+                        .getEncounters((EncounterSearchCriteria) invocation.getArguments()[0],
+                                getPatientLocationAttributeType(accessContext), accessibleLocations.asSet()));
+            }
+            if (dispatch.getSearch() == MethodDispatch.Search.ENCOUNTER_COHORT) {
+                return LocationAccessMetrics.endQuery(queryStart, Context.getService(LocationBasedAccessService.class)
+                        .getAllEncounters((Cohort) invocation.getArguments()[0],
+                                getPatientLocationAttributeType(accessContext), accessibleLocations.asSet()));
+            }
+        }
+
+        if (accessibleLocations != null && LocationBasedAccessSettings.get().isPagedOverFetch()
+                && PagedSearch.isPagedCall(invocation, dispatch)) {
+            return PagedSearch.fetch(invocation, dispatch, authenticatedUser.getUserId(), accessibleLocations.asSet(),
+                    new PagedSearch.Filter() {
+
+                        @Override
+                        public List<Object> filter(List<Object> rows) {
+                            return (List) removeEncountersIfNotBelongToGivenLocations((List) rows, accessContext);
+                        }
+                    });
+        }
+
+        Object object = LocationAccessMetrics.proceed(invocation);
+        if (accessibleLocations != null) {
+            if (object == null) {
                 return null;
-            } else if (object instanceof Map) {
-                // If the sessionLocationId is null, then return a empty map
-                return new HashMap<Integer, List<Encounter>>();
-            } else {
-                // If the sessionLocationId is null, then return a empty list
-                return new ArrayList<Encounter>();
             }
+            switch (dispatch.getResultShape()) {
+                case LIST:
+                case SET:
+                    object = removeEncountersIfNotBelongToGivenLocations((Collection<Encounter>) object, accessContext);
+                    break;
+                case MAP:
+                    Map<Integer, List<Encounter>> encounterMap = (Map<Integer, List<Encounter>>) object;
+                    for (Map.Entry<Integer, List<Encounter>> entry : encounterMap.entrySet()) {
+                        List<Encounter> encounters = (List<Encounter>) removeEncountersIfNotBelongToGivenLocations(
+                                entry.getValue(), accessContext);
+                        if (encounters != entry.getValue()) {
+                            entry.setValue(encounters);
+                        }
+                        //TODO: remove the entry from the map, if the encounter list is empty and update the map index
+                    }
+                    break;
+                case ENTITY:
+                    if (!doesEncounterBelongToGivenLocations((Encounter) object, accessContext)) {
+                        object = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } else {
+            log.debug("Search Encounter : Null Session Location in the UserContext");
+            // If the sessionLocationId is null, then return null for an Encounter, an empty map or an empty list
+            return dispatch.emptyResult();
         }
         return object;
     }
 
-    private List<Encounter> removeEncountersIfNotBelongToGivenLocations(List<Encounter> encounterList, List<String> sessionLocationUuids) {
-        for (Iterator<Encounter> iterator = encounterList.iterator(); iterator.hasNext(); ) {
-            Encounter thisEncounter = iterator.next();
-            if(!doesEncounterBelongToGivenLocations(thisEncounter, sessionLocationUuids)) {
-                iterator.remove();
+    /**
+     * @return the location attribute type if encounters are restricted by patient location, otherwise null
+     */
+    private static PersonAttributeType getPatientLocationAttributeType(LocationAccessContext accessContext) {
+        return accessContext.isPatientLocationRestrictionType() ? accessContext.getLocationAttributeType() : null;
+    }
+
+    private static Collection<Encounter> removeEncountersIfNotBelongToGivenLocations(Collection<Encounter> encounters,
+                                                                                     final LocationAccessContext accessContext) {
+        return ResultFilter.filter(encounters, new ResultFilter.Predicate<Encounter>() {
+
+            @Override
+            public boolean accept(Encounter encounter) {
+                return doesEncounterBelongToGivenLocations(encounter, accessContext);
             }
-        }
-        return encounterList;
+        });
     }
 
     public static Boolean doesEncounterBelongToGivenLocations(Encounter encounter, List<String> sessionLocationUuids) {
         Location location = encounter.getLocation();
-        String encounterAccessType = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_ENCOUNTER_LOCATION);
-        if(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_PATIENT_LOCATION ==encounterAccessType) {
+        if(LocationBasedAccessSettings.get().isPatientLocationRestrictionType()) {
             location = LocationUtils.getPersonLocation(encounter.getPatient());
         }
         return (location != null && StringUtils.isNotBlank(location.getUuid()) && sessionLocationUuids.contains(location.getUuid()));
     }
+
+    private static boolean doesEncounterBelongToGivenLocations(Encounter encounter, LocationAccessContext accessContext) {
+        Location location = encounter.getLocation();
+        if (accessContext.isPatientLocationRestrictionType()) {
+            if (accessContext.getLocationAttributeType() == null) {
+                return false;
+            }
+            PersonAttribute personAttribute = encounter.getPatient().getAttribute(accessContext.getLocationAttributeType());
+            return personAttribute != null && accessContext.canAccessLocation(personAttribute.getValue());
+        }
+        return accessContext.canAccessLocation(location);
+    }
 }
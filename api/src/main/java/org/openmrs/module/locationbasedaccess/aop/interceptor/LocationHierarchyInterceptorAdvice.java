@@ -0,0 +1,34 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.locationbasedaccess.aop.interceptor;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.Location;
+import org.openmrs.module.locationbasedaccess.utils.LocationCacheSynchronization;
+import org.openmrs.module.locationbasedaccess.utils.LocationHierarchyIndex;
+import org.openmrs.module.locationbasedaccess.utils.LocationRegistry;
+
+/**
+ * Keeps the {@link LocationHierarchyIndex} and the {@link LocationRegistry} up to date when locations are saved,
+ * retired or purged. A saved location is applied once its transaction commits, a purge drops them straight away.
+ */
+public class LocationHierarchyInterceptorAdvice implements MethodInterceptor {
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object object = invocation.proceed();
+        if ("purgeLocation".equals(invocation.getMethod().getName())) {
+            LocationCacheSynchronization.clear();
+        } else if (object instanceof Location) {
+            LocationCacheSynchronization.updateAfterCommit((Location) object);
+        }
+        return object;
+    }
+}
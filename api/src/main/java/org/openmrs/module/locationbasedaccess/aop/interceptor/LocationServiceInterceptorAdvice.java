@@ -14,15 +14,19 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Location;
-import org.openmrs.User;
+import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.context.Daemon;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
-import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatch;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
 
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -30,51 +34,96 @@ import java.util.Set;
 public class LocationServiceInterceptorAdvice implements MethodInterceptor {
 
     private static final Log log = LogFactory.getLog(LocationServiceInterceptorAdvice.class);
-    private Set<String> restrictedGetMethodNames;
+    private final MethodDispatchTable dispatchTable;
+
+    public LocationServiceInterceptorAdvice() {
+        this(MethodDispatchTable.LOCATION);
+    }
 
     public LocationServiceInterceptorAdvice(Set<String> restrictedGetMethodNames) {
-        this.restrictedGetMethodNames = restrictedGetMethodNames;
+        this(new MethodDispatchTable(LocationService.class, Location.class, restrictedGetMethodNames));
+    }
+
+    public LocationServiceInterceptorAdvice(MethodDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
     }
 
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        Method method = invocation.getMethod();
-        Object object = invocation.proceed();
-        // Allow get methods without authentications
-        if(!Context.isAuthenticated() && restrictedGetMethodNames.contains(method.getName())) {
-            return object;
+        MethodDispatch dispatch = dispatchTable.get(invocation.getMethod());
+        if (!dispatch.isRestricted()) {
+            return invocation.proceed();
         }
-        User authenticatedUser = Context.getAuthenticatedUser();
-        String lbacRestriction = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.LOCATION_RESTRICTION_GLOBAL_PROPERTY_NAME);
-        if (authenticatedUser != null && (Daemon.isDaemonUser(authenticatedUser) || authenticatedUser.isSuperUser())|| !(lbacRestriction.equals("true"))) {
+        LocationAccessMetrics.begin();
+        Object object = null;
+        try {
+            object = invokeAndFilter(invocation, dispatch);
             return object;
+        } finally {
+            LocationAccessMetrics.LOCATION.record(invocation.getMethod(), object);
         }
+    }
 
-        if(restrictedGetMethodNames.contains(method.getName())) {
-            List<String> accessibleLocationUuids = LocationUtils.getUserAccessibleLocationUuids(authenticatedUser);
-            if (accessibleLocationUuids != null) {
-                if(object instanceof List) {
-                    List<Location> locationList = (List<Location>) object;
-                    for (Iterator<Location> iterator = locationList.iterator(); iterator.hasNext(); ) {
-                        if(!accessibleLocationUuids.contains(iterator.next().getUuid())) {
-                            iterator.remove();
+    private Object invokeAndFilter(MethodInvocation invocation, MethodDispatch dispatch) throws Throwable {
+        if (LocationAccessContextHolder.isInternalCall()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+        // Allow get methods without authentications
+        if(!Context.isAuthenticated()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        if (accessContext == null || !accessContext.isLocationRestricted()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+
+        final AccessibleLocations accessibleLocations = accessContext.getAccessibleLocations();
+        if (accessibleLocations != null && LocationBasedAccessSettings.get().isPagedOverFetch()
+                && PagedSearch.isPagedCall(invocation, dispatch)) {
+            return PagedSearch.fetch(invocation, dispatch, Context.getAuthenticatedUser().getUserId(),
+                    accessibleLocations.asSet(), new PagedSearch.Filter() {
+
+                        @Override
+                        public List<Object> filter(List<Object> rows) {
+                            return (List) removeLocationsIfNotAccessible((List) rows, accessibleLocations);
                         }
+                    });
+        }
+        Object object = LocationAccessMetrics.proceed(invocation);
+        if (accessibleLocations != null) {
+            switch (dispatch.getResultShape()) {
+                case LIST:
+                case SET:
+                    if (object != null) {
+                        object = removeLocationsIfNotAccessible((Collection<Location>) object, accessibleLocations);
                     }
-                    object = locationList;
-                }
-                else if(object instanceof Location) {
-                    if(!accessibleLocationUuids.contains(((Location)object).getUuid())) {
+                    break;
+                case ENTITY:
+                    if(object != null && !accessibleLocations.contains((Location) object)) {
                         object = null;
                     }
-                }
+                    break;
+                default:
+                    break;
             }
-            else {
-                log.debug("Search Location : Null Session Location in the UserContext");
-                if(object instanceof List) {
-                    // If the sessionLocationId is null, then return a empty list
-                    return new ArrayList<Location>();
-                }
+        }
+        else {
+            log.debug("Search Location : Null Session Location in the UserContext");
+            if(dispatch.isCollection()) {
+                // If the sessionLocationId is null, then return a empty list
+                return dispatch.emptyResult();
             }
         }
         return object;
     }
+
+    private static Collection<Location> removeLocationsIfNotAccessible(Collection<Location> locations,
+                                                                       final AccessibleLocations accessibleLocations) {
+        return ResultFilter.filter(locations, new ResultFilter.Predicate<Location>() {
+
+            @Override
+            public boolean accept(Location location) {
+                return accessibleLocations.contains(location);
+            }
+        });
+    }
 }
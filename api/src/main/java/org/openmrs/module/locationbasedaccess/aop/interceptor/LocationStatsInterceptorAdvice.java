@@ -0,0 +1,85 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.locationbasedaccess.aop.interceptor;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.Encounter;
+import org.openmrs.Person;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the locationbasedaccess_location_stats table up to date when patients, persons, encounters and users are
+ * saved, voided or purged. The updated entities are counted by location before and after the call, and the
+ * difference is added to the table in the same transaction.
+ */
+public class LocationStatsInterceptorAdvice implements MethodInterceptor {
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (Context.getAuthenticatedUser() == null || !LocationStats.beginUpdate()) {
+            return invocation.proceed();
+        }
+        try {
+            Set<Integer> personIds = new HashSet<Integer>();
+            Set<Integer> encounterIds = new HashSet<Integer>();
+            Set<Integer> userIds = new HashSet<Integer>();
+            for (Object argument : invocation.getArguments()) {
+                addIds(argument, personIds, encounterIds, userIds);
+            }
+            if (invocation.getMethod().getName().startsWith("saveUserPropert")) {
+                // Saves the properties of the authenticated user
+                addIds(Context.getAuthenticatedUser(), personIds, encounterIds, userIds);
+            }
+            LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+            Map<String, Map<String, Long>> before = locationBasedAccessService.getLocationStatsOf(personIds,
+                    encounterIds, userIds, false);
+
+            Object object = invocation.proceed();
+
+            addIds(object, personIds, encounterIds, userIds);
+            Map<String, Map<String, Long>> after = locationBasedAccessService.getLocationStatsOf(personIds,
+                    encounterIds, userIds, true);
+            Map<String, Map<String, Long>> deltas = LocationStats.difference(before, after);
+            if (!deltas.isEmpty()) {
+                locationBasedAccessService.updateLocationStats(deltas);
+            }
+            return object;
+        } finally {
+            LocationStats.endUpdate();
+        }
+    }
+
+    private static void addIds(Object object, Set<Integer> personIds, Set<Integer> encounterIds, Set<Integer> userIds) {
+        if (object instanceof Person) {
+            addId(((Person) object).getPersonId(), personIds);
+        } else if (object instanceof Encounter) {
+            addId(((Encounter) object).getEncounterId(), encounterIds);
+        } else if (object instanceof User) {
+            addId(((User) object).getUserId(), userIds);
+        } else if (object instanceof Collection) {
+            for (Object element : (Collection<?>) object) {
+                addIds(element, personIds, encounterIds, userIds);
+            }
+        }
+    }
+
+    private static void addId(Integer id, Set<Integer> ids) {
+        if (id != null) {
+            ids.add(id);
+        }
+    }
+}
@@ -11,66 +11,161 @@ package org.openmrs.module.locationbasedaccess.aop.interceptor;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
 import org.openmrs.PersonAttributeType;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.context.Daemon;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatch;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
-import java.util.ArrayList;
-import java.util.Iterator;
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class PatientServiceInterceptorAdvice implements MethodInterceptor {
 
     private static final Log log = LogFactory.getLog(PatientServiceInterceptorAdvice.class);
 
+    private final MethodDispatchTable dispatchTable;
+
+    public PatientServiceInterceptorAdvice() {
+        this(MethodDispatchTable.PATIENT);
+    }
+
+    public PatientServiceInterceptorAdvice(MethodDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
     public Object invoke(MethodInvocation invocation) throws Throwable {
+        MethodDispatch dispatch = dispatchTable.get(invocation.getMethod());
+        if (!dispatch.isRestricted()) {
+            return invocation.proceed();
+        }
+        LocationAccessMetrics.begin();
+        Object object = null;
+        try {
+            object = invokeAndFilter(invocation, dispatch);
+            return object;
+        } finally {
+            LocationAccessMetrics.PATIENT.record(invocation.getMethod(), object);
+        }
+    }
+
+    private Object invokeAndFilter(MethodInvocation invocation, MethodDispatch dispatch) throws Throwable {
         User authenticatedUser = Context.getAuthenticatedUser();
         if (authenticatedUser == null) {
             return null;
         }
-        Object object = invocation.proceed();
-        String lbacRestriction = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME);
-        if (Daemon.isDaemonUser(authenticatedUser) || authenticatedUser.isSuperUser() || !(lbacRestriction.equals("true"))) {
-            return object;
+        if (LocationAccessContextHolder.isInternalCall()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        if (!accessContext.isPatientRestricted()) {
+            return LocationAccessMetrics.proceed(invocation);
         }
+        if (dispatch.getSearch() == MethodDispatch.Search.PATIENT_COUNT && accessContext.getLocationAttributeType() != null) {
+            return countAccessiblePatients(invocation.getArguments(), accessContext);
+        }
+        if (accessContext.getLocationAttributeType() != null && accessContext.getAccessibleLocations() != null
+                && dispatch.getSearch() == MethodDispatch.Search.PATIENT_QUERY
+                && LocationBasedAccessSettings.get().isPatientDatabaseFiltering()) {
+            return searchAccessiblePatients(invocation.getArguments(), accessContext);
+        }
+        final AccessibleLocations accessibleLocations = accessContext.getAccessibleLocations();
+        final PersonAttributeType personAttributeType = accessContext.getLocationAttributeType();
+        if (personAttributeType != null && accessibleLocations != null && LocationBasedAccessSettings.get().isPagedOverFetch()
+                && PagedSearch.isPagedCall(invocation, dispatch)) {
+            return PagedSearch.fetch(invocation, dispatch, authenticatedUser.getUserId(), accessibleLocations.asSet(),
+                    new PagedSearch.Filter() {
 
-        List<String> accessibleLocationUuids = LocationUtils.getUserAccessibleLocationUuids(authenticatedUser);
-        String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
-        if (StringUtils.isNotBlank(locationAttributeUuid)) {
-            final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid);
-            if (accessibleLocationUuids != null) {
-                if(object instanceof List) {
-                    List<Patient> patientList = (List<Patient>) object;
-                    for (Iterator<Patient> iterator = patientList.iterator(); iterator.hasNext(); ) {
-                        if(!LocationUtils.doesPersonBelongToGivenLocations(iterator.next().getPerson(), personAttributeType, accessibleLocationUuids)) {
-                            iterator.remove();
+                        @Override
+                        public List<Object> filter(List<Object> rows) {
+                            return (List) removePatientsIfNotBelongToGivenLocations((List) rows, personAttributeType,
+                                    accessibleLocations);
                         }
-                    }
-                    object = patientList;
-                }
-                else if(object instanceof Patient) {
-                    if(!LocationUtils.doesPersonBelongToGivenLocations(((Patient)object).getPerson(), personAttributeType, accessibleLocationUuids)) {
-                        object = null;
-                    }
+                    });
+        }
+        Object object = LocationAccessMetrics.proceed(invocation);
+
+        if (personAttributeType != null) {
+            if (accessibleLocations != null) {
+                switch (dispatch.getResultShape()) {
+                    case LIST:
+                    case SET:
+                        if (object != null) {
+                            object = removePatientsIfNotBelongToGivenLocations((Collection<Patient>) object,
+                                    personAttributeType, accessibleLocations);
+                        }
+                        break;
+                    case ENTITY:
+                        if(object != null && !LocationUtils.doesPersonBelongToGivenLocations(((Patient)object).getPerson(), personAttributeType, accessibleLocations)) {
+                            object = null;
+                        }
+                        break;
+                    default:
+                        break;
                 }
             } else {
                 log.debug("Search Patient : Null Session Location in the UserContext");
-                if(object instanceof Patient) {
-                    // If the sessionLocationId is null, then return null for a Patient instance
-                    return null;
-                }
-                else {
-                    // If the sessionLocationId is null, then return a empty list
-                    return new ArrayList<Patient>();
-                }
+                // If the sessionLocationId is null, then return null for a Patient and an empty list for a list
+                return dispatch.emptyResult();
             }
         }
         return object;
     }
+
+    private static Collection<Patient> removePatientsIfNotBelongToGivenLocations(Collection<Patient> patients,
+                                                                                 final PersonAttributeType personAttributeType,
+                                                                                 final AccessibleLocations accessibleLocations) {
+        final Map<Integer, String> personLocationUuids = LocationUtils.getPersonLocationUuids(patients, personAttributeType);
+        return ResultFilter.filter(patients, new ResultFilter.Predicate<Patient>() {
+
+            @Override
+            public boolean accept(Patient patient) {
+                return LocationUtils.doesPersonBelongToGivenLocations(patient, personLocationUuids, personAttributeType,
+                        accessibleLocations);
+            }
+        });
+    }
+
+    private static Integer countAccessiblePatients(Object[] arguments, LocationAccessContext accessContext) {
+        if (accessContext.getAccessibleLocations() == null) {
+            log.debug("Count Patients : Null Session Location in the UserContext");
+            return 0;
+        }
+        boolean includeVoided = arguments.length == 2 && (Boolean) arguments[1];
+        long queryStart = LocationAccessMetrics.startQuery();
+        return LocationAccessMetrics.endQuery(queryStart, Context.getService(LocationBasedAccessService.class)
+                .getCountOfPatients((String) arguments[0], includeVoided, accessContext.getLocationAttributeType(),
+                        accessContext.getAccessibleLocations().asSet()));
+    }
+
+    private static List<Patient> searchAccessiblePatients(Object[] arguments, LocationAccessContext accessContext) {
+        String query = (String) arguments[0];
+        boolean includeVoided = false;
+        Integer start = null;
+        Integer length = null;
+        if (arguments.length == 3) {
+            start = (Integer) arguments[1];
+            length = (Integer) arguments[2];
+        } else if (arguments.length == 4) {
+            includeVoided = (Boolean) arguments[1];
+            start = (Integer) arguments[2];
+            length = (Integer) arguments[3];
+        }
+        long queryStart = LocationAccessMetrics.startQuery();
+        return LocationAccessMetrics.endQuery(queryStart, Context.getService(LocationBasedAccessService.class)
+                .getPatients(query, includeVoided, start, length, accessContext.getLocationAttributeType(),
+                        accessContext.getAccessibleLocations().asSet()));
+    }
 }
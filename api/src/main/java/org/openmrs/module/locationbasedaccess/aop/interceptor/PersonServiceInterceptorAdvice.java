@@ -11,76 +11,122 @@ package org.openmrs.module.locationbasedaccess.aop.interceptor;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Person;
 import org.openmrs.PersonAttributeType;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.context.Daemon;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatch;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class PersonServiceInterceptorAdvice  implements MethodInterceptor {
 
     private static final Log log = LogFactory.getLog(PersonServiceInterceptorAdvice.class);
 
+    private final MethodDispatchTable dispatchTable;
+
+    public PersonServiceInterceptorAdvice() {
+        this(MethodDispatchTable.PERSON);
+    }
+
+    public PersonServiceInterceptorAdvice(MethodDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
     public Object invoke(MethodInvocation invocation) throws Throwable {
+        MethodDispatch dispatch = dispatchTable.get(invocation.getMethod());
+        if (!dispatch.isRestricted()) {
+            return invocation.proceed();
+        }
+        LocationAccessMetrics.begin();
+        Object object = null;
+        try {
+            object = invokeAndFilter(invocation, dispatch);
+            return object;
+        } finally {
+            LocationAccessMetrics.PERSON.record(invocation.getMethod(), object);
+        }
+    }
+
+    private Object invokeAndFilter(MethodInvocation invocation, MethodDispatch dispatch) throws Throwable {
         User authenticatedUser = Context.getAuthenticatedUser();
         if (authenticatedUser == null) {
             return null;
         }
-        Object object = invocation.proceed();
-        String lbacRestriction = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.PERSON_RESTRICTION_GLOBAL_PROPERTY_NAME);
-        if (Daemon.isDaemonUser(authenticatedUser) || authenticatedUser.isSuperUser() || !(lbacRestriction.equals("true"))) {
+        if (LocationAccessContextHolder.isInternalCall()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+        Object object = LocationAccessMetrics.proceed(invocation);
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        if (!accessContext.isPersonRestricted()) {
             return object;
         }
-        List<String> accessibleLocationUuids = LocationUtils.getUserAccessibleLocationUuids(authenticatedUser);
-        String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
-        if (StringUtils.isNotBlank(locationAttributeUuid) && (invocation.getMethod().getName() != "getPersonAttributeTypeByUuid")) {
-            final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid);
-            if (accessibleLocationUuids != null) {
-                if(object instanceof List) {
-                    List<Person> personList = (List<Person>) object;
-                    for (Iterator<Person> iterator = personList.iterator(); iterator.hasNext(); ) {
-                        Person thisPerson = iterator.next();
-                        if (!LocationUtils.doesPersonBelongToGivenLocations(thisPerson, personAttributeType, accessibleLocationUuids)) {
-                            if (!LocationUtils.doesUsersForPersonBelongToGivenLocations(thisPerson, accessibleLocationUuids)) {
+        AccessibleLocations accessibleLocations = accessContext.getAccessibleLocations();
+        final PersonAttributeType personAttributeType = accessContext.getLocationAttributeType();
+        if (personAttributeType != null && !"getPersonAttributeTypeByUuid".equals(invocation.getMethod().getName())) {
+            if (accessibleLocations != null) {
+                switch (dispatch.getResultShape()) {
+                    case LIST:
+                    case SET:
+                        if (object != null) {
+                            object = filterPersons((Collection<Person>) object, personAttributeType, accessibleLocations,
+                                    authenticatedUser);
+                        }
+                        break;
+                    case ENTITY:
+                        Person thisPerson = (Person) object;
+                        if (thisPerson != null && !LocationUtils.doesPersonBelongToGivenLocations(thisPerson, personAttributeType, accessibleLocations)) {
+                            if (!LocationUtils.doesUsersForPersonBelongToGivenLocations(thisPerson, accessibleLocations)) {
                                 if (!thisPerson.getUuid().equals(authenticatedUser.getPerson().getUuid())) {
-                                    iterator.remove();
+                                    object = null;
                                 }
                             }
                         }
-                    }
-                    object = personList;
-                }
-                else if(object instanceof Person) {
-                    Person thisPerson = (Person)object;
-                    if (!LocationUtils.doesPersonBelongToGivenLocations(thisPerson, personAttributeType, accessibleLocationUuids)) {
-                        if (!LocationUtils.doesUsersForPersonBelongToGivenLocations(thisPerson, accessibleLocationUuids)) {
-                            if (!thisPerson.getUuid().equals(authenticatedUser.getPerson().getUuid())) {
-                                object = null;
-                            }
-                        }
-                    }
+                        break;
+                    default:
+                        break;
                 }
             } else {
                 log.debug("Search Person : Null Session Location in the UserContext");
-                if(object instanceof Person) {
-                    // If the sessionLocationId is null, then return null for a Person instance
-                    return null;
-                }
-                else {
-                    // If the sessionLocationId is null, then return a empty list
-                    return new ArrayList<Person>();
-                }
+                // If the sessionLocationId is null, then return null for a Person and an empty collection otherwise
+                return dispatch.emptyResult();
             }
         }
         return object;
     }
+
+    private static Collection<Person> filterPersons(Collection<Person> persons, final PersonAttributeType personAttributeType,
+                                                    final AccessibleLocations accessibleLocations,
+                                                    final User authenticatedUser) {
+        final Map<Integer, String> personLocationUuids = LocationUtils.getPersonLocationUuids(persons, personAttributeType);
+        // Only the persons without an accessible location attribute are checked through their users
+        List<Person> personsWithoutAccessibleLocation = new ArrayList<Person>();
+        for (Person thisPerson : persons) {
+            if (!LocationUtils.doesPersonBelongToGivenLocations(thisPerson, personLocationUuids, personAttributeType, accessibleLocations)) {
+                personsWithoutAccessibleLocation.add(thisPerson);
+            }
+        }
+        final Map<Integer, List<String>> usersLocationUuids = LocationUtils.getUsersLocationUuids(personsWithoutAccessibleLocation);
+        return ResultFilter.filter(persons, new ResultFilter.Predicate<Person>() {
+
+            @Override
+            public boolean accept(Person thisPerson) {
+                return LocationUtils.doesPersonBelongToGivenLocations(thisPerson, personLocationUuids, personAttributeType, accessibleLocations)
+                        || LocationUtils.doesUsersForPersonBelongToGivenLocations(thisPerson, usersLocationUuids, accessibleLocations)
+                        || thisPerson.getUuid().equals(authenticatedUser.getPerson().getUuid());
+            }
+        });
+    }
 }
@@ -15,61 +15,113 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
-import org.openmrs.api.context.Daemon;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatch;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.aop.PagedSearch;
+import org.openmrs.module.locationbasedaccess.metrics.LocationAccessMetrics;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
-import java.util.ArrayList;
-import java.util.Iterator;
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
+import java.util.Collection;
 import java.util.List;
 
 public class UserServiceInterceptorAdvice implements MethodInterceptor {
 
     private static final Log log = LogFactory.getLog(UserServiceInterceptorAdvice.class);
 
+    private final MethodDispatchTable dispatchTable;
+
+    public UserServiceInterceptorAdvice() {
+        this(MethodDispatchTable.USER);
+    }
+
+    public UserServiceInterceptorAdvice(MethodDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        User authenticatedUser = Context.getAuthenticatedUser();
+        MethodDispatch dispatch = dispatchTable.get(invocation.getMethod());
+        if (!dispatch.isRestricted()) {
+            return invocation.proceed();
+        }
+        LocationAccessMetrics.begin();
+        Object object = null;
+        try {
+            object = invokeAndFilter(invocation, dispatch);
+            return object;
+        } finally {
+            LocationAccessMetrics.USER.record(invocation.getMethod(), object);
+        }
+    }
+
+    private Object invokeAndFilter(MethodInvocation invocation, MethodDispatch dispatch) throws Throwable {
+        final User authenticatedUser = Context.getAuthenticatedUser();
         if (authenticatedUser == null) {
             return null;
         }
-        Object object = invocation.proceed();
-        String lbacRestriction = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.USER_RESTRICTION_GLOBAL_PROPERTY_NAME);
-        if (Daemon.isDaemonUser(authenticatedUser) || authenticatedUser.isSuperUser()|| !(lbacRestriction.equals("true"))) {
-            return object;
+        if (LocationAccessContextHolder.isInternalCall()) {
+            return LocationAccessMetrics.proceed(invocation);
         }
-        List<String> accessibleLocationUuids = LocationUtils.getUserAccessibleLocationUuids(authenticatedUser);
-        if (accessibleLocationUuids != null) {
-            if(object instanceof List) {
-                List<User> userList = (List<User>) object;
-                for (Iterator<User> iterator = userList.iterator(); iterator.hasNext(); ) {
-                    User user = iterator.next();
-                    if (!LocationUtils.doesUserBelongToGivenLocations(user, accessibleLocationUuids)) {
-                        if (!authenticatedUser.getUuid().equals(user.getUuid())) {
-                            iterator.remove();
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        if (!accessContext.isUserRestricted()) {
+            return LocationAccessMetrics.proceed(invocation);
+        }
+        final AccessibleLocations accessibleLocations = accessContext.getAccessibleLocations();
+        if (accessibleLocations != null && LocationBasedAccessSettings.get().isPagedOverFetch()
+                && PagedSearch.isPagedCall(invocation, dispatch)) {
+            return PagedSearch.fetch(invocation, dispatch, authenticatedUser.getUserId(), accessibleLocations.asSet(),
+                    new PagedSearch.Filter() {
+
+                        @Override
+                        public List<Object> filter(List<Object> rows) {
+                            return (List) removeUsersIfNotBelongToGivenLocations((List) rows, accessibleLocations,
+                                    authenticatedUser);
                         }
+                    });
+        }
+        Object object = LocationAccessMetrics.proceed(invocation);
+        if (accessibleLocations != null) {
+            switch (dispatch.getResultShape()) {
+                case LIST:
+                case SET:
+                    if (object != null) {
+                        object = removeUsersIfNotBelongToGivenLocations((Collection<User>) object, accessibleLocations,
+                                authenticatedUser);
                     }
-                }
-                object = userList;
-            }
-            else if(object instanceof User) {
-                User user = (User) object;
-                if (!LocationUtils.doesUserBelongToGivenLocations(user, accessibleLocationUuids)) {
-                    if (!authenticatedUser.getUuid().equals(user.getUuid())) {
-                        object = null;
+                    break;
+                case ENTITY:
+                    User user = (User) object;
+                    if (user != null && !LocationUtils.doesUserBelongToGivenLocations(user, accessibleLocations)) {
+                        if (!authenticatedUser.getUuid().equals(user.getUuid())) {
+                            object = null;
+                        }
                     }
-                }
+                    break;
+                default:
+                    break;
             }
         }
         else {
             log.debug("Search User : Null Session Location in the UserContext");
-            if(object instanceof User) {
-                // If the sessionLocationId is null, then return null for a User instance
-                return null;
-            }
-            else {
-                // If the sessionLocationId is null, then return a empty list
-                return new ArrayList<User>();
-            }
+            // If the sessionLocationId is null, then return null for a User and an empty collection otherwise
+            return dispatch.emptyResult();
         }
         return object;
     }
+
+    private static Collection<User> removeUsersIfNotBelongToGivenLocations(Collection<User> users,
+                                                                           final AccessibleLocations accessibleLocations,
+                                                                           final User authenticatedUser) {
+        return ResultFilter.filter(users, new ResultFilter.Predicate<User>() {
+
+            @Override
+            public boolean accept(User user) {
+                return LocationUtils.doesUserBelongToGivenLocations(user, accessibleLocations)
+                        || authenticatedUser.getUuid().equals(user.getUuid());
+            }
+        });
+    }
 }
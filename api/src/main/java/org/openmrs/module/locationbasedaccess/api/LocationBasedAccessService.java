@@ -0,0 +1,318 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.api;
+
+import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.annotation.Authorized;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
+import org.openmrs.module.locationbasedaccess.migration.PatientSelector;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Location restricted queries used by the LBAC interceptors, so the restriction can be applied in the database
+ * instead of filtering the results of the core services.
+ */
+@Transactional
+public interface LocationBasedAccessService extends OpenmrsService {
+
+    /**
+     * Searches patients by name or identifier like {@link org.openmrs.api.PatientService#getPatients(String, boolean,
+     * Integer, Integer)}, returning only the patients whose location attribute is one of the given locations. The
+     * restriction is part of the query, so start and length page over the accessible patients only.
+     * @param query name or identifier to search for
+     * @param includeVoided whether voided patients should be included
+     * @param start index of the first result, or null to start from the first one
+     * @param length maximum number of results, or null for the default maximum search results
+     * @param locationAttributeType the location person attribute type
+     * @param locationUuids the accessible location uuids
+     * @return the accessible patients matching the query
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    List<Patient> getPatients(String query, boolean includeVoided, Integer start, Integer length,
+                              PersonAttributeType locationAttributeType, Collection<String> locationUuids);
+
+    /**
+     * Counts patients like {@link org.openmrs.api.PatientService#getCountOfPatients(String, boolean)}, counting only
+     * the patients whose location attribute is one of the given locations, in a single query.
+     * @param query name or identifier to search for
+     * @param includeVoided whether voided patients should be counted
+     * @param locationAttributeType the location person attribute type
+     * @param locationUuids the accessible location uuids
+     * @return the number of accessible patients matching the query
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    Integer getCountOfPatients(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                               Collection<String> locationUuids);
+
+    /**
+     * Searches encounters like {@link org.openmrs.api.EncounterService#getEncounters(EncounterSearchCriteria)},
+     * returning only the encounters at one of the given locations. If a location attribute type is given, the
+     * location of the patient is used instead of the encounter location.
+     * @param searchCriteria the encounter search criteria
+     * @param locationAttributeType the location person attribute type, or null to restrict by encounter location
+     * @param locationUuids the accessible location uuids
+     * @return the accessible encounters matching the criteria, that the authenticated user has the privilege to view
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+    List<Encounter> getEncounters(EncounterSearchCriteria searchCriteria, PersonAttributeType locationAttributeType,
+                                  Collection<String> locationUuids);
+
+    /**
+     * Counts encounters like {@link org.openmrs.api.EncounterService#getCountOfEncounters(String, boolean)}, counting
+     * only the encounters at one of the given locations, in a single query. If a location attribute type is given,
+     * the location of the patient is used instead of the encounter location.
+     * @param query name or identifier of the patients to search for, or blank to count the encounters of all patients
+     * @param includeVoided whether voided encounters and patients should be counted
+     * @param locationAttributeType the location person attribute type, or null to restrict by encounter location
+     * @param locationUuids the accessible location uuids
+     * @return the number of accessible encounters matching the query
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+    Integer getCountOfEncounters(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                 Collection<String> locationUuids);
+
+    /**
+     * Gets the non voided encounters of the patients like {@link org.openmrs.api.EncounterService#getAllEncounters(Cohort)},
+     * returning only the encounters at one of the given locations. If a location attribute type is given, the
+     * location of the patient is used instead of the encounter location.
+     * @param patients the patients, or null for all patients
+     * @param locationAttributeType the location person attribute type, or null to restrict by encounter location
+     * @param locationUuids the accessible location uuids
+     * @return the accessible encounters grouped by patient id
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+    Map<Integer, List<Encounter>> getAllEncounters(Cohort patients, PersonAttributeType locationAttributeType,
+                                                   Collection<String> locationUuids);
+
+    /**
+     * Gets the location attribute values of the given persons in bulk, so a list of persons can be filtered without
+     * loading the attributes of every person. Persons without a non voided location attribute are not in the map.
+     * @param personIds ids of the persons
+     * @param locationAttributeType the location person attribute type
+     * @return location uuid by person id
+     */
+    @Transactional(readOnly = true)
+    Map<Integer, String> getPersonLocationUuids(Collection<Integer> personIds, PersonAttributeType locationAttributeType);
+
+    /**
+     * Gets the locationUuid user property of the non retired users linked to the given persons in bulk, so a list of
+     * persons can be filtered without looking up the users of every person.
+     * @param personIds ids of the persons
+     * @return the property values of the users of each person, by person id. The value is null for a user without the
+     * property. Persons without users are not in the map.
+     */
+    @Transactional(readOnly = true)
+    Map<Integer, List<String>> getUserLocationPropertiesByPerson(Collection<Integer> personIds);
+
+    /**
+     * Counts the non voided patients by the value of their location attribute, with a single aggregate query.
+     * @param locationAttributeType the location person attribute type
+     * @return number of patients by location uuid
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    Map<String, Long> getPatientCountByLocation(PersonAttributeType locationAttributeType);
+
+    /**
+     * Counts the non voided encounters of non voided patients by location, with a single aggregate query.
+     * @param byPatientLocation whether to count by the location attribute of the patient instead of the encounter location
+     * @param locationAttributeType the location person attribute type, required to count by patient location or to
+     * restrict the patients
+     * @param patientLocationUuids if not null, only the encounters of the patients with one of these locations are counted
+     * @param fromDate if not null, only the encounters on or after this date are counted
+     * @param toDate if not null, only the encounters before this date are counted
+     * @return number of encounters by location uuid
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+    Map<String, Long> getEncounterCountByLocation(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                  Collection<String> patientLocationUuids, Date fromDate, Date toDate);
+
+    /**
+     * Counts the encounters like {@link #getEncounterCountByLocation(boolean, PersonAttributeType, Collection, Date,
+     * Date)}, split by period of the encounter datetime. The encounters are counted by day or by month in the
+     * database, the weeks are summed up from the days.
+     * @param byPatientLocation whether to count by the location attribute of the patient instead of the encounter location
+     * @param locationAttributeType the location person attribute type, required to count by patient location or to
+     * restrict the patients
+     * @param patientLocationUuids if not null, only the encounters of the patients with one of these locations are counted
+     * @param fromDate if not null, only the encounters on or after this date are counted
+     * @param toDate if not null, only the encounters before this date are counted
+     * @param period one of the ENCOUNTER_COUNT_PERIOD constants of
+     * {@link org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants}, weeks start on Monday
+     * @return number of encounters by location uuid and start of the period, sorted by period
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+    Map<String, SortedMap<Date, Long>> getEncounterCountByLocationAndPeriod(boolean byPatientLocation,
+                                                                            PersonAttributeType locationAttributeType,
+                                                                            Collection<String> patientLocationUuids,
+                                                                            Date fromDate, Date toDate, String period);
+
+    /**
+     * Counts the users by the locations in their locationUuid user property. The property values are streamed from
+     * the database, so the memory needed only depends on the number of locations.
+     * @return number of users by location uuid, the users without the property are counted with the null key
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_USERS)
+    Map<String, Long> getUserCountByLocation();
+
+    /**
+     * Reads the counts of an entity type from the locationbasedaccess_location_stats table. The table is only up to
+     * date when {@link org.openmrs.module.locationbasedaccess.stats.LocationStats#isReady()} is true.
+     * @param entityType one of the entity types of {@link org.openmrs.module.locationbasedaccess.stats.LocationStats}
+     * @return the number of entities by location uuid
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_LOCATIONS)
+    Map<String, Long> getLocationStats(String entityType);
+
+    /**
+     * Counts the given entities by location, for each entity type of the stats table. The difference between the
+     * counts before and after an update is the change to apply to the table.
+     * @param personIds the patients whose patient and encounter counts are needed
+     * @param encounterIds the encounters whose counts are needed
+     * @param userIds the users whose counts are needed
+     * @param flush true to flush the pending changes of the session before counting, false to count the entities as
+     * they currently are in the database
+     * @return the counts by entity type and location uuid
+     */
+    Map<String, Map<String, Long>> getLocationStatsOf(Collection<Integer> personIds, Collection<Integer> encounterIds,
+                                                      Collection<Integer> userIds, boolean flush);
+
+    /**
+     * Adds the given changes to the locationbasedaccess_location_stats table
+     * @param deltas the changes by entity type and location uuid
+     */
+    void updateLocationStats(Map<String, Map<String, Long>> deltas);
+
+    /**
+     * Rebuilds the locationbasedaccess_location_stats table by counting all the patients, encounters and users
+     */
+    void reconcileLocationStats();
+
+    /**
+     * Used to filter patient uuids by location with a query per chunk of uuids, instead of loading each patient.
+     * @param patientUuids the patient uuids to filter
+     * @param locationAttributeType the location person attribute type
+     * @param locationUuids the accessible location uuids
+     * @return the uuids of the patients whose location attribute is one of the given locations
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    List<String> getAccessiblePatientUuids(Collection<String> patientUuids, PersonAttributeType locationAttributeType,
+                                           Collection<String> locationUuids);
+
+    /**
+     * Creates a job migrating the given patients to the location. The job is only saved, it is run by
+     * {@link org.openmrs.module.locationbasedaccess.migration.PatientMigrationRunner}.
+     * @param patientUuids the patients to migrate, in the order they are migrated
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @return the queued job
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    PatientMigrationJob createPatientMigrationJob(List<String> patientUuids, String locationUuid);
+
+    /**
+     * Creates a job migrating the given patients to the location, storing them as the batches are read so the
+     * patients do not have to be all in memory. The duplicates are not removed across the batches.
+     * @param patientUuidBatches the batches of patients to migrate, in the order they are migrated
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @return the queued job
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    PatientMigrationJob createPatientMigrationJob(Iterator<List<String>> patientUuidBatches, String locationUuid);
+
+    /**
+     * Creates a job migrating the patients selected in the database to the location. The selected patients are
+     * stored with the job a chunk at a time, so the job migrates the patients selected when it was created.
+     * @param selector the criteria of the patients to migrate
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @return the queued job
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    PatientMigrationJob createPatientMigrationJob(PatientSelector selector, String locationUuid);
+
+    /**
+     * @param uuid uuid of the job
+     * @return the job, or null if there is no job with this uuid
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    PatientMigrationJob getPatientMigrationJobByUuid(String uuid);
+
+    /**
+     * @return the queued and running jobs, oldest first, to be resumed when the module starts
+     */
+    @Transactional(readOnly = true)
+    @Authorized(PrivilegeConstants.GET_PATIENTS)
+    List<PatientMigrationJob> getUnfinishedPatientMigrationJobs();
+
+    /**
+     * Migrates the next chunk of patients of a job and saves its progress in the same transaction. The session is
+     * flushed and cleared at the end of the chunk.
+     * @param uuid uuid of the job
+     * @param chunkSize maximum number of patients to migrate
+     * @return the updated job
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    PatientMigrationJob migrateNextPatientChunk(String uuid, int chunkSize);
+
+    /**
+     * Migrates patients to a location without going through {@link org.openmrs.api.PatientService#savePatient}: their
+     * location attributes are voided and the new ones inserted with set based statements, a chunk of patients at a
+     * time. The patient validators and save handlers are not run, only the location attribute, the audit fields of
+     * the attributes and the changed by and date changed of the persons are updated. The session is flushed and
+     * cleared at the end.
+     * @param patientUuids the patients to migrate
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @return the number of patients migrated, not counting the patients which were already at the location
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    int migratePatientLocations(Collection<String> patientUuids, String locationUuid);
+
+    /**
+     * Migrates the patients selected in the database to a location, the same way as
+     * {@link #migratePatientLocations(Collection, String)}. The patients are selected a chunk at a time.
+     * @param selector the criteria of the patients to migrate
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @return the number of patients migrated, not counting the patients which were already at the location
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    int migratePatientLocations(PatientSelector selector, String locationUuid);
+
+    /**
+     * Marks a job as failed, keeping the patients migrated by the previous chunks
+     * @param uuid uuid of the job
+     * @param message the reason of the failure
+     */
+    @Authorized(PrivilegeConstants.EDIT_PATIENTS)
+    void failPatientMigrationJob(String uuid, String message);
+}
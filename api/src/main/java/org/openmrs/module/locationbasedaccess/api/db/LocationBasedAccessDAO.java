@@ -0,0 +1,206 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.api.db;
+
+import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
+import org.openmrs.module.locationbasedaccess.migration.PatientSelector;
+import org.openmrs.parameter.EncounterSearchCriteria;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Database access for {@link LocationBasedAccessService}
+ */
+public interface LocationBasedAccessDAO {
+
+    /**
+     * @see LocationBasedAccessService#getPatients(String, boolean, Integer, Integer, PersonAttributeType, Collection)
+     */
+    List<Patient> getPatients(String query, boolean includeVoided, Integer start, Integer length,
+                              PersonAttributeType locationAttributeType, Collection<String> locationUuids);
+
+    /**
+     * @see LocationBasedAccessService#getCountOfPatients(String, boolean, PersonAttributeType, Collection)
+     */
+    Integer getCountOfPatients(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                               Collection<String> locationUuids);
+
+    /**
+     * @see LocationBasedAccessService#getEncounters(EncounterSearchCriteria, PersonAttributeType, Collection)
+     */
+    List<Encounter> getEncounters(EncounterSearchCriteria searchCriteria, PersonAttributeType locationAttributeType,
+                                  Collection<String> locationUuids);
+
+    /**
+     * @see LocationBasedAccessService#getCountOfEncounters(String, boolean, PersonAttributeType, Collection)
+     */
+    Integer getCountOfEncounters(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                 Collection<String> locationUuids);
+
+    /**
+     * @see LocationBasedAccessService#getAllEncounters(Cohort, PersonAttributeType, Collection)
+     */
+    Map<Integer, List<Encounter>> getAllEncounters(Cohort patients, PersonAttributeType locationAttributeType,
+                                                   Collection<String> locationUuids);
+
+    /**
+     * @see LocationBasedAccessService#getPersonLocationUuids(Collection, PersonAttributeType)
+     */
+    Map<Integer, String> getPersonLocationUuids(Collection<Integer> personIds, PersonAttributeType locationAttributeType);
+
+    /**
+     * @see LocationBasedAccessService#getUserLocationPropertiesByPerson(Collection)
+     */
+    Map<Integer, List<String>> getUserLocationPropertiesByPerson(Collection<Integer> personIds);
+
+    /**
+     * @see LocationBasedAccessService#getPatientCountByLocation(PersonAttributeType)
+     */
+    Map<String, Long> getPatientCountByLocation(PersonAttributeType locationAttributeType);
+
+    /**
+     * @see LocationBasedAccessService#getEncounterCountByLocation(boolean, PersonAttributeType, Collection, Date, Date)
+     */
+    Map<String, Long> getEncounterCountByLocation(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                  Collection<String> patientLocationUuids, Date fromDate, Date toDate);
+
+    /**
+     * @see LocationBasedAccessService#getEncounterCountByLocationAndPeriod(boolean, PersonAttributeType, Collection,
+     * Date, Date, String)
+     */
+    Map<String, SortedMap<Date, Long>> getEncounterCountByLocationAndPeriod(boolean byPatientLocation,
+                                                                            PersonAttributeType locationAttributeType,
+                                                                            Collection<String> patientLocationUuids,
+                                                                            Date fromDate, Date toDate, String period);
+
+    /**
+     * @see LocationBasedAccessService#getUserCountByLocation()
+     */
+    Map<String, Long> getUserCountByLocation();
+
+    /**
+     * @see LocationBasedAccessService#getLocationStatsOf(Collection, Collection, Collection, boolean)
+     */
+    Map<String, Map<String, Long>> getLocationStatsOf(Collection<Integer> personIds, Collection<Integer> encounterIds,
+                                                      Collection<Integer> userIds,
+                                                      PersonAttributeType locationAttributeType, boolean flush);
+
+    /**
+     * @see LocationBasedAccessService#getLocationStats(String)
+     */
+    Map<String, Long> getLocationStats(String entityType);
+
+    /**
+     * Adds the given changes to the counts of the entity type in the stats table
+     * @param entityType the entity type
+     * @param deltas the changes by location uuid
+     */
+    void updateLocationStats(String entityType, Map<String, Long> deltas);
+
+    /**
+     * Replaces all the counts of the entity type in the stats table
+     * @param entityType the entity type
+     * @param counts the counts by location uuid
+     */
+    void replaceLocationStats(String entityType, Map<String, Long> counts);
+
+    /**
+     * @see LocationBasedAccessService#getAccessiblePatientUuids(Collection, PersonAttributeType, Collection)
+     */
+    List<String> getAccessiblePatientUuids(Collection<String> patientUuids, PersonAttributeType locationAttributeType,
+                                           Collection<String> locationUuids);
+
+    /**
+     * Inserts a new job and the uuids of its patients, in order
+     * @param job the job to insert
+     * @param patientUuids the patients to migrate
+     */
+    void savePatientMigrationJob(PatientMigrationJob job, List<String> patientUuids);
+
+    /**
+     * Adds patients at the end of a job
+     * @param jobUuid uuid of the job
+     * @param fromPosition position of the first of the patients in the job
+     * @param patientUuids the patients to migrate
+     */
+    void savePatientMigrationItems(String jobUuid, int fromPosition, List<String> patientUuids);
+
+    /**
+     * Updates the status, the total and the progress of a job
+     * @param job the job to update
+     */
+    void updatePatientMigrationJob(PatientMigrationJob job);
+
+    /**
+     * @see LocationBasedAccessService#getPatientMigrationJobByUuid(String)
+     */
+    PatientMigrationJob getPatientMigrationJobByUuid(String uuid);
+
+    /**
+     * @param statuses the job statuses
+     * @return the jobs with one of the given statuses, oldest first
+     */
+    List<PatientMigrationJob> getPatientMigrationJobs(Collection<String> statuses);
+
+    /**
+     * @param jobUuid uuid of the job
+     * @param fromPosition position of the first patient to return
+     * @param length maximum number of patients to return
+     * @return the uuids of the patients of the job from the given position
+     */
+    List<String> getPatientMigrationItems(String jobUuid, int fromPosition, int length);
+
+    /**
+     * @param patientUuids the patient uuids
+     * @return the ids of the patients with the given uuids, with a query per chunk of uuids
+     */
+    List<Integer> getPatientIdsByUuid(Collection<String> patientUuids);
+
+    /**
+     * Reads a page of the patients selected by the selector, by id order
+     * @param selector the criteria of the patients
+     * @param locationAttributeType the location person attribute type
+     * @param afterPatientId id of the last patient of the previous page, 0 for the first page
+     * @param maxResults the page size
+     * @return the uuids of the patients of the page by patient id
+     */
+    SortedMap<Integer, String> getSelectedPatients(PatientSelector selector, PersonAttributeType locationAttributeType,
+                                                   int afterPatientId, int maxResults);
+
+    /**
+     * Moves the given patients to the location with set based statements: the location attributes with another
+     * value are voided and a new attribute is inserted for the patients which do not have the location yet.
+     * @param patientIds the patients to migrate, at most a thousand
+     * @param locationAttributeType the location person attribute type
+     * @param locationUuid uuid of the location to migrate the patients to
+     * @param userId the user recorded as creator of the new attributes and voider of the old ones
+     * @param date the date recorded in the audit fields
+     * @param voidReason the reason recorded on the voided attributes
+     * @return the number of patients migrated
+     */
+    int rewritePatientLocationAttributes(List<Integer> patientIds, PersonAttributeType locationAttributeType,
+                                         String locationUuid, Integer userId, Date date, String voidReason);
+
+    /**
+     * Flushes the pending changes and evicts all the loaded entities from the session, so the memory used by a long
+     * running job does not grow with the number of entities it processed
+     */
+    void flushAndClearSession();
+}
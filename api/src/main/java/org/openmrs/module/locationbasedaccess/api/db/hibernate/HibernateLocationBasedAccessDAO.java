@@ -0,0 +1,907 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.api.db.hibernate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
+import org.hibernate.type.StandardBasicTypes;
+import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.api.db.hibernate.PatientSearchCriteria;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.api.db.LocationBasedAccessDAO;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
+import org.openmrs.module.locationbasedaccess.migration.PatientSelector;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import org.openmrs.parameter.EncounterSearchCriteria;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+public class HibernateLocationBasedAccessDAO implements LocationBasedAccessDAO {
+
+    /**
+     * Maximum number of ids bound to a single IN clause
+     */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    /**
+     * Number of rows fetched at a time when streaming results
+     */
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * Encounter datetime columns grouped by to count the encounters by day and by month
+     */
+    private static final String PERIOD_DAY = "cast(e.encounter_datetime as date)";
+
+    private static final String PERIOD_MONTH = "year(e.encounter_datetime), month(e.encounter_datetime)";
+
+    private static final String PATIENT_MIGRATION_JOB_COLUMNS = "uuid, location_uuid, status, total, processed, failed,"
+            + " message, creator, date_created, date_changed";
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public List<Patient> getPatients(String query, boolean includeVoided, Integer start, Integer length,
+                                     PersonAttributeType locationAttributeType, Collection<String> locationUuids) {
+        if (StringUtils.isBlank(query) || locationUuids.isEmpty() || (length != null && length < 1)) {
+            return new ArrayList<Patient>();
+        }
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
+        criteria = new PatientSearchCriteria(sessionFactory.getHibernateSessionFactory(), criteria)
+                .prepareCriteria(query, null, true, includeVoided);
+        criteria.add(Subqueries.propertyIn("patientId", getPersonIdsWithLocation(locationAttributeType, locationUuids)));
+        if (start != null && start > 0) {
+            criteria.setFirstResult(start);
+        }
+        if (length != null) {
+            criteria.setMaxResults(length);
+        }
+        return criteria.list();
+    }
+
+    @Override
+    public Integer getCountOfPatients(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                      Collection<String> locationUuids) {
+        if (StringUtils.isBlank(query) || locationUuids.isEmpty()) {
+            return 0;
+        }
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
+        criteria = new PatientSearchCriteria(sessionFactory.getHibernateSessionFactory(), criteria)
+                .prepareCriteria(query, null, false, includeVoided);
+        criteria.add(Subqueries.propertyIn("patientId", getPersonIdsWithLocation(locationAttributeType, locationUuids)));
+        criteria.setProjection(Projections.countDistinct("patientId"));
+        return toInteger(criteria.uniqueResult());
+    }
+
+    @Override
+    public List<Encounter> getEncounters(EncounterSearchCriteria searchCriteria, PersonAttributeType locationAttributeType,
+                                         Collection<String> locationUuids) {
+        if (locationUuids.isEmpty()) {
+            return new ArrayList<Encounter>();
+        }
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+        if (searchCriteria.getPatient() != null && searchCriteria.getPatient().getPatientId() != null) {
+            criteria.add(Restrictions.eq("patient", searchCriteria.getPatient()));
+        }
+        if (searchCriteria.getLocation() != null && searchCriteria.getLocation().getLocationId() != null) {
+            criteria.add(Restrictions.eq("location", searchCriteria.getLocation()));
+        }
+        if (searchCriteria.getFromDate() != null) {
+            criteria.add(Restrictions.ge("encounterDatetime", searchCriteria.getFromDate()));
+        }
+        if (searchCriteria.getToDate() != null) {
+            criteria.add(Restrictions.le("encounterDatetime", searchCriteria.getToDate()));
+        }
+        if (searchCriteria.getDateChanged() != null) {
+            criteria.add(Restrictions.or(
+                    Restrictions.and(Restrictions.isNull("dateChanged"),
+                            Restrictions.ge("dateCreated", searchCriteria.getDateChanged())),
+                    Restrictions.ge("dateChanged", searchCriteria.getDateChanged())));
+        }
+        if (searchCriteria.getEnteredViaForms() != null && !searchCriteria.getEnteredViaForms().isEmpty()) {
+            criteria.add(Restrictions.in("form", searchCriteria.getEnteredViaForms()));
+        }
+        if (searchCriteria.getEncounterTypes() != null && !searchCriteria.getEncounterTypes().isEmpty()) {
+            criteria.add(Restrictions.in("encounterType", searchCriteria.getEncounterTypes()));
+        }
+        if (searchCriteria.getProviders() != null && !searchCriteria.getProviders().isEmpty()) {
+            criteria.createAlias("encounterProviders", "encounterProvider");
+            criteria.add(Restrictions.in("encounterProvider.provider", searchCriteria.getProviders()));
+        }
+        if (searchCriteria.getVisitTypes() != null && !searchCriteria.getVisitTypes().isEmpty()) {
+            criteria.createAlias("visit", "visit");
+            criteria.add(Restrictions.in("visit.visitType", searchCriteria.getVisitTypes()));
+        }
+        if (searchCriteria.getVisits() != null && !searchCriteria.getVisits().isEmpty()) {
+            criteria.add(Restrictions.in("visit", searchCriteria.getVisits()));
+        }
+        if (!searchCriteria.getIncludeVoided()) {
+            criteria.add(Restrictions.eq("voided", false));
+        }
+        addEncounterLocationRestriction(criteria, locationAttributeType, locationUuids);
+        criteria.addOrder(Order.asc("encounterDatetime"));
+        return criteria.list();
+    }
+
+    @Override
+    public Integer getCountOfEncounters(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                        Collection<String> locationUuids) {
+        if (locationUuids.isEmpty()) {
+            return 0;
+        }
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class, "enc");
+        if (!includeVoided) {
+            criteria.add(Restrictions.eq("enc.voided", false));
+        }
+        addEncounterLocationRestriction(criteria, locationAttributeType, locationUuids);
+        criteria.setProjection(Projections.countDistinct("enc.encounterId"));
+        if (StringUtils.isNotBlank(query)) {
+            // Like EncounterService#getCountOfEncounters(String, boolean), the query searches the patient names and identifiers
+            new PatientSearchCriteria(sessionFactory.getHibernateSessionFactory(), criteria.createCriteria("patient", "pat"))
+                    .prepareCriteria(query, null, false, includeVoided);
+        }
+        return toInteger(criteria.uniqueResult());
+    }
+
+    @Override
+    public Map<Integer, List<Encounter>> getAllEncounters(Cohort patients, PersonAttributeType locationAttributeType,
+                                                          Collection<String> locationUuids) {
+        Map<Integer, List<Encounter>> encountersByPatient = new HashMap<Integer, List<Encounter>>();
+        if (locationUuids.isEmpty()) {
+            return encountersByPatient;
+        }
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+        criteria.setCacheMode(CacheMode.IGNORE);
+        if (patients != null && patients.size() > 0) {
+            criteria.add(Restrictions.in("patient.id", patients.getMemberIds()));
+        }
+        criteria.add(Restrictions.eq("voided", false));
+        addEncounterLocationRestriction(criteria, locationAttributeType, locationUuids);
+        criteria.addOrder(Order.desc("patient.id"));
+        criteria.addOrder(Order.desc("encounterDatetime"));
+
+        List<Encounter> encounters = criteria.list();
+        for (Encounter encounter : encounters) {
+            Integer patientId = encounter.getPatient().getPatientId();
+            List<Encounter> patientEncounters = encountersByPatient.get(patientId);
+            if (patientEncounters == null) {
+                patientEncounters = new ArrayList<Encounter>();
+                encountersByPatient.put(patientId, patientEncounters);
+            }
+            patientEncounters.add(encounter);
+        }
+        return encountersByPatient;
+    }
+
+    @Override
+    public Map<Integer, String> getPersonLocationUuids(Collection<Integer> personIds,
+                                                       PersonAttributeType locationAttributeType) {
+        Map<Integer, String> locationUuids = new HashMap<Integer, String>();
+        List<Integer> ids = new ArrayList<Integer>(personIds);
+        for (int fromIndex = 0; fromIndex < ids.size(); fromIndex += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = ids.subList(fromIndex, Math.min(fromIndex + MAX_IDS_PER_QUERY, ids.size()));
+            Criteria criteria = sessionFactory.getCurrentSession().createCriteria(PersonAttribute.class, "locationAttribute")
+                    .add(Restrictions.eq("locationAttribute.attributeType", locationAttributeType))
+                    .add(Restrictions.eq("locationAttribute.voided", false))
+                    .add(Restrictions.in("locationAttribute.person.personId", chunk))
+                    .setProjection(Projections.projectionList()
+                            .add(Projections.property("locationAttribute.person.personId"))
+                            .add(Projections.property("locationAttribute.value")))
+                    .addOrder(Order.asc("locationAttribute.personAttributeId"));
+            for (Object[] row : (List<Object[]>) criteria.list()) {
+                // Keep the first active attribute, like Person#getAttribute(PersonAttributeType)
+                if (!locationUuids.containsKey(row[0])) {
+                    locationUuids.put((Integer) row[0], (String) row[1]);
+                }
+            }
+        }
+        return locationUuids;
+    }
+
+    @Override
+    public Map<Integer, List<String>> getUserLocationPropertiesByPerson(Collection<Integer> personIds) {
+        Map<Integer, List<String>> userLocationProperties = new HashMap<Integer, List<String>>();
+        List<Integer> ids = new ArrayList<Integer>(personIds);
+        for (int fromIndex = 0; fromIndex < ids.size(); fromIndex += MAX_IDS_PER_QUERY) {
+            List<Integer> chunk = ids.subList(fromIndex, Math.min(fromIndex + MAX_IDS_PER_QUERY, ids.size()));
+            SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                    "select u.person_id, up.property_value from users u"
+                            + " left join user_property up on up.user_id = u.user_id and up.property = :property"
+                            + " where u.retired = :retired and u.person_id in (:personIds)");
+            query.setString("property", LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+            query.setBoolean("retired", false);
+            query.setParameterList("personIds", chunk);
+            for (Object[] row : (List<Object[]>) query.list()) {
+                Integer personId = ((Number) row[0]).intValue();
+                List<String> properties = userLocationProperties.get(personId);
+                if (properties == null) {
+                    properties = new ArrayList<String>();
+                    userLocationProperties.put(personId, properties);
+                }
+                properties.add((String) row[1]);
+            }
+        }
+        return userLocationProperties;
+    }
+
+    @Override
+    public Map<String, Long> getPatientCountByLocation(PersonAttributeType locationAttributeType) {
+        return getPatientCountByLocation(locationAttributeType, null, true);
+    }
+
+    @Override
+    public Map<String, Long> getEncounterCountByLocation(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                         Collection<String> patientLocationUuids, Date fromDate,
+                                                         Date toDate) {
+        return toCountMap(queryEncounterCounts(byPatientLocation, locationAttributeType, patientLocationUuids, null, null,
+                fromDate, toDate, null, true));
+    }
+
+    @Override
+    public Map<String, SortedMap<Date, Long>> getEncounterCountByLocationAndPeriod(boolean byPatientLocation,
+                                                                                   PersonAttributeType locationAttributeType,
+                                                                                   Collection<String> patientLocationUuids,
+                                                                                   Date fromDate, Date toDate, String period) {
+        boolean byMonth = LocationBasedAccessConstants.ENCOUNTER_COUNT_PERIOD_MONTH.equals(period);
+        List<Object[]> rows = queryEncounterCounts(byPatientLocation, locationAttributeType, patientLocationUuids, null,
+                null, fromDate, toDate, byMonth ? PERIOD_MONTH : PERIOD_DAY, true);
+        boolean byWeek = LocationBasedAccessConstants.ENCOUNTER_COUNT_PERIOD_WEEK.equals(period);
+        Map<String, SortedMap<Date, Long>> counts = new HashMap<String, SortedMap<Date, Long>>();
+        Calendar calendar = Calendar.getInstance();
+        for (Object[] row : rows) {
+            if (row[0] == null) {
+                continue;
+            }
+            calendar.clear();
+            if (byMonth) {
+                calendar.set(((Number) row[1]).intValue(), ((Number) row[2]).intValue() - 1, 1);
+            } else {
+                Calendar day = Calendar.getInstance();
+                day.setTime((Date) row[1]);
+                calendar.set(day.get(Calendar.YEAR), day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH));
+                if (byWeek) {
+                    // Back to the Monday of the week
+                    calendar.add(Calendar.DAY_OF_MONTH, -((calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7));
+                }
+            }
+            SortedMap<Date, Long> locationCounts = counts.get(row[0]);
+            if (locationCounts == null) {
+                locationCounts = new TreeMap<Date, Long>();
+                counts.put((String) row[0], locationCounts);
+            }
+            Date periodStart = calendar.getTime();
+            Long count = locationCounts.get(periodStart);
+            long rowCount = ((Number) row[row.length - 1]).longValue();
+            locationCounts.put(periodStart, count == null ? rowCount : count + rowCount);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getUserCountByLocation() {
+        return getUserCountByLocation(null, true);
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getLocationStatsOf(Collection<Integer> personIds, Collection<Integer> encounterIds,
+                                                             Collection<Integer> userIds,
+                                                             PersonAttributeType locationAttributeType, boolean flush) {
+        if (flush) {
+            sessionFactory.getCurrentSession().flush();
+        }
+        boolean all = personIds == null && encounterIds == null && userIds == null;
+        Map<String, Map<String, Long>> counts = new HashMap<String, Map<String, Long>>();
+        if (all || !isEmpty(personIds)) {
+            if (locationAttributeType != null) {
+                counts.put(LocationStats.PATIENT, getPatientCountByLocation(locationAttributeType, personIds, flush));
+            }
+        }
+        if (all || !isEmpty(personIds) || !isEmpty(encounterIds)) {
+            counts.put(LocationStats.ENCOUNTER,
+                    getEncounterCountByLocation(false, null, null, personIds, encounterIds, flush));
+            if (locationAttributeType != null) {
+                counts.put(LocationStats.ENCOUNTER_BY_PATIENT_LOCATION, getEncounterCountByLocation(true,
+                        locationAttributeType, null, personIds, encounterIds, flush));
+            }
+        }
+        if (all || !isEmpty(userIds)) {
+            Map<String, Long> userCounts = getUserCountByLocation(userIds, flush);
+            Long usersWithoutLocation = userCounts.remove(null);
+            if (usersWithoutLocation != null) {
+                userCounts.put(LocationStats.NO_LOCATION, usersWithoutLocation);
+            }
+            counts.put(LocationStats.USER, userCounts);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getLocationStats(String entityType) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select location_uuid, entity_count from locationbasedaccess_location_stats"
+                        + " where entity_type = :entityType and entity_count <> 0");
+        query.setString("entityType", entityType);
+        return toCountMap((List<Object[]>) query.list());
+    }
+
+    @Override
+    public void updateLocationStats(String entityType, Map<String, Long> deltas) {
+        Date now = new Date();
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            SQLQuery update = sessionFactory.getCurrentSession().createSQLQuery(
+                    "update locationbasedaccess_location_stats set entity_count = entity_count + :delta,"
+                            + " date_updated = :now where entity_type = :entityType and location_uuid = :locationUuid");
+            update.setLong("delta", delta.getValue());
+            update.setTimestamp("now", now);
+            update.setString("entityType", entityType);
+            update.setString("locationUuid", delta.getKey());
+            if (update.executeUpdate() == 0) {
+                insertLocationStats(entityType, delta.getKey(), delta.getValue(), now);
+            }
+        }
+    }
+
+    @Override
+    public void replaceLocationStats(String entityType, Map<String, Long> counts) {
+        SQLQuery delete = sessionFactory.getCurrentSession().createSQLQuery(
+                "delete from locationbasedaccess_location_stats where entity_type = :entityType");
+        delete.setString("entityType", entityType);
+        delete.executeUpdate();
+        Date now = new Date();
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            insertLocationStats(entityType, count.getKey(), count.getValue(), now);
+        }
+    }
+
+    @Override
+    public List<String> getAccessiblePatientUuids(Collection<String> patientUuids, PersonAttributeType locationAttributeType,
+                                                  Collection<String> locationUuids) {
+        List<String> accessiblePatientUuids = new ArrayList<String>();
+        if (locationUuids.isEmpty()) {
+            return accessiblePatientUuids;
+        }
+        List<String> uuids = new ArrayList<String>(patientUuids);
+        for (int fromIndex = 0; fromIndex < uuids.size(); fromIndex += MAX_IDS_PER_QUERY) {
+            List<String> chunk = uuids.subList(fromIndex, Math.min(fromIndex + MAX_IDS_PER_QUERY, uuids.size()));
+            SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                    "select distinct ps.uuid from person ps"
+                            + " join patient p on p.patient_id = ps.person_id"
+                            + " join person_attribute pa on pa.person_id = ps.person_id"
+                            + " and pa.person_attribute_type_id = :attributeTypeId and pa.voided = :voided"
+                            + " where ps.uuid in (:patientUuids) and pa.value in (:locationUuids)");
+            query.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+            query.setBoolean("voided", false);
+            query.setParameterList("patientUuids", chunk);
+            query.setParameterList("locationUuids", locationUuids);
+            accessiblePatientUuids.addAll((List<String>) query.list());
+        }
+        return accessiblePatientUuids;
+    }
+
+    @Override
+    public void savePatientMigrationJob(PatientMigrationJob job, List<String> patientUuids) {
+        SQLQuery insertJob = sessionFactory.getCurrentSession().createSQLQuery(
+                "insert into locationbasedaccess_patient_migration_job (uuid, location_uuid, status, total, processed,"
+                        + " failed, message, creator, date_created) values (:uuid, :locationUuid, :status, :total,"
+                        + " :processed, :failed, :message, :creator, :dateCreated)");
+        insertJob.setString("uuid", job.getUuid());
+        insertJob.setString("locationUuid", job.getLocationUuid());
+        insertJob.setString("status", job.getStatus());
+        insertJob.setInteger("total", job.getTotal());
+        insertJob.setInteger("processed", job.getProcessed());
+        insertJob.setInteger("failed", job.getFailed());
+        insertJob.setString("message", job.getMessage());
+        insertJob.setParameter("creator", job.getCreator(), StandardBasicTypes.INTEGER);
+        insertJob.setTimestamp("dateCreated", job.getDateCreated());
+        insertJob.executeUpdate();
+        savePatientMigrationItems(job.getUuid(), 0, patientUuids);
+    }
+
+    @Override
+    public void savePatientMigrationItems(String jobUuid, int fromPosition, List<String> patientUuids) {
+        for (int fromIndex = 0; fromIndex < patientUuids.size(); fromIndex += MAX_IDS_PER_QUERY) {
+            int toIndex = Math.min(fromIndex + MAX_IDS_PER_QUERY, patientUuids.size());
+            // A single insert statement for the whole chunk
+            StringBuilder sql = new StringBuilder(
+                    "insert into locationbasedaccess_patient_migration_item (job_uuid, item_position, patient_uuid) values ");
+            for (int index = fromIndex; index < toIndex; index++) {
+                sql.append(index > fromIndex ? ", " : "").append("(:jobUuid, :position").append(index)
+                        .append(", :patientUuid").append(index).append(")");
+            }
+            SQLQuery insertItems = sessionFactory.getCurrentSession().createSQLQuery(sql.toString());
+            insertItems.setString("jobUuid", jobUuid);
+            for (int index = fromIndex; index < toIndex; index++) {
+                insertItems.setInteger("position" + index, fromPosition + index);
+                insertItems.setString("patientUuid" + index, patientUuids.get(index));
+            }
+            insertItems.executeUpdate();
+        }
+    }
+
+    @Override
+    public void updatePatientMigrationJob(PatientMigrationJob job) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "update locationbasedaccess_patient_migration_job set status = :status, total = :total,"
+                        + " processed = :processed, failed = :failed, message = :message, date_changed = :dateChanged"
+                        + " where uuid = :uuid");
+        query.setString("status", job.getStatus());
+        query.setInteger("total", job.getTotal());
+        query.setInteger("processed", job.getProcessed());
+        query.setInteger("failed", job.getFailed());
+        query.setString("message", job.getMessage());
+        query.setTimestamp("dateChanged", job.getDateChanged());
+        query.setString("uuid", job.getUuid());
+        query.executeUpdate();
+    }
+
+    @Override
+    public PatientMigrationJob getPatientMigrationJobByUuid(String uuid) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select " + PATIENT_MIGRATION_JOB_COLUMNS + " from locationbasedaccess_patient_migration_job"
+                        + " where uuid = :uuid");
+        query.setString("uuid", uuid);
+        List<Object[]> rows = query.list();
+        return rows.isEmpty() ? null : toPatientMigrationJob(rows.get(0));
+    }
+
+    @Override
+    public List<PatientMigrationJob> getPatientMigrationJobs(Collection<String> statuses) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select " + PATIENT_MIGRATION_JOB_COLUMNS + " from locationbasedaccess_patient_migration_job"
+                        + " where status in (:statuses) order by date_created");
+        query.setParameterList("statuses", statuses);
+        List<PatientMigrationJob> jobs = new ArrayList<PatientMigrationJob>();
+        for (Object[] row : (List<Object[]>) query.list()) {
+            jobs.add(toPatientMigrationJob(row));
+        }
+        return jobs;
+    }
+
+    @Override
+    public List<String> getPatientMigrationItems(String jobUuid, int fromPosition, int length) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select patient_uuid from locationbasedaccess_patient_migration_item"
+                        + " where job_uuid = :jobUuid and item_position >= :fromPosition and item_position < :toPosition"
+                        + " order by item_position");
+        query.setString("jobUuid", jobUuid);
+        query.setInteger("fromPosition", fromPosition);
+        query.setInteger("toPosition", fromPosition + length);
+        return query.list();
+    }
+
+    @Override
+    public List<Integer> getPatientIdsByUuid(Collection<String> patientUuids) {
+        List<Integer> patientIds = new ArrayList<Integer>();
+        List<String> uuids = new ArrayList<String>(patientUuids);
+        for (int fromIndex = 0; fromIndex < uuids.size(); fromIndex += MAX_IDS_PER_QUERY) {
+            List<String> chunk = uuids.subList(fromIndex, Math.min(fromIndex + MAX_IDS_PER_QUERY, uuids.size()));
+            SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                    "select p.patient_id from patient p join person ps on ps.person_id = p.patient_id"
+                            + " where ps.uuid in (:patientUuids)");
+            query.setParameterList("patientUuids", chunk);
+            for (Object patientId : query.list()) {
+                patientIds.add(((Number) patientId).intValue());
+            }
+        }
+        return patientIds;
+    }
+
+    @Override
+    public SortedMap<Integer, String> getSelectedPatients(PatientSelector selector,
+                                                          PersonAttributeType locationAttributeType,
+                                                          int afterPatientId, int maxResults) {
+        SortedMap<Integer, String> patients = new TreeMap<Integer, String>();
+        Collection<String> accessibleLocationUuids = selector.getAccessibleLocationUuids();
+        if (selector.isEmpty() || (accessibleLocationUuids != null && accessibleLocationUuids.isEmpty())) {
+            return patients;
+        }
+        StringBuilder sql = new StringBuilder("select p.patient_id, ps.uuid from patient p"
+                + " join person ps on ps.person_id = p.patient_id");
+        if (selector.getCohortUuid() != null) {
+            sql.append(" join cohort_member cm on cm.patient_id = p.patient_id")
+                    .append(" join cohort c on c.cohort_id = cm.cohort_id and c.uuid = :cohortUuid");
+        }
+        sql.append(" where p.voided = :voided and p.patient_id > :afterPatientId");
+        if (selector.getFromLocationUuid() != null) {
+            sql.append(" and exists (select 1 from person_attribute pa where pa.person_id = p.patient_id")
+                    .append(" and pa.person_attribute_type_id = :attributeTypeId and pa.voided = :voided")
+                    .append(" and pa.value = :fromLocationUuid)");
+        }
+        if (selector.getIdentifierPrefix() != null) {
+            sql.append(" and exists (select 1 from patient_identifier pi where pi.patient_id = p.patient_id")
+                    .append(" and pi.voided = :voided and pi.identifier like :identifierPattern escape '!')");
+        }
+        if (accessibleLocationUuids != null) {
+            sql.append(" and exists (select 1 from person_attribute apa where apa.person_id = p.patient_id")
+                    .append(" and apa.person_attribute_type_id = :attributeTypeId and apa.voided = :voided")
+                    .append(" and apa.value in (:accessibleLocationUuids))");
+        }
+        sql.append(" order by p.patient_id");
+
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(sql.toString());
+        query.setBoolean("voided", false);
+        query.setInteger("afterPatientId", afterPatientId);
+        if (selector.getCohortUuid() != null) {
+            query.setString("cohortUuid", selector.getCohortUuid());
+        }
+        if (selector.getFromLocationUuid() != null || accessibleLocationUuids != null) {
+            query.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        }
+        if (selector.getFromLocationUuid() != null) {
+            query.setString("fromLocationUuid", selector.getFromLocationUuid());
+        }
+        if (selector.getIdentifierPrefix() != null) {
+            query.setString("identifierPattern", selector.getIdentifierPrefix()
+                    .replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+        }
+        if (accessibleLocationUuids != null) {
+            query.setParameterList("accessibleLocationUuids", accessibleLocationUuids);
+        }
+        query.setMaxResults(maxResults);
+        for (Object[] row : (List<Object[]>) query.list()) {
+            patients.put(((Number) row[0]).intValue(), (String) row[1]);
+        }
+        return patients;
+    }
+
+    @Override
+    public int rewritePatientLocationAttributes(List<Integer> patientIds, PersonAttributeType locationAttributeType,
+                                                String locationUuid, Integer userId, Date date, String voidReason) {
+        if (patientIds.isEmpty()) {
+            return 0;
+        }
+        // The patients which already have the location keep their attribute
+        SQLQuery existing = sessionFactory.getCurrentSession().createSQLQuery(
+                "select distinct person_id from person_attribute where person_attribute_type_id = :attributeTypeId"
+                        + " and voided = :voided and value = :locationUuid and person_id in (:patientIds)");
+        existing.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        existing.setBoolean("voided", false);
+        existing.setString("locationUuid", locationUuid);
+        existing.setParameterList("patientIds", patientIds);
+        Set<Integer> migratedIds = new HashSet<Integer>();
+        for (Object patientId : existing.list()) {
+            migratedIds.add(((Number) patientId).intValue());
+        }
+
+        SQLQuery voidAttributes = sessionFactory.getCurrentSession().createSQLQuery(
+                "update person_attribute set voided = :voided, voided_by = :userId, date_voided = :date,"
+                        + " void_reason = :voidReason where person_attribute_type_id = :attributeTypeId"
+                        + " and voided = :notVoided and value <> :locationUuid and person_id in (:patientIds)");
+        voidAttributes.setBoolean("voided", true);
+        voidAttributes.setParameter("userId", userId, StandardBasicTypes.INTEGER);
+        voidAttributes.setTimestamp("date", date);
+        voidAttributes.setString("voidReason", voidReason);
+        voidAttributes.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        voidAttributes.setBoolean("notVoided", false);
+        voidAttributes.setString("locationUuid", locationUuid);
+        voidAttributes.setParameterList("patientIds", patientIds);
+        voidAttributes.executeUpdate();
+
+        List<Integer> idsToInsert = new ArrayList<Integer>();
+        for (Integer patientId : patientIds) {
+            if (!migratedIds.contains(patientId)) {
+                idsToInsert.add(patientId);
+            }
+        }
+        if (idsToInsert.isEmpty()) {
+            return 0;
+        }
+        // A single insert statement for the whole chunk
+        StringBuilder sql = new StringBuilder("insert into person_attribute (person_id, value, person_attribute_type_id,"
+                + " creator, date_created, voided, uuid) values ");
+        for (int index = 0; index < idsToInsert.size(); index++) {
+            sql.append(index > 0 ? ", " : "").append("(:personId").append(index)
+                    .append(", :locationUuid, :attributeTypeId, :userId, :date, :voided, :uuid").append(index).append(")");
+        }
+        SQLQuery insertAttributes = sessionFactory.getCurrentSession().createSQLQuery(sql.toString());
+        insertAttributes.setString("locationUuid", locationUuid);
+        insertAttributes.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        insertAttributes.setParameter("userId", userId, StandardBasicTypes.INTEGER);
+        insertAttributes.setTimestamp("date", date);
+        insertAttributes.setBoolean("voided", false);
+        for (int index = 0; index < idsToInsert.size(); index++) {
+            insertAttributes.setInteger("personId" + index, idsToInsert.get(index));
+            insertAttributes.setString("uuid" + index, UUID.randomUUID().toString());
+        }
+        insertAttributes.executeUpdate();
+
+        SQLQuery updatePersons = sessionFactory.getCurrentSession().createSQLQuery(
+                "update person set changed_by = :userId, date_changed = :date where person_id in (:patientIds)");
+        updatePersons.setParameter("userId", userId, StandardBasicTypes.INTEGER);
+        updatePersons.setTimestamp("date", date);
+        updatePersons.setParameterList("patientIds", idsToInsert);
+        updatePersons.executeUpdate();
+        return idsToInsert.size();
+    }
+
+    @Override
+    public void flushAndClearSession() {
+        sessionFactory.getCurrentSession().flush();
+        sessionFactory.getCurrentSession().clear();
+    }
+
+    private static PatientMigrationJob toPatientMigrationJob(Object[] row) {
+        PatientMigrationJob job = new PatientMigrationJob();
+        job.setUuid((String) row[0]);
+        job.setLocationUuid((String) row[1]);
+        job.setStatus((String) row[2]);
+        job.setTotal(((Number) row[3]).intValue());
+        job.setProcessed(((Number) row[4]).intValue());
+        job.setFailed(((Number) row[5]).intValue());
+        job.setMessage((String) row[6]);
+        job.setCreator(row[7] != null ? ((Number) row[7]).intValue() : null);
+        job.setDateCreated((Date) row[8]);
+        job.setDateChanged((Date) row[9]);
+        return job;
+    }
+
+    private void insertLocationStats(String entityType, String locationUuid, long count, Date now) {
+        SQLQuery insert = sessionFactory.getCurrentSession().createSQLQuery(
+                "insert into locationbasedaccess_location_stats (entity_type, location_uuid, entity_count, date_updated)"
+                        + " values (:entityType, :locationUuid, :count, :now)");
+        insert.setString("entityType", entityType);
+        insert.setString("locationUuid", locationUuid);
+        insert.setLong("count", count);
+        insert.setTimestamp("now", now);
+        insert.executeUpdate();
+    }
+
+    /**
+     * @param patientIds the patients to count, or null to count all the patients
+     * @param flush false to read the database without flushing the pending changes of the session
+     */
+    private Map<String, Long> getPatientCountByLocation(PersonAttributeType locationAttributeType,
+                                                        Collection<Integer> patientIds, boolean flush) {
+        if (patientIds != null && patientIds.isEmpty()) {
+            return new HashMap<String, Long>();
+        }
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select pa.value, count(distinct p.patient_id) from person_attribute pa"
+                        + " join patient p on p.patient_id = pa.person_id"
+                        + " where pa.person_attribute_type_id = :attributeTypeId and pa.voided = :voided and p.voided = :voided"
+                        + (patientIds != null ? " and p.patient_id in (:patientIds)" : "")
+                        + " group by pa.value");
+        query.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        query.setBoolean("voided", false);
+        if (patientIds != null) {
+            query.setParameterList("patientIds", patientIds);
+        }
+        if (!flush) {
+            query.setFlushMode(FlushMode.MANUAL);
+        }
+        return toCountMap((List<Object[]>) query.list());
+    }
+
+    /**
+     * @param patientIds together with encounterIds, the encounters to count, or both null to count all the encounters
+     * @param flush false to read the database without flushing the pending changes of the session
+     */
+    private Map<String, Long> getEncounterCountByLocation(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                          Collection<String> patientLocationUuids,
+                                                          Collection<Integer> patientIds, Collection<Integer> encounterIds,
+                                                          boolean flush) {
+        return toCountMap(queryEncounterCounts(byPatientLocation, locationAttributeType, patientLocationUuids, patientIds,
+                encounterIds, null, null, null, flush));
+    }
+
+    /**
+     * @param periodColumns the columns of the encounter datetime to group by, or null to count all the encounters
+     * @return rows of the location uuid, the period columns if any and the count
+     */
+    private List<Object[]> queryEncounterCounts(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                Collection<String> patientLocationUuids, Collection<Integer> patientIds,
+                                                Collection<Integer> encounterIds, Date fromDate, Date toDate,
+                                                String periodColumns, boolean flush) {
+        boolean restrictPatients = patientLocationUuids != null;
+        boolean restrictEncounters = patientIds != null || encounterIds != null;
+        if ((byPatientLocation || restrictPatients) && locationAttributeType == null
+                || restrictPatients && patientLocationUuids.isEmpty()
+                || restrictEncounters && isEmpty(patientIds) && isEmpty(encounterIds)) {
+            return new ArrayList<Object[]>();
+        }
+        String locationColumn = byPatientLocation ? "pa.value" : "l.uuid";
+        String groupColumns = periodColumns != null ? locationColumn + ", " + periodColumns : locationColumn;
+        StringBuilder sql = new StringBuilder("select ").append(groupColumns).append(", count(e.encounter_id)");
+        if (byPatientLocation) {
+            sql.append(" from encounter e")
+                    .append(" join patient p on p.patient_id = e.patient_id")
+                    .append(" join person_attribute pa on pa.person_id = e.patient_id")
+                    .append(" and pa.person_attribute_type_id = :attributeTypeId and pa.voided = :voided")
+                    .append(" where e.voided = :voided and p.voided = :voided");
+            if (restrictPatients) {
+                sql.append(" and pa.value in (:patientLocationUuids)");
+            }
+        } else {
+            sql.append(" from encounter e")
+                    .append(" join patient p on p.patient_id = e.patient_id")
+                    .append(" join location l on l.location_id = e.location_id")
+                    .append(" where e.voided = :voided and p.voided = :voided");
+            if (restrictPatients) {
+                sql.append(" and e.patient_id in (select pa.person_id from person_attribute pa")
+                        .append(" where pa.person_attribute_type_id = :attributeTypeId and pa.voided = :voided")
+                        .append(" and pa.value in (:patientLocationUuids))");
+            }
+        }
+        if (restrictEncounters) {
+            List<String> conditions = new ArrayList<String>();
+            if (!isEmpty(patientIds)) {
+                conditions.add("e.patient_id in (:patientIds)");
+            }
+            if (!isEmpty(encounterIds)) {
+                conditions.add("e.encounter_id in (:encounterIds)");
+            }
+            sql.append(" and (").append(StringUtils.join(conditions, " or ")).append(")");
+        }
+        if (fromDate != null) {
+            sql.append(" and e.encounter_datetime >= :fromDate");
+        }
+        if (toDate != null) {
+            sql.append(" and e.encounter_datetime < :toDate");
+        }
+        sql.append(" group by ").append(groupColumns);
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(sql.toString());
+        query.setBoolean("voided", false);
+        if (byPatientLocation || restrictPatients) {
+            query.setInteger("attributeTypeId", locationAttributeType.getPersonAttributeTypeId());
+        }
+        if (restrictPatients) {
+            query.setParameterList("patientLocationUuids", patientLocationUuids);
+        }
+        if (!isEmpty(patientIds)) {
+            query.setParameterList("patientIds", patientIds);
+        }
+        if (!isEmpty(encounterIds)) {
+            query.setParameterList("encounterIds", encounterIds);
+        }
+        if (fromDate != null) {
+            query.setTimestamp("fromDate", fromDate);
+        }
+        if (toDate != null) {
+            query.setTimestamp("toDate", toDate);
+        }
+        if (!flush) {
+            query.setFlushMode(FlushMode.MANUAL);
+        }
+        return (List<Object[]>) query.list();
+    }
+
+    /**
+     * @param userIds the users to count, or null to count all the users
+     * @param flush false to read the database without flushing the pending changes of the session
+     */
+    private Map<String, Long> getUserCountByLocation(Collection<Integer> userIds, boolean flush) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        if (userIds != null && userIds.isEmpty()) {
+            return counts;
+        }
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                "select up.property_value from users u"
+                        + " left join user_property up on up.user_id = u.user_id and up.property = :property"
+                        + (userIds != null ? " where u.user_id in (:userIds)" : ""));
+        query.setString("property", LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+        if (userIds != null) {
+            query.setParameterList("userIds", userIds);
+        }
+        if (!flush) {
+            query.setFlushMode(FlushMode.MANUAL);
+        }
+        query.setFetchSize(FETCH_SIZE);
+        query.setReadOnly(true);
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            Set<String> userLocationUuids = new HashSet<String>();
+            while (results.next()) {
+                String propertyValue = (String) results.get(0);
+                userLocationUuids.clear();
+                if (StringUtils.isNotBlank(propertyValue)) {
+                    for (String locationUuid : propertyValue.split(",")) {
+                        if (StringUtils.isNotBlank(locationUuid)) {
+                            userLocationUuids.add(locationUuid);
+                        }
+                    }
+                }
+                if (userLocationUuids.isEmpty()) {
+                    increment(counts, null);
+                }
+                for (String locationUuid : userLocationUuids) {
+                    increment(counts, locationUuid);
+                }
+            }
+        } finally {
+            results.close();
+        }
+        return counts;
+    }
+
+    private static boolean isEmpty(Collection<Integer> ids) {
+        return ids == null || ids.isEmpty();
+    }
+
+    private static void increment(Map<String, Long> counts, String key) {
+        Long count = counts.get(key);
+        counts.put(key, count == null ? 1L : count + 1);
+    }
+
+    /**
+     * @param rows rows of a key and a count
+     * @return the counts by key
+     */
+    private static Map<String, Long> toCountMap(List<Object[]> rows) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Object[] row : rows) {
+            if (row[0] != null) {
+                counts.put((String) row[0], ((Number) row[1]).longValue());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Restricts the encounter criteria to the given locations, using the location attribute of the patient if the
+     * attribute type is given and the encounter location otherwise
+     */
+    private void addEncounterLocationRestriction(Criteria criteria, PersonAttributeType locationAttributeType,
+                                                 Collection<String> locationUuids) {
+        if (locationAttributeType != null) {
+            criteria.add(Subqueries.propertyIn("patient.id", getPersonIdsWithLocation(locationAttributeType, locationUuids)));
+        } else {
+            criteria.createAlias("location", "encounterLocation");
+            criteria.add(Restrictions.in("encounterLocation.uuid", locationUuids));
+        }
+    }
+
+    private static Integer toInteger(Object count) {
+        return count != null ? ((Number) count).intValue() : 0;
+    }
+
+    /**
+     * @return subquery selecting the ids of the persons having a non voided location attribute with one of the
+     * given location uuids
+     */
+    private DetachedCriteria getPersonIdsWithLocation(PersonAttributeType locationAttributeType,
+                                                      Collection<String> locationUuids) {
+        return DetachedCriteria.forClass(PersonAttribute.class, "locationAttribute")
+                .add(Restrictions.eq("locationAttribute.attributeType", locationAttributeType))
+                .add(Restrictions.eq("locationAttribute.voided", false))
+                .add(Restrictions.in("locationAttribute.value", locationUuids))
+                .setProjection(Projections.property("locationAttribute.person.personId"));
+    }
+}
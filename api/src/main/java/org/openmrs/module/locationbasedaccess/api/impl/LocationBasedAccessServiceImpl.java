@@ -0,0 +1,356 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.api.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.ValidationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.api.db.LocationBasedAccessDAO;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
+import org.openmrs.module.locationbasedaccess.migration.PatientSelector;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import org.openmrs.util.OpenmrsConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+
+public class LocationBasedAccessServiceImpl extends BaseOpenmrsService implements LocationBasedAccessService {
+
+    private static final Log log = LogFactory.getLog(LocationBasedAccessServiceImpl.class);
+
+    /**
+     * Number of patients migrated by each set of statements of {@link #migratePatientLocations}, and read by each
+     * query of a {@link PatientSelector}
+     */
+    private static final int DIRECT_MIGRATION_CHUNK_SIZE = 1000;
+
+    private LocationBasedAccessDAO dao;
+
+    public void setDao(LocationBasedAccessDAO dao) {
+        this.dao = dao;
+    }
+
+    public LocationBasedAccessDAO getDao() {
+        return dao;
+    }
+
+    @Override
+    public List<Patient> getPatients(String query, boolean includeVoided, Integer start, Integer length,
+                                     PersonAttributeType locationAttributeType, Collection<String> locationUuids) {
+        if (length == null) {
+            length = Context.getAdministrationService().getGlobalPropertyValue(
+                    OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS,
+                    OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS_DEFAULT_VALUE);
+        }
+        return dao.getPatients(query, includeVoided, start, length, locationAttributeType, locationUuids);
+    }
+
+    @Override
+    public Integer getCountOfPatients(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                      Collection<String> locationUuids) {
+        return dao.getCountOfPatients(query, includeVoided, locationAttributeType, locationUuids);
+    }
+
+    @Override
+    public List<Encounter> getEncounters(EncounterSearchCriteria searchCriteria, PersonAttributeType locationAttributeType,
+                                         Collection<String> locationUuids) {
+        List<Encounter> encounters = dao.getEncounters(searchCriteria, locationAttributeType, locationUuids);
+        return Context.getEncounterService().filterEncountersByViewPermissions(encounters, null);
+    }
+
+    @Override
+    public Integer getCountOfEncounters(String query, boolean includeVoided, PersonAttributeType locationAttributeType,
+                                        Collection<String> locationUuids) {
+        return dao.getCountOfEncounters(query, includeVoided, locationAttributeType, locationUuids);
+    }
+
+    @Override
+    public Map<Integer, List<Encounter>> getAllEncounters(Cohort patients, PersonAttributeType locationAttributeType,
+                                                          Collection<String> locationUuids) {
+        return dao.getAllEncounters(patients, locationAttributeType, locationUuids);
+    }
+
+    @Override
+    public Map<Integer, String> getPersonLocationUuids(Collection<Integer> personIds,
+                                                       PersonAttributeType locationAttributeType) {
+        return dao.getPersonLocationUuids(personIds, locationAttributeType);
+    }
+
+    @Override
+    public Map<Integer, List<String>> getUserLocationPropertiesByPerson(Collection<Integer> personIds) {
+        return dao.getUserLocationPropertiesByPerson(personIds);
+    }
+
+    @Override
+    public Map<String, Long> getPatientCountByLocation(PersonAttributeType locationAttributeType) {
+        return dao.getPatientCountByLocation(locationAttributeType);
+    }
+
+    @Override
+    public Map<String, Long> getEncounterCountByLocation(boolean byPatientLocation, PersonAttributeType locationAttributeType,
+                                                         Collection<String> patientLocationUuids, Date fromDate,
+                                                         Date toDate) {
+        return dao.getEncounterCountByLocation(byPatientLocation, locationAttributeType, patientLocationUuids, fromDate,
+                toDate);
+    }
+
+    @Override
+    public Map<String, SortedMap<Date, Long>> getEncounterCountByLocationAndPeriod(boolean byPatientLocation,
+                                                                                   PersonAttributeType locationAttributeType,
+                                                                                   Collection<String> patientLocationUuids,
+                                                                                   Date fromDate, Date toDate, String period) {
+        return dao.getEncounterCountByLocationAndPeriod(byPatientLocation, locationAttributeType, patientLocationUuids,
+                fromDate, toDate, period);
+    }
+
+    @Override
+    public Map<String, Long> getUserCountByLocation() {
+        return dao.getUserCountByLocation();
+    }
+
+    @Override
+    public Map<String, Long> getLocationStats(String entityType) {
+        return dao.getLocationStats(entityType);
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getLocationStatsOf(Collection<Integer> personIds, Collection<Integer> encounterIds,
+                                                             Collection<Integer> userIds, boolean flush) {
+        return dao.getLocationStatsOf(personIds, encounterIds, userIds, getLocationAttributeType(), flush);
+    }
+
+    @Override
+    public void updateLocationStats(Map<String, Map<String, Long>> deltas) {
+        for (Map.Entry<String, Map<String, Long>> entityDeltas : deltas.entrySet()) {
+            dao.updateLocationStats(entityDeltas.getKey(), entityDeltas.getValue());
+        }
+    }
+
+    @Override
+    public void reconcileLocationStats() {
+        Map<String, Map<String, Long>> counts = dao.getLocationStatsOf(null, null, null, getLocationAttributeType(), true);
+        for (String entityType : new String[] { LocationStats.PATIENT, LocationStats.ENCOUNTER,
+                LocationStats.ENCOUNTER_BY_PATIENT_LOCATION, LocationStats.USER }) {
+            Map<String, Long> entityCounts = counts.get(entityType);
+            dao.replaceLocationStats(entityType, entityCounts != null ? entityCounts : new HashMap<String, Long>());
+        }
+    }
+
+    @Override
+    public List<String> getAccessiblePatientUuids(Collection<String> patientUuids, PersonAttributeType locationAttributeType,
+                                                  Collection<String> locationUuids) {
+        return dao.getAccessiblePatientUuids(patientUuids, locationAttributeType, locationUuids);
+    }
+
+    @Override
+    public PatientMigrationJob createPatientMigrationJob(List<String> patientUuids, String locationUuid) {
+        PatientMigrationJob job = new PatientMigrationJob();
+        job.setUuid(UUID.randomUUID().toString());
+        job.setLocationUuid(locationUuid);
+        job.setStatus(PatientMigrationJob.STATUS_QUEUED);
+        job.setTotal(patientUuids.size());
+        User creator = Context.getAuthenticatedUser();
+        job.setCreator(creator != null ? creator.getUserId() : null);
+        job.setDateCreated(new Date());
+        dao.savePatientMigrationJob(job, patientUuids);
+        return job;
+    }
+
+    @Override
+    public PatientMigrationJob createPatientMigrationJob(Iterator<List<String>> patientUuidBatches, String locationUuid) {
+        PatientMigrationJob job = createPatientMigrationJob(Collections.<String>emptyList(), locationUuid);
+        while (patientUuidBatches.hasNext()) {
+            List<String> patientUuids = patientUuidBatches.next();
+            dao.savePatientMigrationItems(job.getUuid(), job.getTotal(), patientUuids);
+            job.setTotal(job.getTotal() + patientUuids.size());
+        }
+        dao.updatePatientMigrationJob(job);
+        return job;
+    }
+
+    @Override
+    public PatientMigrationJob createPatientMigrationJob(PatientSelector selector, String locationUuid) {
+        PersonAttributeType locationAttributeType = getRequiredLocationAttributeType();
+        PatientMigrationJob job = createPatientMigrationJob(Collections.<String>emptyList(), locationUuid);
+        int afterPatientId = 0;
+        SortedMap<Integer, String> patients;
+        do {
+            patients = dao.getSelectedPatients(selector, locationAttributeType, afterPatientId,
+                    DIRECT_MIGRATION_CHUNK_SIZE);
+            if (!patients.isEmpty()) {
+                dao.savePatientMigrationItems(job.getUuid(), job.getTotal(), new ArrayList<String>(patients.values()));
+                job.setTotal(job.getTotal() + patients.size());
+                afterPatientId = patients.lastKey();
+            }
+        } while (patients.size() == DIRECT_MIGRATION_CHUNK_SIZE);
+        dao.updatePatientMigrationJob(job);
+        return job;
+    }
+
+    @Override
+    public PatientMigrationJob getPatientMigrationJobByUuid(String uuid) {
+        return dao.getPatientMigrationJobByUuid(uuid);
+    }
+
+    @Override
+    public List<PatientMigrationJob> getUnfinishedPatientMigrationJobs() {
+        return dao.getPatientMigrationJobs(Arrays.asList(PatientMigrationJob.STATUS_QUEUED,
+                PatientMigrationJob.STATUS_RUNNING));
+    }
+
+    @Override
+    public PatientMigrationJob migrateNextPatientChunk(String uuid, int chunkSize) {
+        PatientMigrationJob job = dao.getPatientMigrationJobByUuid(uuid);
+        if (job == null || job.isFinished()) {
+            return job;
+        }
+        PersonAttributeType locationAttributeType = getLocationAttributeType();
+        if (locationAttributeType == null) {
+            job.setStatus(PatientMigrationJob.STATUS_FAILED);
+            job.setMessage("Global Property " + LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME
+                    + " not Found");
+        } else {
+            List<String> patientUuids = dao.getPatientMigrationItems(uuid, job.getProcessed(), chunkSize);
+            int failed = 0;
+            PatientService patientService = Context.getPatientService();
+            // The patients were checked against the locations of the user when the job was created
+            LocationAccessContextHolder.beginInternalCall();
+            try {
+                for (String patientUuid : patientUuids) {
+                    Patient patient = patientService.getPatientByUuid(patientUuid);
+                    if (patient == null) {
+                        failed++;
+                        continue;
+                    }
+                    try {
+                        patient.addAttribute(new PersonAttribute(locationAttributeType, job.getLocationUuid()));
+                        patientService.savePatient(patient);
+                    }
+                    catch (ValidationException e) {
+                        log.warn("Patient " + patientUuid + " could not be migrated: " + e.getMessage());
+                        // Drop the new attribute, it would be saved by the flush otherwise
+                        Context.evictFromSession(patient);
+                        failed++;
+                    }
+                }
+            } finally {
+                LocationAccessContextHolder.endInternalCall();
+            }
+            job.setProcessed(job.getProcessed() + patientUuids.size());
+            job.setFailed(job.getFailed() + failed);
+            boolean completed = patientUuids.size() < chunkSize || job.getProcessed() >= job.getTotal();
+            job.setStatus(completed ? PatientMigrationJob.STATUS_COMPLETED : PatientMigrationJob.STATUS_RUNNING);
+        }
+        job.setDateChanged(new Date());
+        dao.updatePatientMigrationJob(job);
+        dao.flushAndClearSession();
+        return job;
+    }
+
+    @Override
+    public int migratePatientLocations(Collection<String> patientUuids, String locationUuid) {
+        PersonAttributeType locationAttributeType = getRequiredLocationAttributeType();
+        List<String> uuids = new ArrayList<String>(patientUuids);
+        int migrated = 0;
+        for (int fromIndex = 0; fromIndex < uuids.size(); fromIndex += DIRECT_MIGRATION_CHUNK_SIZE) {
+            List<String> chunk = uuids.subList(fromIndex, Math.min(fromIndex + DIRECT_MIGRATION_CHUNK_SIZE, uuids.size()));
+            migrated += rewritePatientLocations(dao.getPatientIdsByUuid(chunk), locationAttributeType, locationUuid);
+        }
+        // The loaded persons still have their old attributes
+        dao.flushAndClearSession();
+        return migrated;
+    }
+
+    @Override
+    public int migratePatientLocations(PatientSelector selector, String locationUuid) {
+        PersonAttributeType locationAttributeType = getRequiredLocationAttributeType();
+        int migrated = 0;
+        int afterPatientId = 0;
+        SortedMap<Integer, String> patients;
+        do {
+            // The patients moved out of the source location are behind the next page, paging by id skips nobody
+            patients = dao.getSelectedPatients(selector, locationAttributeType, afterPatientId,
+                    DIRECT_MIGRATION_CHUNK_SIZE);
+            if (!patients.isEmpty()) {
+                migrated += rewritePatientLocations(new ArrayList<Integer>(patients.keySet()), locationAttributeType,
+                        locationUuid);
+                afterPatientId = patients.lastKey();
+            }
+        } while (patients.size() == DIRECT_MIGRATION_CHUNK_SIZE);
+        dao.flushAndClearSession();
+        return migrated;
+    }
+
+    @Override
+    public void failPatientMigrationJob(String uuid, String message) {
+        PatientMigrationJob job = dao.getPatientMigrationJobByUuid(uuid);
+        if (job != null && !job.isFinished()) {
+            job.setStatus(PatientMigrationJob.STATUS_FAILED);
+            job.setMessage(StringUtils.abbreviate(message, 1024));
+            job.setDateChanged(new Date());
+            dao.updatePatientMigrationJob(job);
+        }
+    }
+
+    private int rewritePatientLocations(List<Integer> patientIds, PersonAttributeType locationAttributeType,
+                                        String locationUuid) {
+        List<Integer> noIds = Collections.emptyList();
+        // The statements bypass the stats interceptor, the counts of the patients are moved here
+        Map<String, Map<String, Long>> before = dao.getLocationStatsOf(patientIds, noIds, noIds, locationAttributeType,
+                true);
+        int migrated = dao.rewritePatientLocationAttributes(patientIds, locationAttributeType, locationUuid,
+                Context.getAuthenticatedUser().getUserId(), new Date(), "Migrated to location " + locationUuid);
+        Map<String, Map<String, Long>> after = dao.getLocationStatsOf(patientIds, noIds, noIds, locationAttributeType,
+                false);
+        updateLocationStats(LocationStats.difference(before, after));
+        return migrated;
+    }
+
+    private PersonAttributeType getRequiredLocationAttributeType() {
+        PersonAttributeType locationAttributeType = getLocationAttributeType();
+        if (locationAttributeType == null) {
+            throw new APIException("Global Property " + LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME
+                    + " not Found");
+        }
+        return locationAttributeType;
+    }
+
+    private PersonAttributeType getLocationAttributeType() {
+        String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
+        return StringUtils.isNotBlank(locationAttributeUuid) ?
+                Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid) : null;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.metrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics of the LBAC filtering of one entity type, kept per advised method
+ */
+public class EntityMetrics implements EntityMetricsMBean {
+
+    private final String entity;
+
+    private final ConcurrentMap<Method, MethodMetrics> methodMetrics = new ConcurrentHashMap<Method, MethodMetrics>();
+
+    EntityMetrics(String entity) {
+        this.entity = entity;
+    }
+
+    /**
+     * Records one call of an advised method, ending the sample started by {@link LocationAccessMetrics#begin()}.
+     * @param method the advised method
+     * @param result the filtered result returned to the caller
+     */
+    public void record(Method method, Object result) {
+        LocationAccessMetrics.Sample sample = LocationAccessMetrics.end();
+        long elapsedNanos = System.nanoTime() - sample.startNanos;
+        getMethodMetrics(method).record(sample.rowsIn, LocationAccessMetrics.countRows(result), sample.proceedNanos,
+                elapsedNanos - sample.proceedNanos);
+    }
+
+    private MethodMetrics getMethodMetrics(Method method) {
+        MethodMetrics metrics = methodMetrics.get(method);
+        if (metrics == null) {
+            metrics = new MethodMetrics(getSignature(method));
+            MethodMetrics existing = methodMetrics.putIfAbsent(method, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the method name with its parameter types, to tell the overloaded methods apart
+     */
+    private static String getSignature(Method method) {
+        StringBuilder signature = new StringBuilder(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int index = 0; index < parameterTypes.length; index++) {
+            if (index > 0) {
+                signature.append(", ");
+            }
+            signature.append(parameterTypes[index].getSimpleName());
+        }
+        return signature.append(')').toString();
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public long getInvocations() {
+        long sum = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            sum += metrics.getInvocations();
+        }
+        return sum;
+    }
+
+    public long getRowsIn() {
+        long sum = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            sum += metrics.getRowsIn();
+        }
+        return sum;
+    }
+
+    public long getRowsOut() {
+        long sum = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            sum += metrics.getRowsOut();
+        }
+        return sum;
+    }
+
+    public long getProceedTimeNanos() {
+        long sum = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            sum += metrics.getProceedTimeNanos();
+        }
+        return sum;
+    }
+
+    public long getFilterTimeNanos() {
+        long sum = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            sum += metrics.getFilterTimeNanos();
+        }
+        return sum;
+    }
+
+    public String[] getMethodStatistics() {
+        List<String> statistics = new ArrayList<String>();
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            statistics.add(metrics.toString());
+        }
+        return statistics.toArray(new String[statistics.size()]);
+    }
+
+    /**
+     * @return the metrics of every advised method which has been called
+     */
+    public List<MethodMetrics> getMethodMetrics() {
+        return new ArrayList<MethodMetrics>(methodMetrics.values());
+    }
+
+    public void reset() {
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            metrics.reset();
+        }
+    }
+}
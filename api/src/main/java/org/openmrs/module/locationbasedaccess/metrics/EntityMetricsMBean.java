@@ -0,0 +1,38 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.metrics;
+
+/**
+ * JMX view of the LBAC filtering of one entity type. Rows in are the rows returned by the advised service method,
+ * none when the call was answered by a database filtered query, and rows out the rows left for the caller. Times are
+ * in nanoseconds; the proceed time is spent in the advised service method and the filter time in LBAC itself.
+ */
+public interface EntityMetricsMBean {
+
+    String getEntity();
+
+    long getInvocations();
+
+    long getRowsIn();
+
+    long getRowsOut();
+
+    long getProceedTimeNanos();
+
+    long getFilterTimeNanos();
+
+    /**
+     * @return the counters and timers of every advised method which has been called
+     */
+    String[] getMethodStatistics();
+
+    void reset();
+}
@@ -0,0 +1,217 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.metrics;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters and timers of the LBAC interceptors: invocations, rows returned by the advised method, rows left after
+ * filtering, and the time spent in the advised method versus in the filtering, per entity type and advised method.
+ * The metrics are exposed as one JMX MBean per entity type while the module is started. Recording a call does not
+ * allocate: the samples of the calls in progress are kept in a reusable stack per thread, since advised calls can
+ * be nested.
+ */
+public class LocationAccessMetrics {
+
+    private static final Log log = LogFactory.getLog(LocationAccessMetrics.class);
+
+    private static final String OBJECT_NAME_PREFIX = "org.openmrs.module.locationbasedaccess:type=LocationAccessMetrics,entity=";
+
+    public static final EntityMetrics PATIENT = new EntityMetrics("patient");
+
+    public static final EntityMetrics PERSON = new EntityMetrics("person");
+
+    public static final EntityMetrics ENCOUNTER = new EntityMetrics("encounter");
+
+    public static final EntityMetrics USER = new EntityMetrics("user");
+
+    public static final EntityMetrics LOCATION = new EntityMetrics("location");
+
+    private static final List<EntityMetrics> ALL = Arrays.asList(PATIENT, PERSON, ENCOUNTER, USER, LOCATION);
+
+    private static final ThreadLocal<SampleStack> samples = new ThreadLocal<SampleStack>() {
+
+        @Override
+        protected SampleStack initialValue() {
+            return new SampleStack();
+        }
+    };
+
+    /**
+     * Starts the sample of an advised call on the current thread. Must be followed by
+     * {@link EntityMetrics#record(java.lang.reflect.Method, Object)}, in a finally block.
+     */
+    public static void begin() {
+        Sample sample = samples.get().push();
+        sample.startNanos = System.nanoTime();
+        sample.proceedNanos = 0;
+        sample.rowsIn = 0;
+    }
+
+    /**
+     * Proceeds with the advised method, recording its duration and the number of rows it returned.
+     * @param invocation the advised call
+     * @return the result of the advised method
+     */
+    public static Object proceed(MethodInvocation invocation) throws Throwable {
+        Sample sample = samples.get().peek();
+        long startNanos = System.nanoTime();
+        Object result = invocation.proceed();
+        if (sample != null) {
+            sample.proceedNanos += System.nanoTime() - startNanos;
+            sample.rowsIn += countRows(result);
+        }
+        return result;
+    }
+
+    /**
+     * Starts timing a query made instead of the advised method, such as a search restricted in the database. Must be
+     * followed by {@link #endQuery(long, Object)} with its result, so it is recorded like
+     * {@link #proceed(MethodInvocation)}.
+     * @return the start time of the query
+     */
+    public static long startQuery() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a query started by {@link #startQuery()} and the number of rows it returned
+     * @param startNanos the start time of the query
+     * @param result the result of the query
+     * @return the result of the query
+     */
+    public static <T> T endQuery(long startNanos, T result) {
+        Sample sample = samples.get().peek();
+        if (sample != null) {
+            sample.proceedNanos += System.nanoTime() - startNanos;
+            sample.rowsIn += countRows(result);
+        }
+        return result;
+    }
+
+    static Sample end() {
+        return samples.get().pop();
+    }
+
+    /**
+     * @return the size of a list or collection, the number of elements in the lists of a map, 0 for null or for the
+     * number returned by a count method, otherwise 1 for an entity
+     */
+    static long countRows(Object result) {
+        if (result == null || result instanceof Number) {
+            return 0;
+        }
+        if (result instanceof List) {
+            return ((List<?>) result).size();
+        }
+        if (result instanceof Map) {
+            long rows = 0;
+            for (Object value : ((Map<?, ?>) result).values()) {
+                rows += value instanceof Collection ? ((Collection<?>) value).size() : 1;
+            }
+            return rows;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return 1;
+    }
+
+    /**
+     * @return the metrics of every entity type
+     */
+    public static List<EntityMetrics> getAll() {
+        return ALL;
+    }
+
+    /**
+     * Registers the MBeans in the platform MBean server. Called when the module is started.
+     */
+    public static void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (EntityMetrics metrics : ALL) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + metrics.getEntity());
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            }
+            catch (Exception e) {
+                log.warn("Unable to register the LBAC metrics MBean for " + metrics.getEntity(), e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MBeans from the platform MBean server. Called when the module is stopped.
+     */
+    public static void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (EntityMetrics metrics : ALL) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + metrics.getEntity());
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (Exception e) {
+                log.warn("Unable to unregister the LBAC metrics MBean for " + metrics.getEntity(), e);
+            }
+        }
+    }
+
+    static class Sample {
+
+        long startNanos;
+
+        long proceedNanos;
+
+        long rowsIn;
+    }
+
+    /**
+     * Samples of the advised calls in progress on a thread, reused from call to call
+     */
+    private static class SampleStack {
+
+        private Sample[] samples = new Sample[0];
+
+        private int size = 0;
+
+        Sample push() {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size + 4);
+                for (int index = size; index < samples.length; index++) {
+                    samples[index] = new Sample();
+                }
+            }
+            return samples[size++];
+        }
+
+        Sample peek() {
+            return size > 0 ? samples[size - 1] : null;
+        }
+
+        Sample pop() {
+            return samples[--size];
+        }
+    }
+}
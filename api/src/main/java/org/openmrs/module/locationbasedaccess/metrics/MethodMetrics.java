@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.metrics;
+
+/**
+ * Counters and timers of a single advised method
+ */
+public class MethodMetrics {
+
+    private final String methodName;
+
+    final StripedCounter invocations = new StripedCounter();
+
+    final StripedCounter rowsIn = new StripedCounter();
+
+    final StripedCounter rowsOut = new StripedCounter();
+
+    final StripedCounter proceedNanos = new StripedCounter();
+
+    final StripedCounter filterNanos = new StripedCounter();
+
+    MethodMetrics(String methodName) {
+        this.methodName = methodName;
+    }
+
+    void record(long rowsIn, long rowsOut, long proceedNanos, long filterNanos) {
+        this.invocations.increment();
+        this.rowsIn.add(rowsIn);
+        this.rowsOut.add(rowsOut);
+        this.proceedNanos.add(proceedNanos);
+        this.filterNanos.add(filterNanos);
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    public long getRowsIn() {
+        return rowsIn.sum();
+    }
+
+    public long getRowsOut() {
+        return rowsOut.sum();
+    }
+
+    public long getProceedTimeNanos() {
+        return proceedNanos.sum();
+    }
+
+    public long getFilterTimeNanos() {
+        return filterNanos.sum();
+    }
+
+    void reset() {
+        invocations.reset();
+        rowsIn.reset();
+        rowsOut.reset();
+        proceedNanos.reset();
+        filterNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return methodName + ": invocations=" + getInvocations() + ", rowsIn=" + getRowsIn() + ", rowsOut=" + getRowsOut()
+                + ", proceedTimeNanos=" + getProceedTimeNanos() + ", filterTimeNanos=" + getFilterTimeNanos();
+    }
+}
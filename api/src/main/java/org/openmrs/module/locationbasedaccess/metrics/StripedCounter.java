@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading its updates over several cells chosen by thread, so concurrent requests do not contend on a
+ * single atomic value. Each cell is padded to its own cache line.
+ */
+public class StripedCounter {
+
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void add(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * PADDING, value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            cells.set(stripe * PADDING, 0);
+        }
+    }
+
+    /**
+     * @return the number of processors rounded up to a power of two, at most 64
+     */
+    private static int stripeCount() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        int stripes = 1;
+        while (stripes < processors) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
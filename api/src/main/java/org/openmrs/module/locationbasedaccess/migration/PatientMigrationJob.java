@@ -0,0 +1,151 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.migration;
+
+import java.util.Date;
+
+/**
+ * A patient migration running in the background, stored in the locationbasedaccess_patient_migration_job table. The
+ * patients to migrate are stored in order in the locationbasedaccess_patient_migration_item table, and the number of
+ * processed patients is saved after every chunk so the job can be resumed after a restart.
+ */
+public class PatientMigrationJob {
+
+    public static final String STATUS_QUEUED = "QUEUED";
+
+    public static final String STATUS_RUNNING = "RUNNING";
+
+    public static final String STATUS_COMPLETED = "COMPLETED";
+
+    public static final String STATUS_FAILED = "FAILED";
+
+    private String uuid;
+
+    private String locationUuid;
+
+    private String status;
+
+    private int total;
+
+    private int processed;
+
+    private int failed;
+
+    private String message;
+
+    private Integer creator;
+
+    private Date dateCreated;
+
+    private Date dateChanged;
+
+    /**
+     * @return true if the job completed or failed
+     */
+    public boolean isFinished() {
+        return STATUS_COMPLETED.equals(status) || STATUS_FAILED.equals(status);
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(String uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getLocationUuid() {
+        return locationUuid;
+    }
+
+    public void setLocationUuid(String locationUuid) {
+        this.locationUuid = locationUuid;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the number of patients to migrate
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    /**
+     * @return the number of patients processed so far, including the failed ones
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return the number of patients which could not be migrated
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return the reason the job failed, if it did
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return id of the user who created the job
+     */
+    public Integer getCreator() {
+        return creator;
+    }
+
+    public void setCreator(Integer creator) {
+        this.creator = creator;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.migration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the patient migration jobs one at a time on a background executor. Each job is migrated in chunks of
+ * {@link #CHUNK_SIZE} patients by a daemon thread, every chunk in its own transaction. The jobs left unfinished when
+ * the module stopped are resumed from their last completed chunk when it starts again.
+ */
+public class PatientMigrationRunner {
+
+    private static final Log log = LogFactory.getLog(PatientMigrationRunner.class);
+
+    /**
+     * Number of patients migrated in a single transaction
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    private static DaemonToken daemonToken;
+
+    private static ExecutorService executor;
+
+    private static volatile boolean stopping = false;
+
+    /**
+     * Starts the executor and resumes the unfinished jobs. Called when the module is started.
+     * @param token the daemon token of the module, used to run the jobs as the daemon user
+     */
+    public static synchronized void start(DaemonToken token) {
+        daemonToken = token;
+        stopping = false;
+        executor = Executors.newSingleThreadExecutor();
+        for (PatientMigrationJob job : Context.getService(LocationBasedAccessService.class)
+                .getUnfinishedPatientMigrationJobs()) {
+            log.info("Resuming patient migration job " + job.getUuid() + " at " + job.getProcessed() + "/" + job.getTotal());
+            submit(job.getUuid());
+        }
+    }
+
+    /**
+     * Stops the executor after the chunk being migrated. The running job stays unfinished and is resumed on the next
+     * start. Called when the module is stopped.
+     */
+    public static synchronized void stop() {
+        stopping = true;
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Queues a job to be run after the jobs submitted before it
+     * @param jobUuid uuid of the job
+     * @return false if the runner is not started, the job then runs when the module starts
+     */
+    public static synchronized boolean submit(final String jobUuid) {
+        if (executor == null || daemonToken == null) {
+            log.warn("Patient migration runner not started, job " + jobUuid + " will run when the module starts");
+            return false;
+        }
+        final DaemonToken token = daemonToken;
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                Thread thread = Daemon.runInDaemonThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        runJob(jobUuid);
+                    }
+                }, token);
+                try {
+                    thread.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return true;
+    }
+
+    private static void runJob(String jobUuid) {
+        LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+        try {
+            PatientMigrationJob job = locationBasedAccessService.getPatientMigrationJobByUuid(jobUuid);
+            while (job != null && !job.isFinished() && !stopping) {
+                job = locationBasedAccessService.migrateNextPatientChunk(jobUuid, CHUNK_SIZE);
+            }
+            if (job != null && job.isFinished()) {
+                log.info("Patient migration job " + jobUuid + " " + job.getStatus() + ", " + job.getProcessed()
+                        + " patients processed, " + job.getFailed() + " failed");
+            }
+        }
+        catch (Exception e) {
+            log.error("Patient migration job " + jobUuid + " failed", e);
+            locationBasedAccessService.failPatientMigrationJob(jobUuid, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.migration;
+
+import java.util.Collection;
+
+/**
+ * Selects the patients to migrate in the database instead of listing their uuids. The criteria which are set must all
+ * match, and the voided patients are never selected. The patients are read by id order a page at a time, so the
+ * selection is never loaded at once.
+ */
+public class PatientSelector {
+
+    private String fromLocationUuid;
+
+    private String cohortUuid;
+
+    private String identifierPrefix;
+
+    private Collection<String> accessibleLocationUuids;
+
+    /**
+     * @return true if no criterion is set, an empty selector does not select any patient
+     */
+    public boolean isEmpty() {
+        return fromLocationUuid == null && cohortUuid == null && identifierPrefix == null;
+    }
+
+    /**
+     * @return uuid of the location in the location attribute of the patients
+     */
+    public String getFromLocationUuid() {
+        return fromLocationUuid;
+    }
+
+    public void setFromLocationUuid(String fromLocationUuid) {
+        this.fromLocationUuid = fromLocationUuid;
+    }
+
+    /**
+     * @return uuid of the cohort the patients are members of
+     */
+    public String getCohortUuid() {
+        return cohortUuid;
+    }
+
+    public void setCohortUuid(String cohortUuid) {
+        this.cohortUuid = cohortUuid;
+    }
+
+    /**
+     * @return the start of one of the identifiers of the patients
+     */
+    public String getIdentifierPrefix() {
+        return identifierPrefix;
+    }
+
+    public void setIdentifierPrefix(String identifierPrefix) {
+        this.identifierPrefix = identifierPrefix;
+    }
+
+    /**
+     * @return the locations the patients must belong to, or null if the patients are not restricted by location
+     */
+    public Collection<String> getAccessibleLocationUuids() {
+        return accessibleLocationUuids;
+    }
+
+    public void setAccessibleLocationUuids(Collection<String> accessibleLocationUuids) {
+        this.accessibleLocationUuids = accessibleLocationUuids;
+    }
+}
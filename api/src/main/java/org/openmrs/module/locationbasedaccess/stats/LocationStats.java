@@ -0,0 +1,143 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.stats;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of the locationbasedaccess_location_stats table, which keeps the number of patients, encounters and users
+ * by location for the location wise count endpoints. The table is rebuilt by {@link LocationStatsReconciliationTask}
+ * and updated in between by {@link org.openmrs.module.locationbasedaccess.aop.interceptor.LocationStatsInterceptorAdvice}.
+ * Until the first reconciliation after the module is started, or after the location attribute changes, the table is
+ * stale and the counts are computed from the entity tables instead.
+ */
+public class LocationStats {
+
+    /**
+     * Patients by the location attribute
+     */
+    public static final String PATIENT = "patient";
+
+    /**
+     * Encounters by the encounter location
+     */
+    public static final String ENCOUNTER = "encounter";
+
+    /**
+     * Encounters by the location attribute of the patient
+     */
+    public static final String ENCOUNTER_BY_PATIENT_LOCATION = "encounterByPatientLocation";
+
+    /**
+     * Users by the locationUuid user property
+     */
+    public static final String USER = "user";
+
+    /**
+     * Location key of the users without the locationUuid user property
+     */
+    public static final String NO_LOCATION = "none";
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static volatile long readyGeneration = -1;
+
+    private static final ThreadLocal<Boolean> updating = new ThreadLocal<Boolean>();
+
+    /**
+     * @return true if the table is up to date and can be used instead of counting the entities
+     */
+    public static boolean isReady() {
+        return readyGeneration == generation.get();
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #markReady(long)} once the table is rebuilt
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Marks the table as up to date, unless it was marked stale since the given generation was read
+     * @param rebuiltGeneration the generation read before rebuilding the table
+     */
+    public static void markReady(long rebuiltGeneration) {
+        readyGeneration = rebuiltGeneration;
+    }
+
+    /**
+     * Stops using the table until the next reconciliation
+     */
+    public static void markStale() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Used to skip the nested calls of an entity update which is already being tracked, as the outer call counts
+     * their changes too.
+     * @return true if the calling thread was not already tracking an update
+     */
+    public static boolean beginUpdate() {
+        if (updating.get() != null) {
+            return false;
+        }
+        updating.set(Boolean.TRUE);
+        return true;
+    }
+
+    public static void endUpdate() {
+        updating.remove();
+    }
+
+    /**
+     * @param before the counts by entity type and location before the update
+     * @param after the counts by entity type and location after the update
+     * @return the non zero changes by entity type and location
+     */
+    public static Map<String, Map<String, Long>> difference(Map<String, Map<String, Long>> before,
+                                                            Map<String, Map<String, Long>> after) {
+        Map<String, Map<String, Long>> deltas = new HashMap<String, Map<String, Long>>();
+        Set<String> entityTypes = new HashSet<String>(before.keySet());
+        entityTypes.addAll(after.keySet());
+        for (String entityType : entityTypes) {
+            Map<String, Long> countsBefore = getCounts(before, entityType);
+            Map<String, Long> countsAfter = getCounts(after, entityType);
+            Set<String> locationUuids = new HashSet<String>(countsBefore.keySet());
+            locationUuids.addAll(countsAfter.keySet());
+            Map<String, Long> entityDeltas = new HashMap<String, Long>();
+            for (String locationUuid : locationUuids) {
+                long delta = getCount(countsAfter, locationUuid) - getCount(countsBefore, locationUuid);
+                if (delta != 0) {
+                    entityDeltas.put(locationUuid, delta);
+                }
+            }
+            if (!entityDeltas.isEmpty()) {
+                deltas.put(entityType, entityDeltas);
+            }
+        }
+        return deltas;
+    }
+
+    private static Map<String, Long> getCounts(Map<String, Map<String, Long>> countsByEntityType, String entityType) {
+        Map<String, Long> counts = countsByEntityType.get(entityType);
+        return counts != null ? counts : new HashMap<String, Long>();
+    }
+
+    private static long getCount(Map<String, Long> counts, String locationUuid) {
+        Long count = counts.get(locationUuid);
+        return count != null ? count : 0;
+    }
+}
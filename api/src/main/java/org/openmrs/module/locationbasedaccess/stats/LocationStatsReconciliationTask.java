@@ -0,0 +1,85 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.stats;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.scheduler.SchedulerException;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+import java.util.Calendar;
+
+/**
+ * Scheduled task rebuilding the locationbasedaccess_location_stats table from the patient, encounter and user
+ * tables. It runs when the scheduler starts and then daily, correcting the changes made while the module was
+ * stopped or missed by the incremental updates.
+ */
+public class LocationStatsReconciliationTask extends AbstractTask {
+
+    private static final Log log = LogFactory.getLog(LocationStatsReconciliationTask.class);
+
+    /**
+     * Name of the scheduled task, used to find out whether it is already registered
+     */
+    public static final String TASK_NAME = "Location Based Access Stats Reconciliation";
+
+    /**
+     * Registers the task if it is not registered yet, to run daily at 2 AM, and on every startup
+     * @see org.openmrs.module.locationbasedaccess.LocationBasedAccessActivator#started()
+     */
+    public static void register() {
+        SchedulerService schedulerService = Context.getSchedulerService();
+        if (schedulerService.getTaskByName(TASK_NAME) != null) {
+            return;
+        }
+        Calendar startTime = Calendar.getInstance();
+        startTime.set(Calendar.HOUR_OF_DAY, 2);
+        startTime.set(Calendar.MINUTE, 0);
+        startTime.set(Calendar.SECOND, 0);
+        startTime.set(Calendar.MILLISECOND, 0);
+
+        TaskDefinition taskDefinition = new TaskDefinition();
+        taskDefinition.setName(TASK_NAME);
+        taskDefinition.setDescription("Rebuilds the number of patients, encounters and users by location");
+        taskDefinition.setTaskClass(LocationStatsReconciliationTask.class.getName());
+        taskDefinition.setStartTime(startTime.getTime());
+        taskDefinition.setStartTimePattern("MM/dd/yyyy HH:mm:ss");
+        taskDefinition.setRepeatInterval(86400L);
+        taskDefinition.setStartOnStartup(true);
+        schedulerService.saveTaskDefinition(taskDefinition);
+        try {
+            schedulerService.scheduleTask(taskDefinition);
+        }
+        catch (SchedulerException e) {
+            log.error("Unable to schedule the " + TASK_NAME + " task, it will start on the next startup", e);
+        }
+    }
+
+    @Override
+    public void execute() {
+        if (isExecuting()) {
+            return;
+        }
+        startExecuting();
+        try {
+            long generation = LocationStats.getGeneration();
+            Context.getService(LocationBasedAccessService.class).reconcileLocationStats();
+            LocationStats.markReady(generation);
+            log.info("Location stats reconciled");
+        } finally {
+            stopExecuting();
+        }
+    }
+}
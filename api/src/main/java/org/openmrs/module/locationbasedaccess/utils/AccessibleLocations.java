@@ -0,0 +1,130 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Location;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of the location uuids a user can access. Membership checks are hashed, so filtering a list of
+ * n entities costs O(n) regardless of how many locations the user is assigned to. The uuids are also kept in the
+ * order they were configured, for callers of the list based API, and resolved to location ids for the checks of
+ * {@link Location} instances.
+ */
+public final class AccessibleLocations {
+
+    private final List<String> uuidList;
+
+    private final Set<String> uuidSet;
+
+    private volatile LocationRegistry.LocationIds locationIds;
+
+    private AccessibleLocations(List<String> uuidList) {
+        this.uuidList = Collections.unmodifiableList(uuidList);
+        this.uuidSet = Collections.unmodifiableSet(new HashSet<String>(uuidList));
+    }
+
+    /**
+     * @param locationUuids comma separated location uuids, as stored in the locationUuid user property
+     * @return the accessible locations, none if the property is not set
+     */
+    public static AccessibleLocations fromProperty(String locationUuids) {
+        if (locationUuids == null) {
+            return new AccessibleLocations(Collections.<String>emptyList());
+        }
+        return new AccessibleLocations(Arrays.asList(locationUuids.split(",")));
+    }
+
+    /**
+     * @param locationUuids accessible location uuids
+     * @return the accessible locations
+     */
+    public static AccessibleLocations of(Collection<String> locationUuids) {
+        return new AccessibleLocations(new ArrayList<String>(locationUuids));
+    }
+
+    public boolean contains(String locationUuid) {
+        return locationUuid != null && uuidSet.contains(locationUuid);
+    }
+
+    /**
+     * Used to check a location by its id, which does not load a lazy loaded location. The uuids are resolved to
+     * location ids by the {@link LocationRegistry} on the first call, and again whenever the registry changes.
+     * @param location the location to check
+     * @return true if the location is accessible
+     */
+    public boolean contains(Location location) {
+        if (location == null) {
+            return false;
+        }
+        if (location.getLocationId() == null) {
+            return contains(location.getUuid());
+        }
+        LocationRegistry.LocationIds resolvedIds = locationIds;
+        if (resolvedIds == null || !resolvedIds.isCurrent()) {
+            resolvedIds = LocationRegistry.resolve(uuidList);
+            locationIds = resolvedIds;
+        }
+        if (resolvedIds.contains(location.getLocationId())) {
+            return true;
+        }
+        // A uuid unknown to the registry may belong to a location added since it was loaded
+        return !resolvedIds.isComplete() && contains(location.getUuid());
+    }
+
+    /**
+     * Used to check whether any of the comma separated location uuids is accessible.
+     * @param locationUuids comma separated location uuids, as stored in the locationUuid user property
+     * @return true if at least one of the locations is accessible
+     */
+    public boolean containsAny(String locationUuids) {
+        if (locationUuids == null) {
+            return false;
+        }
+        for (String locationUuid : locationUuids.split(",")) {
+            if (StringUtils.isNotBlank(locationUuid) && uuidSet.contains(locationUuid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return uuidList.size();
+    }
+
+    /**
+     * @return read only list view of the uuids, in the configured order
+     */
+    public List<String> asList() {
+        return uuidList;
+    }
+
+    /**
+     * @return read only hashed view of the uuids
+     */
+    public Set<String> asSet() {
+        return uuidSet;
+    }
+
+    @Override
+    public String toString() {
+        return uuidList.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Location;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+
+/**
+ * Immutable view of everything the LBAC interceptors need to decide whether the authenticated user can see an
+ * entity: the per entity restriction flags, the location person attribute type and the accessible location uuids.
+ * Instances are built once per authenticated user and cached for the current request by
+ * {@link LocationAccessContextHolder}. The accessible locations are only resolved when they are first asked for, so
+ * the calls made while no restriction applies do not look them up.
+ */
+public class LocationAccessContext {
+
+    private final Integer userId;
+
+    private final String locationUserProperty;
+
+    private final Integer sessionLocationId;
+
+    private final boolean unrestrictedUser;
+
+    private final LocationBasedAccessSettings settings;
+
+    private final PersonAttributeType locationAttributeType;
+
+    private AccessibleLocations accessibleLocations;
+
+    private volatile boolean accessibleLocationsResolved;
+
+    private final long hierarchyVersion;
+
+    private LocationAccessContext(User user, String locationUserProperty, Integer sessionLocationId) {
+        this.userId = user.getUserId();
+        this.locationUserProperty = locationUserProperty;
+        this.sessionLocationId = sessionLocationId;
+        this.unrestrictedUser = Daemon.isDaemonUser(user) || user.isSuperUser();
+        this.settings = LocationBasedAccessSettings.get();
+
+        String locationAttributeUuid = settings.getLocationAttributeUuid();
+        if (StringUtils.isNotBlank(locationAttributeUuid)) {
+            this.locationAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid);
+        } else {
+            this.locationAttributeType = null;
+        }
+        this.hierarchyVersion = LocationHierarchyIndex.getVersion();
+    }
+
+    /**
+     * Builds the access context of the given user.
+     * @param user Authenticated user
+     * @return the access context for the user
+     */
+    public static LocationAccessContext create(User user) {
+        return new LocationAccessContext(user, getLocationUserProperty(user), getSessionLocationId());
+    }
+
+    /**
+     * Used to check whether this context was built for the given user in the current user context. The user
+     * property and the session location are compared as well, since both decide the accessible locations, and so
+     * are the global property settings and the location hierarchy the context was built from.
+     * @param user Authenticated user
+     * @return true if the context can be reused for the user
+     */
+    public boolean isValidFor(User user) {
+        return user != null
+                && equals(userId, user.getUserId())
+                && equals(locationUserProperty, getLocationUserProperty(user))
+                && equals(sessionLocationId, getSessionLocationId())
+                && settings.equals(LocationBasedAccessSettings.get())
+                && (!settings.isHierarchicalAccess() || hierarchyVersion == LocationHierarchyIndex.getVersion());
+    }
+
+    public boolean isUnrestrictedUser() {
+        return unrestrictedUser;
+    }
+
+    public boolean isPatientRestricted() {
+        return settings.isPatientRestricted() && !unrestrictedUser;
+    }
+
+    public boolean isPersonRestricted() {
+        return settings.isPersonRestricted() && !unrestrictedUser;
+    }
+
+    public boolean isEncounterRestricted() {
+        return settings.isEncounterRestricted() && !unrestrictedUser;
+    }
+
+    public boolean isUserRestricted() {
+        return settings.isUserRestricted() && !unrestrictedUser;
+    }
+
+    public boolean isLocationRestricted() {
+        return settings.isLocationRestricted() && !unrestrictedUser;
+    }
+
+    public boolean isPatientLocationRestrictionType() {
+        return settings.isPatientLocationRestrictionType();
+    }
+
+    /**
+     * @return the location person attribute type, or null if the global property is not configured
+     */
+    public PersonAttributeType getLocationAttributeType() {
+        return locationAttributeType;
+    }
+
+    /**
+     * @return the accessible locations, or null if the user is unrestricted or has neither a location user property
+     * nor a session location
+     */
+    public AccessibleLocations getAccessibleLocations() {
+        if (!accessibleLocationsResolved) {
+            synchronized (this) {
+                if (!accessibleLocationsResolved) {
+                    accessibleLocations = resolveAccessibleLocations();
+                    accessibleLocationsResolved = true;
+                }
+            }
+        }
+        return accessibleLocations;
+    }
+
+    public boolean canAccessLocation(String locationUuid) {
+        AccessibleLocations locations = getAccessibleLocations();
+        return locations != null && locations.contains(locationUuid);
+    }
+
+    public boolean canAccessLocation(Location location) {
+        AccessibleLocations locations = getAccessibleLocations();
+        return locations != null && locations.contains(location);
+    }
+
+    private AccessibleLocations resolveAccessibleLocations() {
+        // Super users and daemon threads bypass every restriction, so there is no need to resolve their locations
+        if (unrestrictedUser) {
+            return null;
+        }
+        AccessibleLocations userLocations = LocationUtils.getAccessibleLocations(locationUserProperty, sessionLocationId);
+        if (userLocations != null && settings.isHierarchicalAccess()) {
+            userLocations = LocationHierarchyIndex.expand(userLocations);
+        }
+        return userLocations;
+    }
+
+    private static String getLocationUserProperty(User user) {
+        return user.getUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+    }
+
+    private static Integer getSessionLocationId() {
+        return Context.getUserContext().getLocationId();
+    }
+
+    private static boolean equals(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+
+/**
+ * Thread bound holder of the {@link LocationAccessContext} for the current request. The context is only cached
+ * between {@link #beginRequest()} and {@link #endRequest()}; outside of a request scope (scheduled tasks, daemon
+ * threads, unit tests) a fresh context is built for every call, so nothing can outlive the request it was built for.
+ */
+public class LocationAccessContextHolder {
+
+    private static final ThreadLocal<RequestScope> requestScope = new ThreadLocal<RequestScope>();
+
+    private static final ThreadLocal<Integer> internalCallDepth = new ThreadLocal<Integer>();
+
+    /**
+     * Opens the request scope for the current thread. Nested calls (forwards and includes) share the outer scope.
+     */
+    public static void beginRequest() {
+        RequestScope scope = requestScope.get();
+        if (scope == null) {
+            scope = new RequestScope();
+            requestScope.set(scope);
+        }
+        scope.depth++;
+    }
+
+    /**
+     * Closes the request scope for the current thread, dropping the cached context once the outermost scope ends.
+     */
+    public static void endRequest() {
+        RequestScope scope = requestScope.get();
+        if (scope != null && --scope.depth <= 0) {
+            requestScope.remove();
+        }
+    }
+
+    /**
+     * Drops the context cached for the current request, if any. Used when something the context was built from
+     * has been changed during the request.
+     */
+    public static void clear() {
+        RequestScope scope = requestScope.get();
+        if (scope != null) {
+            scope.context = null;
+        }
+    }
+
+    /**
+     * Marks the start of a service call made by LBAC itself while checking access. Advised calls made until the
+     * matching {@link #endInternalCall()} are not intercepted again, since their results are checked by the caller.
+     */
+    public static void beginInternalCall() {
+        Integer depth = internalCallDepth.get();
+        internalCallDepth.set(depth == null ? 1 : depth + 1);
+    }
+
+    /**
+     * Marks the end of a service call started with {@link #beginInternalCall()}, should be called in a finally block.
+     */
+    public static void endInternalCall() {
+        Integer depth = internalCallDepth.get();
+        if (depth == null || depth <= 1) {
+            internalCallDepth.remove();
+        } else {
+            internalCallDepth.set(depth - 1);
+        }
+    }
+
+    /**
+     * @return true if the current thread is inside a service call made by LBAC itself
+     */
+    public static boolean isInternalCall() {
+        return internalCallDepth.get() != null;
+    }
+
+    /**
+     * Used to get the access context of the authenticated user, building it at most once per request.
+     * @return the access context, or null if there is no authenticated user
+     */
+    public static LocationAccessContext getContext() {
+        User authenticatedUser = Context.getAuthenticatedUser();
+        if (authenticatedUser == null) {
+            return null;
+        }
+        RequestScope scope = requestScope.get();
+        if (scope == null) {
+            return LocationAccessContext.create(authenticatedUser);
+        }
+        if (scope.context == null || !scope.context.isValidFor(authenticatedUser)) {
+            scope.context = LocationAccessContext.create(authenticatedUser);
+        }
+        return scope.context;
+    }
+
+    private static class RequestScope {
+
+        private int depth;
+
+        private LocationAccessContext context;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.openmrs.Location;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the {@link LocationRegistry} and the {@link LocationHierarchyIndex} in line with the committed locations. A
+ * saved location is applied to them once its transaction commits, and they are dropped when a transaction which
+ * changed or loaded them rolls back, since they may then hold locations which were never committed.
+ */
+public class LocationCacheSynchronization {
+
+    /**
+     * Applies the saved location to the registry and the index once the current transaction commits, or right away
+     * outside of a transaction
+     * @param location the saved location
+     */
+    public static void updateAfterCommit(final Location location) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update(location);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+            @Override
+            public void afterCommit() {
+                update(location);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                    clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the registry and the index if the current transaction does not commit. Called when they are loaded
+     * within a transaction, which may see locations it has not committed yet.
+     */
+    static void clearOnRollback() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                    clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the registry and the index, the next calls load them again from the database
+     */
+    public static void clear() {
+        LocationHierarchyIndex.clear();
+        LocationRegistry.clear();
+    }
+
+    private static void update(Location location) {
+        LocationHierarchyIndex.update(location);
+        LocationRegistry.update(location);
+    }
+}
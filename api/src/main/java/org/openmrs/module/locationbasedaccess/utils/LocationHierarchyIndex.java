@@ -0,0 +1,242 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory closure of the location hierarchy: every location is numbered and keeps a bitset of its descendants
+ * (itself included), so the locations accessible through a location are resolved without walking the tree. The
+ * index is built from the database on first use and kept up to date by
+ * {@link org.openmrs.module.locationbasedaccess.aop.interceptor.LocationHierarchyInterceptorAdvice} whenever a
+ * location is saved, retired or purged, once the change is committed, see {@link LocationCacheSynchronization}.
+ */
+public class LocationHierarchyIndex {
+
+    private static final Log log = LogFactory.getLog(LocationHierarchyIndex.class);
+
+    private static final int NO_PARENT = -1;
+
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final Map<String, Integer> indexByUuid = new HashMap<String, Integer>();
+
+    private static final List<String> uuids = new ArrayList<String>();
+
+    private static final List<Integer> parents = new ArrayList<Integer>();
+
+    private static final List<BitSet> descendants = new ArrayList<BitSet>();
+
+    private static boolean built = false;
+
+    private static volatile long version = 0;
+
+    /**
+     * Used to expand the given locations with all their descendant locations.
+     * @param accessibleLocations the locations assigned to a user
+     * @return the given locations followed by their descendants
+     */
+    public static AccessibleLocations expand(AccessibleLocations accessibleLocations) {
+        ensureBuilt();
+        Set<String> expandedUuids = new LinkedHashSet<String>(accessibleLocations.asList());
+        lock.readLock().lock();
+        try {
+            BitSet closure = new BitSet(uuids.size());
+            for (String uuid : accessibleLocations.asList()) {
+                Integer index = indexByUuid.get(uuid);
+                if (index != null) {
+                    closure.or(descendants.get(index));
+                }
+            }
+            for (int index = closure.nextSetBit(0); index >= 0; index = closure.nextSetBit(index + 1)) {
+                expandedUuids.add(uuids.get(index));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return AccessibleLocations.of(expandedUuids);
+    }
+
+    /**
+     * Used to check whether a location is the given location or one of its descendants.
+     * @param ancestorUuid uuid of the ancestor location
+     * @param locationUuid uuid of the location to check
+     * @return true if the location is in the hierarchy below the ancestor location, or is the ancestor itself
+     */
+    public static boolean isDescendant(String ancestorUuid, String locationUuid) {
+        ensureBuilt();
+        lock.readLock().lock();
+        try {
+            Integer ancestorIndex = indexByUuid.get(ancestorUuid);
+            Integer locationIndex = indexByUuid.get(locationUuid);
+            return ancestorIndex != null && locationIndex != null && descendants.get(ancestorIndex).get(locationIndex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the location to its current parent in the index, adding it if it is new. Only the ancestors of the old
+     * and the new parent are updated.
+     * @param location the saved location
+     */
+    public static void update(Location location) {
+        if (location == null || location.getUuid() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                return;
+            }
+            int index = getOrAddIndex(location.getUuid());
+            int newParent = NO_PARENT;
+            if (location.getParentLocation() != null) {
+                Integer parentIndex = indexByUuid.get(location.getParentLocation().getUuid());
+                if (parentIndex == null) {
+                    // The parent is not indexed yet, the next call builds the index again from the database
+                    built = false;
+                    return;
+                }
+                newParent = parentIndex;
+            }
+            int oldParent = parents.get(index);
+            if (oldParent != newParent) {
+                BitSet subtree = descendants.get(index);
+                if (isInSubtree(newParent, subtree)) {
+                    log.warn("Location " + location.getUuid() + " is an ancestor of its parent, rebuilding the location hierarchy");
+                    built = false;
+                    return;
+                }
+                for (int ancestor = oldParent; ancestor != NO_PARENT; ancestor = parents.get(ancestor)) {
+                    descendants.get(ancestor).andNot(subtree);
+                }
+                parents.set(index, newParent);
+                for (int ancestor = newParent; ancestor != NO_PARENT; ancestor = parents.get(ancestor)) {
+                    descendants.get(ancestor).or(subtree);
+                }
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the index, the next call builds it again from the database. Used when a location is purged.
+     */
+    public static void clear() {
+        lock.writeLock().lock();
+        try {
+            built = false;
+            indexByUuid.clear();
+            uuids.clear();
+            parents.clear();
+            descendants.clear();
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a number which changes whenever the index changes
+     */
+    public static long getVersion() {
+        return version;
+    }
+
+    private static void ensureBuilt() {
+        lock.readLock().lock();
+        try {
+            if (built) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Location> locations;
+        LocationAccessContextHolder.beginInternalCall();
+        try {
+            locations = Context.getLocationService().getAllLocations(true);
+        } finally {
+            LocationAccessContextHolder.endInternalCall();
+        }
+        LocationCacheSynchronization.clearOnRollback();
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                build(locations);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void build(List<Location> locations) {
+        indexByUuid.clear();
+        uuids.clear();
+        parents.clear();
+        descendants.clear();
+        for (Location location : locations) {
+            getOrAddIndex(location.getUuid());
+        }
+        for (Location location : locations) {
+            if (location.getParentLocation() != null) {
+                Integer parentIndex = indexByUuid.get(location.getParentLocation().getUuid());
+                if (parentIndex != null) {
+                    parents.set(indexByUuid.get(location.getUuid()), parentIndex);
+                }
+            }
+        }
+        for (int index = 0; index < uuids.size(); index++) {
+            // Walk up at most the number of locations, in case the hierarchy contains a cycle
+            int ancestor = parents.get(index);
+            for (int depth = 0; ancestor != NO_PARENT && ancestor != index && depth < uuids.size(); depth++) {
+                descendants.get(ancestor).set(index);
+                ancestor = parents.get(ancestor);
+            }
+        }
+        built = true;
+        version++;
+    }
+
+    private static int getOrAddIndex(String uuid) {
+        Integer index = indexByUuid.get(uuid);
+        if (index == null) {
+            index = uuids.size();
+            indexByUuid.put(uuid, index);
+            uuids.add(uuid);
+            parents.add(NO_PARENT);
+            BitSet self = new BitSet();
+            self.set(index);
+            descendants.add(self);
+        }
+        return index;
+    }
+
+    private static boolean isInSubtree(int index, BitSet subtree) {
+        return index != NO_PARENT && subtree.get(index);
+    }
+}
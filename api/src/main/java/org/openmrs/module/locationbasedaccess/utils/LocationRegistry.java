@@ -0,0 +1,319 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In memory table of all the locations by uuid and by id, so a location uuid is resolved to its id or name, and a
+ * session location id to its uuid, without a database call. The filters compare the location ids of the entities
+ * against a {@link LocationIds} bitset, as reading the id of a lazy loaded location does not load it. The table is
+ * loaded from the database on first use and kept up to date by
+ * {@link org.openmrs.module.locationbasedaccess.aop.interceptor.LocationHierarchyInterceptorAdvice} whenever a
+ * location is saved, retired or purged, once the change is committed, see {@link LocationCacheSynchronization}. A
+ * uuid missing from the table reloads it, at most once per {@link #RELOAD_INTERVAL_MILLIS}, in case the location was
+ * added without going through the LocationService.
+ */
+public class LocationRegistry {
+
+    /**
+     * Minimum time between two reloads caused by an unknown uuid or id
+     */
+    public static final long RELOAD_INTERVAL_MILLIS = 60000;
+
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final Map<String, Integer> idsByUuid = new HashMap<String, Integer>();
+
+    private static final Map<Integer, Entry> entriesById = new TreeMap<Integer, Entry>();
+
+    private static boolean loaded = false;
+
+    private static long loadedAt = 0;
+
+    private static volatile long version = 0;
+
+    /**
+     * @param locationUuid uuid of the location
+     * @return the id of the location, or null if there is no location with this uuid
+     */
+    public static Integer getLocationId(String locationUuid) {
+        if (locationUuid == null) {
+            return null;
+        }
+        ensureLoaded();
+        Integer locationId = readId(locationUuid);
+        if (locationId == null && reloadIfDue()) {
+            locationId = readId(locationUuid);
+        }
+        return locationId;
+    }
+
+    /**
+     * @param locationId id of the location
+     * @return the uuid of the location, or null if there is no location with this id
+     */
+    public static String getUuid(Integer locationId) {
+        Entry entry = getEntry(locationId);
+        return entry != null ? entry.uuid : null;
+    }
+
+    /**
+     * @param locationUuid uuid of the location
+     * @return the name of the location, or null if there is no location with this uuid
+     */
+    public static String getName(String locationUuid) {
+        Entry entry = getEntry(getLocationId(locationUuid));
+        return entry != null ? entry.name : null;
+    }
+
+    /**
+     * @param includeRetired whether to include the retired locations
+     * @return the names of the locations by uuid, in location id order
+     */
+    public static Map<String, String> getNamesByUuid(boolean includeRetired) {
+        ensureLoaded();
+        Map<String, String> namesByUuid = new LinkedHashMap<String, String>();
+        lock.readLock().lock();
+        try {
+            for (Entry entry : entriesById.values()) {
+                if (includeRetired || !entry.retired) {
+                    namesByUuid.put(entry.uuid, entry.name);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return namesByUuid;
+    }
+
+    /**
+     * Used to resolve the accessible locations to their ids once, for the filters which compare location ids.
+     * @param locationUuids the location uuids
+     * @return the ids of the known locations, with the uuids which could not be resolved
+     */
+    public static LocationIds resolve(Collection<String> locationUuids) {
+        ensureLoaded();
+        BitSet locationIds = new BitSet();
+        boolean complete = true;
+        lock.readLock().lock();
+        try {
+            for (String locationUuid : locationUuids) {
+                if (StringUtils.isBlank(locationUuid)) {
+                    continue;
+                }
+                Integer locationId = idsByUuid.get(locationUuid);
+                if (locationId != null) {
+                    locationIds.set(locationId);
+                } else {
+                    complete = false;
+                }
+            }
+            return new LocationIds(locationIds, complete, version);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the location, or updates its uuid, name and retired state
+     * @param location the saved location
+     */
+    public static void update(Location location) {
+        if (location == null || location.getLocationId() == null || location.getUuid() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            Entry oldEntry = entriesById.get(location.getLocationId());
+            if (oldEntry != null) {
+                idsByUuid.remove(oldEntry.uuid);
+            }
+            put(location);
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the table, the next call loads it again from the database. Used when a location is purged.
+     */
+    public static void clear() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            idsByUuid.clear();
+            entriesById.clear();
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a number which changes whenever the table changes
+     */
+    public static long getVersion() {
+        return version;
+    }
+
+    private static Integer readId(String locationUuid) {
+        lock.readLock().lock();
+        try {
+            return idsByUuid.get(locationUuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Entry getEntry(Integer locationId) {
+        if (locationId == null) {
+            return null;
+        }
+        ensureLoaded();
+        Entry entry = readEntry(locationId);
+        if (entry == null && reloadIfDue()) {
+            entry = readEntry(locationId);
+        }
+        return entry;
+    }
+
+    private static Entry readEntry(Integer locationId) {
+        lock.readLock().lock();
+        try {
+            return entriesById.get(locationId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean reloadIfDue() {
+        lock.writeLock().lock();
+        try {
+            if (!loaded || System.currentTimeMillis() - loadedAt < RELOAD_INTERVAL_MILLIS) {
+                return false;
+            }
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ensureLoaded();
+        return true;
+    }
+
+    private static void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (loaded) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Location> locations;
+        LocationAccessContextHolder.beginInternalCall();
+        try {
+            locations = Context.getLocationService().getAllLocations(true);
+        } finally {
+            LocationAccessContextHolder.endInternalCall();
+        }
+        LocationCacheSynchronization.clearOnRollback();
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                idsByUuid.clear();
+                entriesById.clear();
+                for (Location location : locations) {
+                    put(location);
+                }
+                loaded = true;
+                loadedAt = System.currentTimeMillis();
+                version++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void put(Location location) {
+        idsByUuid.put(location.getUuid(), location.getLocationId());
+        entriesById.put(location.getLocationId(), new Entry(location.getUuid(), location.getName(),
+                Boolean.TRUE.equals(location.getRetired())));
+    }
+
+    private static final class Entry {
+
+        private final String uuid;
+
+        private final String name;
+
+        private final boolean retired;
+
+        private Entry(String uuid, String name, boolean retired) {
+            this.uuid = uuid;
+            this.name = name;
+            this.retired = retired;
+        }
+    }
+
+    /**
+     * Location ids resolved from a set of location uuids by {@link #resolve(Collection)}
+     */
+    public static final class LocationIds {
+
+        private final BitSet locationIds;
+
+        private final boolean complete;
+
+        private final long version;
+
+        private LocationIds(BitSet locationIds, boolean complete, long version) {
+            this.locationIds = locationIds;
+            this.complete = complete;
+            this.version = version;
+        }
+
+        public boolean contains(int locationId) {
+            return locationIds.get(locationId);
+        }
+
+        /**
+         * @return false if some of the uuids are not known locations, a location which is not contained may then
+         * still be one of them
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * @return true if the registry did not change since the ids were resolved
+         */
+        public boolean isCurrent() {
+            return version == LocationRegistry.version;
+        }
+    }
+}
@@ -11,6 +11,7 @@
 package org.openmrs.module.locationbasedaccess.utils;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Hibernate;
 import org.openmrs.Location;
 import org.openmrs.Person;
 import org.openmrs.PersonAttribute;
@@ -20,33 +21,114 @@ import org.openmrs.User;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class LocationUtils {
 
     public static Location getPersonLocation(Person person) {
-        String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+        String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
         if (StringUtils.isNotBlank(locationAttributeUuid)) {
             final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid);
             PersonAttribute personAttribute = person.getAttribute(personAttributeType);
             if (personAttribute != null) {
-                Location personLocation = Context.getLocationService().getLocationByUuid(personAttribute.getValue());
-                return personLocation;
+                Integer personLocationId = LocationRegistry.getLocationId(personAttribute.getValue());
+                return personLocationId != null ? Context.getLocationService().getLocation(personLocationId) : null;
             }
         }
         return null;
     }
 
-    public static Boolean doesPersonBelongToGivenLocations(Person person, PersonAttributeType personAttributeType, List<String> sessionLocationsLists) {
+    public static Boolean doesPersonBelongToGivenLocations(Person person, PersonAttributeType personAttributeType, Collection<String> sessionLocationsLists) {
         PersonAttribute personAttribute = person.getAttribute(personAttributeType);
         return (personAttribute != null && sessionLocationsLists.contains(personAttribute.getValue()));
     }
 
-    public static Boolean doesUserBelongToGivenLocations(User user, List<String> sessionLocationsLists){
+    public static Boolean doesPersonBelongToGivenLocations(Person person, PersonAttributeType personAttributeType, AccessibleLocations accessibleLocations) {
+        PersonAttribute personAttribute = person.getAttribute(personAttributeType);
+        return (personAttribute != null && accessibleLocations.contains(personAttribute.getValue()));
+    }
+
+    /**
+     * Used to get the location attribute values of the given persons with a single query per chunk of persons,
+     * instead of loading the attributes of each person. The persons whose attributes are already loaded are not
+     * queried, their attributes may have changes which are not flushed yet and are checked in memory instead.
+     * @param persons the persons to be filtered
+     * @param personAttributeType the location person attribute type
+     * @return location uuid by person id
+     * @see #doesPersonBelongToGivenLocations(Person, Map, PersonAttributeType, AccessibleLocations)
+     */
+    public static Map<Integer, String> getPersonLocationUuids(Collection<? extends Person> persons, PersonAttributeType personAttributeType) {
+        Set<Integer> personIds = new HashSet<Integer>();
+        for (Person person : persons) {
+            if (person != null && person.getPersonId() != null && !areAttributesLoaded(person)) {
+                personIds.add(person.getPersonId());
+            }
+        }
+        if (personIds.isEmpty()) {
+            return new HashMap<Integer, String>();
+        }
+        return Context.getService(LocationBasedAccessService.class).getPersonLocationUuids(personIds, personAttributeType);
+    }
+
+    /**
+     * Same as {@link #doesPersonBelongToGivenLocations(Person, PersonAttributeType, AccessibleLocations)}, but reads
+     * the location from the bulk loaded attribute values. Persons which are not saved yet or whose attributes are
+     * loaded fall back to their attributes.
+     * @param person the person to check
+     * @param personLocationUuids location uuid by person id, as returned by {@link #getPersonLocationUuids(Collection, PersonAttributeType)}
+     * @param personAttributeType the location person attribute type
+     * @param accessibleLocations the accessible locations
+     * @return true if the person belongs to one of the accessible locations
+     */
+    public static Boolean doesPersonBelongToGivenLocations(Person person, Map<Integer, String> personLocationUuids,
+                                                           PersonAttributeType personAttributeType, AccessibleLocations accessibleLocations) {
+        if (person.getPersonId() == null || areAttributesLoaded(person)) {
+            return doesPersonBelongToGivenLocations(person, personAttributeType, accessibleLocations);
+        }
+        return accessibleLocations.contains(personLocationUuids.get(person.getPersonId()));
+    }
+
+    /**
+     * @return true if the attributes of the person are in memory, without initializing the person or its attributes
+     */
+    private static boolean areAttributesLoaded(Person person) {
+        return Hibernate.isInitialized(person) && Hibernate.isInitialized(person.getAttributes());
+    }
+
+    public static Boolean doesUserBelongToGivenLocations(User user, AccessibleLocations accessibleLocations) {
+        AccessibleLocations userLocations = getUserAccessibleLocations(user);
+        if (userLocations != null) {
+            for (String location : userLocations.asList()) {
+                if (!StringUtils.isBlank(location) && accessibleLocations.contains(location)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static Boolean doesUsersForPersonBelongToGivenLocations(Person person, AccessibleLocations accessibleLocations) {
+        List<User> userList = getUsersByPerson(person);
+        for (Iterator<User> iterator = userList.iterator(); iterator.hasNext(); ) {
+            if(LocationUtils.doesUserBelongToGivenLocations(iterator.next(), accessibleLocations)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static Boolean doesUserBelongToGivenLocations(User user, Collection<String> sessionLocationsLists){
         List<String> accessibleLocationsList = getUserAccessibleLocationUuids(user);
         if(accessibleLocationsList != null ){
             for(String location : accessibleLocationsList ){
@@ -58,8 +140,8 @@ public class LocationUtils {
         return false ;
     }
 
-    public static Boolean doesUsersForPersonBelongToGivenLocations(Person person, List<String> sessionLocationsLists) {
-        List<User> userList = Context.getUserService().getUsersByPerson(person, false);
+    public static Boolean doesUsersForPersonBelongToGivenLocations(Person person, Collection<String> sessionLocationsLists) {
+        List<User> userList = getUsersByPerson(person);
         for (Iterator<User> iterator = userList.iterator(); iterator.hasNext(); ) {
             if(LocationUtils.doesUserBelongToGivenLocations(iterator.next(), sessionLocationsLists)) {
                 return true;
@@ -68,26 +150,118 @@ public class LocationUtils {
         return false;
     }
 
+    /**
+     * Used to get the locations of the users linked to the given persons with a single query per chunk of persons,
+     * instead of looking up the users of each person. Like {@link #getUserAccessibleLocations(User)}, the session
+     * location is used for the users without the locationUuid property.
+     * @param persons the persons to be filtered
+     * @return comma separated location uuids of each user, by person id
+     * @see #doesUsersForPersonBelongToGivenLocations(Person, Map, AccessibleLocations)
+     */
+    public static Map<Integer, List<String>> getUsersLocationUuids(Collection<? extends Person> persons) {
+        Set<Integer> personIds = new HashSet<Integer>();
+        for (Person person : persons) {
+            if (person != null && person.getPersonId() != null) {
+                personIds.add(person.getPersonId());
+            }
+        }
+        if (personIds.isEmpty()) {
+            return new HashMap<Integer, List<String>>();
+        }
+        Map<Integer, List<String>> usersLocationUuids = Context.getService(LocationBasedAccessService.class)
+                .getUserLocationPropertiesByPerson(personIds);
+        String sessionLocationUuid = null;
+        Integer sessionLocationId = Context.getUserContext().getLocationId();
+        if (sessionLocationId != null) {
+            sessionLocationUuid = LocationRegistry.getUuid(sessionLocationId);
+        }
+        for (List<String> locationUuids : usersLocationUuids.values()) {
+            for (int index = 0; index < locationUuids.size(); index++) {
+                if (StringUtils.isBlank(locationUuids.get(index))) {
+                    locationUuids.set(index, sessionLocationUuid);
+                }
+            }
+        }
+        return usersLocationUuids;
+    }
+
+    /**
+     * Same as {@link #doesUsersForPersonBelongToGivenLocations(Person, AccessibleLocations)}, but reads the user
+     * locations from the bulk loaded values. Persons which are not saved yet fall back to looking up their users.
+     * @param person the person to check
+     * @param usersLocationUuids user locations by person id, as returned by {@link #getUsersLocationUuids(Collection)}
+     * @param accessibleLocations the accessible locations
+     * @return true if any of the users of the person belongs to one of the accessible locations
+     */
+    public static Boolean doesUsersForPersonBelongToGivenLocations(Person person, Map<Integer, List<String>> usersLocationUuids,
+                                                                   AccessibleLocations accessibleLocations) {
+        if (person.getPersonId() == null) {
+            return doesUsersForPersonBelongToGivenLocations(person, accessibleLocations);
+        }
+        List<String> locationUuids = usersLocationUuids.get(person.getPersonId());
+        if (locationUuids != null) {
+            for (String userLocationUuids : locationUuids) {
+                if (accessibleLocations.containsAny(userLocationUuids)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The users are checked by the caller, so the lookup is not filtered again by the user interceptor
+     */
+    private static List<User> getUsersByPerson(Person person) {
+        LocationAccessContextHolder.beginInternalCall();
+        try {
+            return Context.getUserService().getUsersByPerson(person, false);
+        } finally {
+            LocationAccessContextHolder.endInternalCall();
+        }
+    }
+
     /**
      * Used to get the accessible locations for the user. It will first get from the user property. if the user
      * property is not available, then check for the session location. If both are not available then return null.
      * @param authenticatedUser Authenticated user
      * @return accessibleLocationUuids the list of accessible Locations uuid
+     * @see #getUserAccessibleLocations(User)
      */
     public static List <String> getUserAccessibleLocationUuids(User authenticatedUser) {
+        AccessibleLocations accessibleLocations = getUserAccessibleLocations(authenticatedUser);
+        return accessibleLocations != null ? accessibleLocations.asList() : null;
+    }
+
+    /**
+     * Used to get the accessible locations for the user. It will first get from the user property. if the user
+     * property is not available, then check for the session location. If both are not available then return null.
+     * @param authenticatedUser Authenticated user
+     * @return the accessible locations, backed by a hashed set for membership checks
+     */
+    public static AccessibleLocations getUserAccessibleLocations(User authenticatedUser) {
         if (authenticatedUser == null) {
             return null;
         }
-        List <String> accessibleLocationUuids ;
-        String accessibleLocationUuid = authenticatedUser.getUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+        return getAccessibleLocations(
+                authenticatedUser.getUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME),
+                Context.getUserContext().getLocationId());
+    }
+
+    /**
+     * @param locationUserProperty the locationUuid user property of the user
+     * @param sessionLocationId id of the session location, used if the user property is not set
+     * @return the accessible locations, or null if neither the user property nor the session location is set
+     */
+    static AccessibleLocations getAccessibleLocations(String locationUserProperty, Integer sessionLocationId) {
+        String accessibleLocationUuid = locationUserProperty;
+        if (StringUtils.isBlank(accessibleLocationUuid) && sessionLocationId != null) {
+            accessibleLocationUuid = LocationRegistry.getUuid(sessionLocationId);
+        }
         if (StringUtils.isBlank(accessibleLocationUuid)) {
-            Integer sessionLocationId = Context.getUserContext().getLocationId();
-            if (sessionLocationId != null) {
-                accessibleLocationUuid = Context.getLocationService().getLocation(sessionLocationId).getUuid();
-            }
+            return null;
         }
-        accessibleLocationUuids = Arrays.asList(accessibleLocationUuid.split(","));
-        return accessibleLocationUuids;
+        return AccessibleLocations.fromProperty(accessibleLocationUuid);
     }
 
     /**
@@ -0,0 +1,155 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+
+/**
+ * Filters the collections returned by the advised service methods in a single pass over their elements.
+ * <p>
+ * Removing the elements of an array list one by one through its iterator shifts the rest of the list on every removal,
+ * so the accessible elements are instead moved down over the removed ones and the tail is cut once. Only the plain
+ * JDK collections are filtered in place: any other collection may be unmodifiable, a view of another collection or a
+ * Hibernate collection whose changes would be flushed, so its accessible elements are copied into a new collection
+ * instead. A collection without any inaccessible element is returned as is, without copying it.
+ */
+public final class ResultFilter {
+
+    /**
+     * Tells which elements are kept, it is called once for each element in the order of the collection
+     */
+    public interface Predicate<T> {
+
+        boolean accept(T element);
+    }
+
+    private ResultFilter() {
+    }
+
+    /**
+     * @param collection the collection to filter
+     * @param predicate selects the elements to keep
+     * @return the filtered collection, a list for a list and a set for a set. It is the given collection if it was
+     * filtered in place or all its elements are kept.
+     */
+    public static <T> Collection<T> filter(Collection<T> collection, Predicate<? super T> predicate) {
+        if (collection instanceof List) {
+            return filter((List<T>) collection, predicate);
+        }
+        if (collection instanceof Set) {
+            return filter((Set<T>) collection, predicate);
+        }
+        Collection<T> accepted = copyAccepted(collection, predicate, false);
+        return accepted != null ? accepted : collection;
+    }
+
+    /**
+     * @param list the list to filter
+     * @param predicate selects the elements to keep
+     * @return the filtered list, keeping the order of the elements. It is the given list if it was filtered in place
+     * or all its elements are kept.
+     */
+    public static <T> List<T> filter(List<T> list, Predicate<? super T> predicate) {
+        Class<?> listClass = list.getClass();
+        if (listClass == ArrayList.class || listClass == Vector.class) {
+            compact(list, predicate);
+            return list;
+        }
+        if (listClass == LinkedList.class) {
+            removeRejected(list, predicate);
+            return list;
+        }
+        List<T> accepted = (List<T>) copyAccepted(list, predicate, false);
+        return accepted != null ? accepted : list;
+    }
+
+    /**
+     * @param set the set to filter
+     * @param predicate selects the elements to keep
+     * @return the filtered set, keeping the iteration order of the elements. It is the given set if it was filtered
+     * in place or all its elements are kept.
+     */
+    public static <T> Set<T> filter(Set<T> set, Predicate<? super T> predicate) {
+        Class<?> setClass = set.getClass();
+        if (setClass == HashSet.class || setClass == LinkedHashSet.class || setClass == TreeSet.class) {
+            // Removing through the iterator of a hashed or tree set does not move the other elements
+            removeRejected(set, predicate);
+            return set;
+        }
+        Set<T> accepted = (Set<T>) copyAccepted(set, predicate, true);
+        return accepted != null ? accepted : set;
+    }
+
+    /**
+     * Moves each accepted element to the next free index, then removes the tail of the list in a single call
+     */
+    private static <T> void compact(List<T> list, Predicate<? super T> predicate) {
+        int size = list.size();
+        int kept = 0;
+        for (int index = 0; index < size; index++) {
+            T element = list.get(index);
+            if (predicate.accept(element)) {
+                if (kept != index) {
+                    list.set(kept, element);
+                }
+                kept++;
+            }
+        }
+        if (kept < size) {
+            list.subList(kept, size).clear();
+        }
+    }
+
+    private static <T> void removeRejected(Collection<T> collection, Predicate<? super T> predicate) {
+        for (Iterator<T> iterator = collection.iterator(); iterator.hasNext(); ) {
+            if (!predicate.accept(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Copies the accepted elements into a new collection, sized for the source and only created once the first
+     * element is rejected
+     * @return a new {@link LinkedHashSet} or {@link ArrayList} of the accepted elements, or null if all the elements
+     * are accepted
+     */
+    private static <T> Collection<T> copyAccepted(Collection<T> collection, Predicate<? super T> predicate,
+                                                  boolean asSet) {
+        Collection<T> target = null;
+        int index = 0;
+        for (T element : collection) {
+            if (predicate.accept(element)) {
+                if (target != null) {
+                    target.add(element);
+                }
+            } else if (target == null) {
+                int capacity = collection.size() - 1;
+                target = asSet ? new LinkedHashSet<T>(capacity * 4 / 3 + 1) : new ArrayList<T>(capacity);
+                Iterator<T> iterator = collection.iterator();
+                for (int copied = 0; copied < index; copied++) {
+                    target.add(iterator.next());
+                }
+            }
+            index++;
+        }
+        return target;
+    }
+}
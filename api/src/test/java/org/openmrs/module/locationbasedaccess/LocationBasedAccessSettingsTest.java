@@ -0,0 +1,75 @@
+package org.openmrs.module.locationbasedaccess;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationBasedAccessSettingsTest extends BaseModuleContextSensitiveTest {
+
+    private static final String XML_FILENAME_WITH_PERSON_DATA = "include/PatientTestData.xml";
+    private static final String DEMO_PERSON_ATTRIBUTE_TYPE_UUID = "cdc6a460-2700-102b-80cb-0017a47871b3";
+
+    private AdministrationService administrationService;
+    private LocationBasedAccessSettingsListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        administrationService = Context.getAdministrationService();
+        executeDataSet(XML_FILENAME_WITH_PERSON_DATA);
+    }
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            administrationService.removeGlobalPropertyListener(listener);
+        }
+        LocationBasedAccessSettings.stop();
+    }
+
+    @Test
+    public void get_shouldLoadGlobalPropertiesWhenNotStarted() {
+        LocationBasedAccessSettings settings = LocationBasedAccessSettings.get();
+        assertTrue(settings.isPatientRestricted());
+        assertFalse(settings.isLocationRestricted());
+        assertEquals(DEMO_PERSON_ATTRIBUTE_TYPE_UUID, settings.getLocationAttributeUuid());
+    }
+
+    @Test
+    public void get_shouldReturnSameSnapshotOnceStarted() {
+        LocationBasedAccessSettings.start();
+        assertSame(LocationBasedAccessSettings.get(), LocationBasedAccessSettings.get());
+    }
+
+    @Test
+    public void listener_shouldSwapSnapshotWhenGlobalPropertyIsSaved() {
+        LocationBasedAccessSettings.start();
+        listener = new LocationBasedAccessSettingsListener();
+        administrationService.addGlobalPropertyListener(listener);
+
+        GlobalProperty globalProperty = administrationService.getGlobalPropertyObject(
+                LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME);
+        globalProperty.setPropertyValue("false");
+        administrationService.saveGlobalProperty(globalProperty);
+
+        LocationBasedAccessSettings settings = LocationBasedAccessSettings.get();
+        assertFalse(settings.isPatientRestricted());
+        assertTrue(settings.isPersonRestricted());
+    }
+
+    @Test
+    public void listener_shouldClearValueWhenGlobalPropertyIsDeleted() {
+        LocationBasedAccessSettings.start();
+        new LocationBasedAccessSettingsListener().globalPropertyDeleted(
+                LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+        assertNull(LocationBasedAccessSettings.get().getLocationAttributeUuid());
+    }
+}
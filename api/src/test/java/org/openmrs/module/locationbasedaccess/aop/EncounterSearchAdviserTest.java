@@ -22,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Cohort;
 import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.User;
@@ -32,6 +33,7 @@ import org.openmrs.api.UserService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
 import org.openmrs.module.locationbasedaccess.aop.common.AOPContextSensitiveTest;
 import org.openmrs.module.locationbasedaccess.aop.common.TestWithAOP;
 import org.openmrs.module.locationbasedaccess.aop.interceptor.EncounterServiceInterceptorAdvice;
@@ -412,6 +414,19 @@ public class EncounterSearchAdviserTest extends AOPContextSensitiveTest {
         assertEquals(location1, encounter3.getLocation());
     }
     
+    @Test
+    public void getCountOfEncounters_shouldCountOnlyAccessibleEncounters() {
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+
+        EncounterSearchCriteria esc = new EncounterSearchCriteria(null,null,null,null,null,null,null,null,null,null,false);
+        List<Encounter> encounterList = encounterService.getEncounters(esc);
+        assertEquals(encounterList.size(), encounterService.getCountOfEncounters("", false).intValue());
+
+        Context.authenticate(userService.getUser(DEMO_USER1_ID).getUsername(), "userServiceTest");
+        assertEquals(0, encounterService.getCountOfEncounters("", false).intValue());
+    }
+
     @Test
     public void getEncountersByPatientId_adminCanAccessEncounterFromAllLocations() {
         Context.authenticate("admin", "test");
@@ -903,4 +918,27 @@ public class EncounterSearchAdviserTest extends AOPContextSensitiveTest {
         assertNotNull(encounter3);
         assertEquals(location1, encounter3.getLocation()); 
     }
+
+    @Test
+    public void getEncounters_databaseFilteringShouldReturnOnlyAccessibleEncounters() {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(
+                LocationBasedAccessConstants.ENCOUNTER_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME, "true"));
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        assertFalse(normalUser.isSuperUser());
+
+        Location location1 = locationService.getLocation(DEMO_LOCATION1_ID);
+
+        Patient patient = patientService.getPatient(7);
+        EncounterSearchCriteria esc = new EncounterSearchCriteria(patient,null,null,null,null,null,null,null,null,null,false);
+        List<Encounter> encounterList = encounterService.getEncounters(esc);
+        assertEquals(2, encounterList.size());
+        assertEquals(location1, encounterList.get(0).getLocation());
+        assertEquals(location1, encounterList.get(1).getLocation());
+
+        Map<Integer, List<Encounter>> encounterMap = encounterService.getAllEncounters(new Cohort(Arrays.asList(2,7)));
+        assertEquals(1, encounterMap.get(2).size());
+        assertEquals(2, encounterMap.get(7).size());
+        assertEquals(location1, encounterMap.get(2).get(0).getLocation());
+    }
 }
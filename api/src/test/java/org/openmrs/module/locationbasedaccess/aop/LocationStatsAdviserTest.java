@@ -0,0 +1,85 @@
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.aop.common.AOPContextSensitiveTest;
+import org.openmrs.module.locationbasedaccess.aop.common.TestWithAOP;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.LocationStatsInterceptorAdvice;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+
+public class LocationStatsAdviserTest extends AOPContextSensitiveTest {
+
+    private PatientService patientService;
+    private LocationBasedAccessService locationBasedAccessService;
+    private static final String XML_FILENAME_WITH_PERSON_DATA = "include/PatientTestData.xml";
+    private static final String XML_FILENAME_WITH_ADMIN_USER_DATA = "include/AdminUserData.xml";
+
+    /** Configured values in the demo dataset **/
+    private static final int DEMO_PERSON_ATTRIBUTE_TYPE_ID = 10;
+    private static final int DEMO_PATIENT_ID = 3;
+    private static final String DEMO_LOCATION1_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c8";
+    private static final String DEMO_LOCATION2_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c9";
+
+    @Override
+    protected void setInterceptorAndServices(TestWithAOP testCase) {
+        testCase.setInterceptor(LocationStatsInterceptorAdvice.class);
+        testCase.addService(PatientService.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        patientService = Context.getPatientService();
+        locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+        executeDataSet(XML_FILENAME_WITH_ADMIN_USER_DATA);
+        executeDataSet(XML_FILENAME_WITH_PERSON_DATA);
+        // The module changelog is not run by the test context
+        Context.getAdministrationService().executeSQL("create table if not exists locationbasedaccess_location_stats ("
+                + "entity_type varchar(50) not null, location_uuid varchar(38) not null, entity_count bigint not null,"
+                + " date_updated datetime not null, primary key (entity_type, location_uuid))", false);
+        locationBasedAccessService.reconcileLocationStats();
+    }
+
+    @Test
+    public void savePatient_shouldMovePatientCountToNewLocation() {
+        Map<String, Long> patientCounts = locationBasedAccessService.getLocationStats(LocationStats.PATIENT);
+        long location1Count = patientCounts.get(DEMO_LOCATION1_UUID);
+        long location2Count = patientCounts.get(DEMO_LOCATION2_UUID);
+
+        PersonAttributeType locationAttributeType = Context.getPersonService().getPersonAttributeType(DEMO_PERSON_ATTRIBUTE_TYPE_ID);
+        Patient patient = patientService.getPatient(DEMO_PATIENT_ID);
+        patient.addAttribute(new PersonAttribute(locationAttributeType, DEMO_LOCATION2_UUID));
+        patientService.savePatient(patient);
+
+        patientCounts = locationBasedAccessService.getLocationStats(LocationStats.PATIENT);
+        assertEquals(location1Count - 1, getCount(patientCounts, DEMO_LOCATION1_UUID));
+        assertEquals(location2Count + 1, getCount(patientCounts, DEMO_LOCATION2_UUID));
+        assertStatsMatchEntityCounts();
+    }
+
+    @Test
+    public void voidPatient_shouldRemovePatientAndEncounterCounts() {
+        patientService.voidPatient(patientService.getPatient(DEMO_PATIENT_ID), "test");
+        assertStatsMatchEntityCounts();
+    }
+
+    private void assertStatsMatchEntityCounts() {
+        Map<String, Map<String, Long>> entityCounts = locationBasedAccessService.getLocationStatsOf(null, null, null, true);
+        assertEquals(entityCounts.get(LocationStats.PATIENT), locationBasedAccessService.getLocationStats(LocationStats.PATIENT));
+        assertEquals(entityCounts.get(LocationStats.ENCOUNTER), locationBasedAccessService.getLocationStats(LocationStats.ENCOUNTER));
+        assertEquals(entityCounts.get(LocationStats.ENCOUNTER_BY_PATIENT_LOCATION),
+                locationBasedAccessService.getLocationStats(LocationStats.ENCOUNTER_BY_PATIENT_LOCATION));
+    }
+
+    private static long getCount(Map<String, Long> counts, String locationUuid) {
+        Long count = counts.get(locationUuid);
+        return count != null ? count : 0;
+    }
+}
@@ -1,7 +1,9 @@
 package org.openmrs.module.locationbasedaccess.aop;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Location;
@@ -16,6 +18,7 @@ import org.openmrs.api.PersonService;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.utils.AccessibleLocations;
 import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import static org.junit.Assert.assertEquals;
@@ -175,4 +178,50 @@ public class LocationUtilsTest extends BaseModuleContextSensitiveTest {
 		assertEquals(2, LocationUtils.getUserAccessibleLocationUuidsWithUserPrivileges(user1).size());
 	}
 
+	@Test
+	public void getPersonLocationUuids_shouldReturnLocationAttributeValuesByPersonId() {
+		Person person2 = personService.getPerson(DEMO_PERSON2_ID);
+		Person person4 = personService.getPerson(4);
+		Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+		PersonAttributeType personAttributeType = personService.getPersonAttributeType(DEMO_PERSONATTRIBUTE1_ID);
+		Map<Integer, String> personLocationUuids = LocationUtils.getPersonLocationUuids(Arrays.asList(person2, person4), personAttributeType);
+		assertEquals(1, personLocationUuids.size());
+		assertEquals(location2.getUuid(), personLocationUuids.get(person4.getPersonId()));
+		assertTrue(LocationUtils.doesPersonBelongToGivenLocations(person4, personLocationUuids, personAttributeType,
+				AccessibleLocations.fromProperty(location2.getUuid())));
+		assertFalse(LocationUtils.doesPersonBelongToGivenLocations(person2, personLocationUuids, personAttributeType,
+				AccessibleLocations.fromProperty(location2.getUuid())));
+	}
+
+	@Test
+	public void doesPersonBelongToGivenLocations_shouldSeeTheAttributeChangesWhichAreNotFlushed() {
+		Person person4 = personService.getPerson(4);
+		Location location1 = locationService.getLocation(DEMO_LOCATION1_ID);
+		Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+		PersonAttributeType personAttributeType = personService.getPersonAttributeType(DEMO_PERSONATTRIBUTE1_ID);
+		person4.getAttribute(personAttributeType).setValue(location1.getUuid());
+
+		Map<Integer, String> personLocationUuids = LocationUtils.getPersonLocationUuids(Arrays.asList(person4), personAttributeType);
+		assertTrue(LocationUtils.doesPersonBelongToGivenLocations(person4, personLocationUuids, personAttributeType,
+				AccessibleLocations.fromProperty(location1.getUuid())));
+		assertFalse(LocationUtils.doesPersonBelongToGivenLocations(person4, personLocationUuids, personAttributeType,
+				AccessibleLocations.fromProperty(location2.getUuid())));
+	}
+
+	@Test
+	public void getUsersLocationUuids_shouldReturnLocationPropertiesOfUsersByPersonId() {
+		Person person4 = personService.getPerson(4);
+		Person person5 = personService.getPerson(DEMO_PERSON5_ID);
+		Location location1 = locationService.getLocation(DEMO_LOCATION1_ID);
+		Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+		Map<Integer, List<String>> usersLocationUuids = LocationUtils.getUsersLocationUuids(Arrays.asList(person4, person5));
+		assertEquals(1, usersLocationUuids.size());
+		assertEquals(2, usersLocationUuids.get(DEMO_PERSON5_ID).size());
+		assertTrue(usersLocationUuids.get(DEMO_PERSON5_ID).contains(location1.getUuid()));
+		assertTrue(usersLocationUuids.get(DEMO_PERSON5_ID).contains(location2.getUuid()));
+		assertTrue(LocationUtils.doesUsersForPersonBelongToGivenLocations(person5, usersLocationUuids,
+				AccessibleLocations.fromProperty(location2.getUuid())));
+		assertFalse(LocationUtils.doesUsersForPersonBelongToGivenLocations(person4, usersLocationUuids,
+				AccessibleLocations.fromProperty(location2.getUuid())));
+	}
 }
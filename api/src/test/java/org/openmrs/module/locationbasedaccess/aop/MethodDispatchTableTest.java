@@ -0,0 +1,85 @@
+package org.openmrs.module.locationbasedaccess.aop;
+
+import org.junit.Test;
+import org.openmrs.Cohort;
+import org.openmrs.Patient;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MethodDispatchTableTest {
+
+    @Test
+    public void get_shouldCompileTheResultShapeAndSearchOfAMethod() throws Exception {
+        MethodDispatch dispatch = MethodDispatchTable.PATIENT.get(PatientService.class.getMethod("getPatients", String.class));
+        assertTrue(dispatch.isRestricted());
+        assertEquals(MethodDispatch.ResultShape.LIST, dispatch.getResultShape());
+        assertEquals(MethodDispatch.Search.PATIENT_QUERY, dispatch.getSearch());
+
+        dispatch = MethodDispatchTable.PATIENT.get(PatientService.class.getMethod("getPatient", Integer.class));
+        assertEquals(MethodDispatch.ResultShape.ENTITY, dispatch.getResultShape());
+        assertEquals(MethodDispatch.Search.NONE, dispatch.getSearch());
+
+        dispatch = MethodDispatchTable.ENCOUNTER.get(EncounterService.class.getMethod("getEncounters", EncounterSearchCriteria.class));
+        assertEquals(MethodDispatch.Search.ENCOUNTER_CRITERIA, dispatch.getSearch());
+
+        dispatch = MethodDispatchTable.ENCOUNTER.get(EncounterService.class.getMethod("getAllEncounters", Cohort.class));
+        assertEquals(MethodDispatch.ResultShape.MAP, dispatch.getResultShape());
+        assertEquals(MethodDispatch.Search.ENCOUNTER_COHORT, dispatch.getSearch());
+
+        dispatch = MethodDispatchTable.PATIENT.get(PatientService.class.getMethod("getCountOfPatients", String.class));
+        assertEquals(MethodDispatch.ResultShape.OTHER, dispatch.getResultShape());
+        assertEquals(MethodDispatch.Search.PATIENT_COUNT, dispatch.getSearch());
+        assertEquals(0, dispatch.emptyResult());
+
+        dispatch = MethodDispatchTable.ENCOUNTER.get(EncounterService.class.getMethod("getCountOfEncounters", String.class, boolean.class));
+        assertEquals(MethodDispatch.Search.ENCOUNTER_COUNT, dispatch.getSearch());
+
+        dispatch = MethodDispatchTable.PERSON.get(PersonService.class.getMethod("getSimilarPeople", String.class, Integer.class, String.class));
+        assertEquals(MethodDispatch.ResultShape.SET, dispatch.getResultShape());
+    }
+
+    @Test
+    public void get_shouldReuseTheDispatchOfEqualMethods() throws Exception {
+        Method method = PatientService.class.getMethod("getPatientByUuid", String.class);
+        Method sameMethod = PatientService.class.getMethod("getPatientByUuid", String.class);
+        assertSame(MethodDispatchTable.PATIENT.get(method), MethodDispatchTable.PATIENT.get(sameMethod));
+    }
+
+    @Test
+    public void matches_shouldMatchTheMethodsReturningTheEntity() throws Exception {
+        assertTrue(MethodDispatchTable.LOCATION.matches(LocationService.class.getMethod("getAllLocations")));
+        assertTrue(MethodDispatchTable.LOCATION.matches(LocationService.class.getMethod("getLocation", Integer.class)));
+        assertFalse(MethodDispatchTable.LOCATION.get(LocationService.class.getMethod("getLocation", Integer.class)).isRestricted());
+        assertFalse(MethodDispatchTable.PATIENT.matches(PatientService.class.getMethod("getPatientIdentifierType", Integer.class)));
+        assertTrue(MethodDispatchTable.PATIENT.matches(PatientService.class.getMethod("getCountOfPatients", String.class, boolean.class)));
+    }
+
+    @Test
+    public void configure_shouldAddChangeAndExcludeMethods() throws Exception {
+        MethodDispatchTable table = new MethodDispatchTable(PatientService.class, Patient.class, "getPatients", "getPatient");
+        Method querySearch = PatientService.class.getMethod("getPatients", String.class, Integer.class, Integer.class);
+        assertEquals(MethodDispatch.Search.PATIENT_QUERY, table.get(querySearch).getSearch());
+
+        table.configure(Arrays.asList(
+                RestrictedMethod.parse("PatientService.getPatients = none"),
+                RestrictedMethod.parse("org.openmrs.api.PatientService.getPatients(String, Integer, Integer) = filter"),
+                RestrictedMethod.parse("PatientService.getAllPatients"),
+                RestrictedMethod.parse("UserService.getUser = none")));
+
+        MethodDispatch dispatch = table.get(querySearch);
+        assertTrue(dispatch.isRestricted());
+        assertEquals(MethodDispatch.Search.NONE, dispatch.getSearch());
+        assertFalse(table.get(PatientService.class.getMethod("getPatients", String.class)).isRestricted());
+        assertTrue(table.get(PatientService.class.getMethod("getAllPatients")).isRestricted());
+        assertTrue(table.get(PatientService.class.getMethod("getPatient", Integer.class)).isRestricted());
+    }
+}
@@ -2,6 +2,7 @@ package org.openmrs.module.locationbasedaccess.aop;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.User;
@@ -9,6 +10,7 @@ import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
 import org.openmrs.module.locationbasedaccess.aop.common.AOPContextSensitiveTest;
 import org.openmrs.module.locationbasedaccess.aop.common.TestWithAOP;
 import org.openmrs.module.locationbasedaccess.aop.interceptor.PatientServiceInterceptorAdvice;
@@ -227,4 +229,141 @@ public class PatientSearchAdviserTest extends AOPContextSensitiveTest {
         assertNull(patient3);
     }
 
-}
+    @Test
+    public void getCountOfPatients_shouldCountOnlyAccessiblePatients() {
+        Context.authenticate("admin", "test");
+        assertEquals(3, patientService.getCountOfPatients("Patient").intValue());
+
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        assertEquals(1, patientService.getCountOfPatients("Patient").intValue());
+        assertEquals(patientService.getPatients("Patient").size(), patientService.getCountOfPatients("Patient", false).intValue());
+
+        Context.authenticate(userService.getUser(DEMO_USER1_ID).getUsername(), "userServiceTest");
+        assertEquals(0, patientService.getCountOfPatients("Patient").intValue());
+    }
+
+    @Test
+    public void getPatients_databaseFilteringShouldPageOverAccessiblePatientsOnly() {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(
+                LocationBasedAccessConstants.PATIENT_DATABASE_FILTERING_GLOBAL_PROPERTY_NAME, "true"));
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        assertFalse(normalUser.isSuperUser());
+
+        Location location1 = locationService.getLocation(DEMO_LOCATION1_ID);
+
+        List<Patient> patientList = patientService.getPatients("Patient", 0, 1);
+        assertEquals(1, patientList.size());
+        assertEquals(location1.getUuid(), patientList.get(0).getAttribute(DEMO_PERSON_ATTRIBUTE_TYPE_ID).getValue());
+
+        assertEquals(0, patientService.getPatients("Patient", 1, 1).size());
+    }
+
+    @Test
+    public void getPatients_userWithoutLocationsShouldGetNoPatientsWhenRestricted() {
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        Context.getAuthenticatedUser().removeUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+        Context.getUserContext().setLocationId(null);
+
+        assertEquals(0, patientService.getPatients("Patient").size());
+        assertNull(patientService.getPatient(3));
+    }
+
+    @Test
+    public void getPatients_userWithoutLocationsShouldGetAllPatientsWhenNotRestricted() {
+        Context.getAdministrationService().setGlobalProperty(
+                LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME,
+                LocationBasedAccessConstants.LOCATION_BASED_RESTRICTION_VALUE_FALSE);
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        Context.getAuthenticatedUser().removeUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+        Context.getUserContext().setLocationId(null);
+
+        assertEquals(3, patientService.getPatients("Patient").size());
+    }
+
+    @Test
+    public void getPatients_pagedOverFetchShouldFillThePageWithAccessiblePatients() {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(
+                LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME, "true"));
+        PagedSearch.clear();
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+        Context.getAuthenticatedUser().setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+                location2.getUuid());
+
+        // The first patient of the search is at location 1, the page is filled with the second one
+        List<Patient> patientList = patientService.getPatients("Patient", 0, 1);
+        assertEquals(1, patientList.size());
+        assertEquals(location2.getUuid(), patientList.get(0).getAttribute(DEMO_PERSON_ATTRIBUTE_TYPE_ID).getValue());
+        PagedSearch.Continuation continuation = ((PagedSearch.Page) (List) patientList).getContinuation();
+        assertEquals(1, continuation.getNextStart());
+        assertEquals(2, continuation.getRowOffset());
+        assertTrue(continuation.hasMore());
+
+        patientList = patientService.getPatients("Patient", continuation.getNextStart(), 1);
+        assertEquals(0, patientList.size());
+        assertFalse(((PagedSearch.Page) (List) patientList).getContinuation().hasMore());
+        PagedSearch.clear();
+    }
+
+    @Test
+    public void getPatients_pagedOverFetchShouldFillADeepPageWithoutACursor() {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(
+                LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME, "true"));
+        PagedSearch.clear();
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        Location location1 = locationService.getLocation(DEMO_LOCATION1_ID);
+        Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+        Context.getAuthenticatedUser().setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+                location1.getUuid() + "," + location2.getUuid());
+
+        // Without a cursor the rows before the start are scanned again, and the page is still filled
+        List<Patient> patientList = patientService.getPatients("Patient", 1, 1);
+        assertEquals(1, patientList.size());
+        assertEquals(location2.getUuid(), patientList.get(0).getAttribute(DEMO_PERSON_ATTRIBUTE_TYPE_ID).getValue());
+        PagedSearch.Continuation continuation = ((PagedSearch.Page) (List) patientList).getContinuation();
+        assertEquals(2, continuation.getScannedRows());
+        assertTrue(continuation.hasMore());
+
+        // A page is only short once the rows run out
+        PagedSearch.clear();
+        patientList = patientService.getPatients("Patient", 5, 1);
+        assertEquals(0, patientList.size());
+        continuation = ((PagedSearch.Page) (List) patientList).getContinuation();
+        assertEquals(3, continuation.getScannedRows());
+        assertFalse(continuation.hasMore());
+        PagedSearch.clear();
+    }
+
+    @Test
+    public void getPatients_pagedOverFetchShouldReuseTheCursorOfEqualArguments() {
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(
+                LocationBasedAccessConstants.PAGED_OVER_FETCH_GLOBAL_PROPERTY_NAME, "true"));
+        PagedSearch.clear();
+        User normalUser = userService.getUser(DEMO_USER2_ID);
+        Context.authenticate(normalUser.getUsername(), "userServiceTest");
+        Location location2 = locationService.getLocation(DEMO_LOCATION2_ID);
+        Context.getAuthenticatedUser().setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+                location2.getUuid());
+
+        List<Patient> patientList = patientService.getPatients(new String("Patient"), 0, 1);
+        assertEquals(2, ((PagedSearch.Page) (List) patientList).getContinuation().getScannedRows());
+
+        // The query is another but equal string, so the next page continues from the cursor of the first one
+        patientList = patientService.getPatients(new String("Patient"), 1, 1);
+        assertEquals(0, patientList.size());
+        assertEquals(1, ((PagedSearch.Page) (List) patientList).getContinuation().getScannedRows());
+
+        // Without the cursor the same page scans the rows from the first one
+        PagedSearch.clear();
+        patientList = patientService.getPatients("Patient", 1, 1);
+        assertEquals(0, patientList.size());
+        assertEquals(3, ((PagedSearch.Page) (List) patientList).getContinuation().getScannedRows());
+        PagedSearch.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.openmrs.module.locationbasedaccess.metrics;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationAccessMetricsTest {
+
+    @Test
+    public void record_shouldCountRowsInAndOutPerMethod() throws Throwable {
+        EntityMetrics metrics = new EntityMetrics("test");
+        final Method method = List.class.getMethod("size");
+        MethodInvocation invocation = new MethodInvocation() {
+
+            public Method getMethod() {
+                return method;
+            }
+
+            public Object[] getArguments() {
+                return new Object[0];
+            }
+
+            public Object proceed() {
+                return new ArrayList<String>(Arrays.asList("a", "b", "c"));
+            }
+
+            public Object getThis() {
+                return null;
+            }
+
+            public AccessibleObject getStaticPart() {
+                return method;
+            }
+        };
+
+        for (int call = 0; call < 2; call++) {
+            LocationAccessMetrics.begin();
+            List<?> result = (List<?>) LocationAccessMetrics.proceed(invocation);
+            result.remove(0);
+            metrics.record(method, result);
+        }
+
+        assertEquals(2, metrics.getInvocations());
+        assertEquals(6, metrics.getRowsIn());
+        assertEquals(4, metrics.getRowsOut());
+        assertTrue(metrics.getProceedTimeNanos() >= 0);
+        assertEquals(1, metrics.getMethodStatistics().length);
+        assertEquals("size()", metrics.getMethodMetrics().get(0).getMethodName());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInvocations());
+    }
+
+    @Test
+    public void endQuery_shouldRecordTheQueryAsProceedTimeAndNotCountACountAsARow() throws Exception {
+        EntityMetrics metrics = new EntityMetrics("test");
+        Method method = List.class.getMethod("subList", int.class, int.class);
+
+        LocationAccessMetrics.begin();
+        long queryStart = LocationAccessMetrics.startQuery();
+        List<String> result = LocationAccessMetrics.endQuery(queryStart, Arrays.asList("a", "b"));
+        metrics.record(method, result);
+
+        Method countMethod = List.class.getMethod("size");
+        LocationAccessMetrics.begin();
+        queryStart = LocationAccessMetrics.startQuery();
+        Integer count = LocationAccessMetrics.endQuery(queryStart, 42);
+        metrics.record(countMethod, count);
+
+        assertEquals(2, metrics.getRowsIn());
+        assertEquals(2, metrics.getRowsOut());
+        assertEquals(2, metrics.getMethodMetrics().size());
+    }
+
+    @Test
+    public void add_shouldSumOverAllStripes() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(5);
+        counter.increment();
+        assertEquals(6, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+}
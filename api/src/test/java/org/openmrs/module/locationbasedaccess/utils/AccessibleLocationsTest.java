@@ -0,0 +1,48 @@
+package org.openmrs.module.locationbasedaccess.utils;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccessibleLocationsTest {
+
+    private static final String DEMO_LOCATION1_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c8";
+    private static final String DEMO_LOCATION2_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c9";
+    private static final String DEMO_LOCATION3_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3ca";
+
+    @Test
+    public void fromProperty_shouldKeepConfiguredOrderInListView() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.fromProperty(DEMO_LOCATION2_UUID + "," + DEMO_LOCATION1_UUID);
+        assertEquals(Arrays.asList(DEMO_LOCATION2_UUID, DEMO_LOCATION1_UUID), accessibleLocations.asList());
+        assertEquals(2, accessibleLocations.size());
+    }
+
+    @Test
+    public void fromProperty_shouldHaveNoLocationsForAMissingProperty() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.fromProperty(null);
+        assertEquals(0, accessibleLocations.size());
+        assertFalse(accessibleLocations.contains(DEMO_LOCATION1_UUID));
+    }
+
+    @Test
+    public void contains_shouldMatchOnlyConfiguredLocations() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.of(Arrays.asList(DEMO_LOCATION1_UUID, DEMO_LOCATION2_UUID));
+        assertTrue(accessibleLocations.contains(DEMO_LOCATION1_UUID));
+        assertFalse(accessibleLocations.contains(DEMO_LOCATION3_UUID));
+        assertFalse(accessibleLocations.contains(null));
+    }
+
+    @Test
+    public void containsAny_shouldIgnoreBlankEntries() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.fromProperty("");
+        assertFalse(accessibleLocations.containsAny(","));
+        assertTrue(AccessibleLocations.fromProperty(DEMO_LOCATION1_UUID).containsAny(DEMO_LOCATION3_UUID + "," + DEMO_LOCATION1_UUID));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void asList_shouldBeReadOnly() {
+        AccessibleLocations.fromProperty(DEMO_LOCATION1_UUID).asList().add(DEMO_LOCATION2_UUID);
+    }
+}
@@ -0,0 +1,106 @@
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationAccessContextHolderTest extends BaseModuleContextSensitiveTest {
+
+    private static final String XML_FILENAME_WITH_ADMIN_USER_DATA = "include/AdminUserData.xml";
+    private static final String XML_FILENAME_WITH_PERSON_DATA = "include/PatientTestData.xml";
+
+    private static final String DEMO_PERSON_ATTRIBUTE_TYPE_UUID = "cdc6a460-2700-102b-80cb-0017a47871b3";
+    private static final String DEMO_LOCATION1_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c8";
+    private static final String DEMO_LOCATION2_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c9";
+
+    @Before
+    public void setUp() throws Exception {
+        executeDataSet(XML_FILENAME_WITH_ADMIN_USER_DATA);
+        executeDataSet(XML_FILENAME_WITH_PERSON_DATA);
+        Context.authenticate("username2", "userServiceTest");
+    }
+
+    @After
+    public void tearDown() {
+        LocationAccessContextHolder.endRequest();
+    }
+
+    @Test
+    public void getContext_shouldResolveRestrictionsAndAccessibleLocations() {
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        assertFalse(accessContext.isUnrestrictedUser());
+        assertTrue(accessContext.isPatientRestricted());
+        assertTrue(accessContext.isEncounterRestricted());
+        assertEquals(1, accessContext.getAccessibleLocations().size());
+        assertTrue(accessContext.canAccessLocation(DEMO_LOCATION1_UUID));
+        assertFalse(accessContext.canAccessLocation(DEMO_LOCATION2_UUID));
+        assertEquals(DEMO_PERSON_ATTRIBUTE_TYPE_UUID, accessContext.getLocationAttributeType().getUuid());
+    }
+
+    @Test
+    public void getContext_shouldHaveNoAccessibleLocationsWithoutUserPropertyOrSessionLocation() {
+        User user = Context.getAuthenticatedUser();
+        user.removeUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME);
+        Context.getUserContext().setLocationId(null);
+        assertNull(LocationUtils.getUserAccessibleLocations(user));
+
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        assertTrue(accessContext.isPatientRestricted());
+        assertNull(accessContext.getAccessibleLocations());
+        assertFalse(accessContext.canAccessLocation(DEMO_LOCATION1_UUID));
+    }
+
+    @Test
+    public void getContext_shouldBuildNewContextOutsideOfRequestScope() {
+        assertNotSame(LocationAccessContextHolder.getContext(), LocationAccessContextHolder.getContext());
+    }
+
+    @Test
+    public void getContext_shouldReuseContextWithinRequestScope() {
+        LocationAccessContextHolder.beginRequest();
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        assertSame(accessContext, LocationAccessContextHolder.getContext());
+    }
+
+    @Test
+    public void getContext_shouldRebuildContextWhenUserLocationPropertyChanges() {
+        LocationAccessContextHolder.beginRequest();
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        User user = Context.getAuthenticatedUser();
+        user.setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+                DEMO_LOCATION1_UUID + "," + DEMO_LOCATION2_UUID);
+        LocationAccessContext updatedContext = LocationAccessContextHolder.getContext();
+        assertNotSame(accessContext, updatedContext);
+        assertTrue(updatedContext.canAccessLocation(DEMO_LOCATION2_UUID));
+    }
+
+    @Test
+    public void endRequest_shouldDropCachedContext() {
+        LocationAccessContextHolder.beginRequest();
+        LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+        LocationAccessContextHolder.endRequest();
+        LocationAccessContextHolder.beginRequest();
+        assertNotSame(accessContext, LocationAccessContextHolder.getContext());
+    }
+
+    @Test
+    public void endInternalCall_shouldOnlyEndOutermostInternalCall() {
+        assertFalse(LocationAccessContextHolder.isInternalCall());
+        LocationAccessContextHolder.beginInternalCall();
+        LocationAccessContextHolder.beginInternalCall();
+        LocationAccessContextHolder.endInternalCall();
+        assertTrue(LocationAccessContextHolder.isInternalCall());
+        LocationAccessContextHolder.endInternalCall();
+        assertFalse(LocationAccessContextHolder.isInternalCall());
+    }
+}
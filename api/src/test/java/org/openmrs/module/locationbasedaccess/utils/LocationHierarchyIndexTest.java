@@ -0,0 +1,83 @@
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationHierarchyIndexTest extends BaseModuleContextSensitiveTest {
+
+    private LocationService locationService;
+    private Location district;
+    private Location facility;
+    private Location ward;
+    private Location otherDistrict;
+
+    @Before
+    public void setUp() {
+        locationService = Context.getLocationService();
+        district = saveLocation("District", null);
+        facility = saveLocation("Facility", district);
+        ward = saveLocation("Ward", facility);
+        otherDistrict = saveLocation("Other District", null);
+        LocationHierarchyIndex.clear();
+    }
+
+    @After
+    public void tearDown() {
+        LocationHierarchyIndex.clear();
+    }
+
+    @Test
+    public void expand_shouldAddAllDescendantLocations() {
+        AccessibleLocations accessibleLocations = LocationHierarchyIndex.expand(AccessibleLocations.fromProperty(district.getUuid()));
+        assertEquals(3, accessibleLocations.size());
+        assertEquals(district.getUuid(), accessibleLocations.asList().get(0));
+        assertTrue(accessibleLocations.contains(facility.getUuid()));
+        assertTrue(accessibleLocations.contains(ward.getUuid()));
+        assertFalse(accessibleLocations.contains(otherDistrict.getUuid()));
+    }
+
+    @Test
+    public void expand_shouldKeepUnknownLocations() {
+        AccessibleLocations accessibleLocations = LocationHierarchyIndex.expand(AccessibleLocations.fromProperty("unknown-location"));
+        assertEquals(1, accessibleLocations.size());
+        assertTrue(accessibleLocations.contains("unknown-location"));
+    }
+
+    @Test
+    public void update_shouldMoveSubtreeToNewParent() {
+        assertTrue(LocationHierarchyIndex.isDescendant(district.getUuid(), ward.getUuid()));
+        long version = LocationHierarchyIndex.getVersion();
+
+        facility.setParentLocation(otherDistrict);
+        LocationHierarchyIndex.update(locationService.saveLocation(facility));
+
+        assertTrue(version != LocationHierarchyIndex.getVersion());
+        assertFalse(LocationHierarchyIndex.isDescendant(district.getUuid(), facility.getUuid()));
+        assertFalse(LocationHierarchyIndex.isDescendant(district.getUuid(), ward.getUuid()));
+        assertTrue(LocationHierarchyIndex.isDescendant(otherDistrict.getUuid(), ward.getUuid()));
+    }
+
+    @Test
+    public void update_shouldAddNewLocations() {
+        assertTrue(LocationHierarchyIndex.isDescendant(district.getUuid(), district.getUuid()));
+        Location room = saveLocation("Room", ward);
+        LocationHierarchyIndex.update(room);
+        assertTrue(LocationHierarchyIndex.isDescendant(district.getUuid(), room.getUuid()));
+        assertFalse(LocationHierarchyIndex.isDescendant(otherDistrict.getUuid(), room.getUuid()));
+    }
+
+    private Location saveLocation(String name, Location parent) {
+        Location location = new Location();
+        location.setName(name);
+        location.setParentLocation(parent);
+        return locationService.saveLocation(location);
+    }
+}
@@ -0,0 +1,90 @@
+package org.openmrs.module.locationbasedaccess.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocationRegistryTest extends BaseModuleContextSensitiveTest {
+
+    private LocationService locationService;
+    private Location facility;
+    private Location otherFacility;
+
+    @Before
+    public void setUp() {
+        locationService = Context.getLocationService();
+        facility = saveLocation("Facility");
+        otherFacility = saveLocation("Other Facility");
+        LocationRegistry.clear();
+    }
+
+    @After
+    public void tearDown() {
+        LocationRegistry.clear();
+    }
+
+    @Test
+    public void getLocationId_shouldResolveUuidsAndIds() {
+        assertEquals(facility.getLocationId(), LocationRegistry.getLocationId(facility.getUuid()));
+        assertEquals(facility.getUuid(), LocationRegistry.getUuid(facility.getLocationId()));
+        assertEquals("Facility", LocationRegistry.getName(facility.getUuid()));
+        assertNull(LocationRegistry.getLocationId("unknown-location"));
+    }
+
+    @Test
+    public void update_shouldRenameAndRetireLocations() {
+        assertTrue(LocationRegistry.getNamesByUuid(false).containsKey(facility.getUuid()));
+        facility.setName("Renamed Facility");
+        facility.setRetired(true);
+        facility.setRetireReason("test");
+        LocationRegistry.update(locationService.saveLocation(facility));
+        assertEquals("Renamed Facility", LocationRegistry.getName(facility.getUuid()));
+        assertFalse(LocationRegistry.getNamesByUuid(false).containsKey(facility.getUuid()));
+        assertTrue(LocationRegistry.getNamesByUuid(true).containsKey(facility.getUuid()));
+    }
+
+    @Test
+    public void updateAfterCommit_shouldNotApplyTheLocationBeforeTheTransactionCommits() {
+        assertEquals("Facility", LocationRegistry.getName(facility.getUuid()));
+        facility.setName("Renamed Facility");
+        LocationCacheSynchronization.updateAfterCommit(locationService.saveLocation(facility));
+        assertEquals("Facility", LocationRegistry.getName(facility.getUuid()));
+    }
+
+    @Test
+    public void contains_shouldCheckLocationsById() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.fromProperty(facility.getUuid());
+        assertTrue(accessibleLocations.contains(facility));
+        assertFalse(accessibleLocations.contains(otherFacility));
+
+        Location newFacility = saveLocation("New Facility");
+        LocationRegistry.update(newFacility);
+        accessibleLocations = AccessibleLocations.fromProperty(facility.getUuid() + "," + newFacility.getUuid());
+        assertTrue(accessibleLocations.contains(newFacility));
+    }
+
+    @Test
+    public void contains_shouldFallBackToUuidForLocationsMissingFromRegistry() {
+        AccessibleLocations accessibleLocations = AccessibleLocations.fromProperty(facility.getUuid());
+        assertTrue(accessibleLocations.contains(facility));
+        // Not added to the registry, as when a location is inserted without the LocationService
+        Location newFacility = saveLocation("New Facility");
+        accessibleLocations = AccessibleLocations.fromProperty(newFacility.getUuid());
+        assertTrue(accessibleLocations.contains(newFacility));
+        assertFalse(accessibleLocations.contains(facility));
+    }
+
+    private Location saveLocation(String name) {
+        Location location = new Location();
+        location.setName(name);
+        return locationService.saveLocation(location);
+    }
+}
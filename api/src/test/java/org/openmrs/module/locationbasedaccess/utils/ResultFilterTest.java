@@ -0,0 +1,55 @@
+package org.openmrs.module.locationbasedaccess.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResultFilterTest {
+
+    private static final ResultFilter.Predicate<Integer> EVEN = new ResultFilter.Predicate<Integer>() {
+
+        @Override
+        public boolean accept(Integer element) {
+            return element % 2 == 0;
+        }
+    };
+
+    @Test
+    public void filter_shouldCompactAnArrayListInPlace() {
+        List<Integer> list = new ArrayList<Integer>(Arrays.asList(1, 2, 3, 4, 6, 7));
+        assertSame(list, ResultFilter.filter(list, EVEN));
+        assertEquals(Arrays.asList(2, 4, 6), list);
+    }
+
+    @Test
+    public void filter_shouldCopyAnUnmodifiableListWithoutChangingIt() {
+        List<Integer> list = Collections.unmodifiableList(Arrays.asList(2, 3, 4, 5));
+        List<Integer> filtered = ResultFilter.filter(list, EVEN);
+        assertNotSame(list, filtered);
+        assertEquals(Arrays.asList(2, 4), filtered);
+        assertEquals(Arrays.asList(2, 3, 4, 5), list);
+
+        List<Integer> accessible = Arrays.asList(2, 4);
+        assertSame(accessible, ResultFilter.filter(accessible, EVEN));
+    }
+
+    @Test
+    public void filter_shouldKeepTheOrderOfSets() {
+        Set<Integer> set = new LinkedHashSet<Integer>(Arrays.asList(6, 1, 4, 3, 2));
+        assertSame(set, ResultFilter.filter(set, EVEN));
+        assertEquals(Arrays.asList(6, 4, 2), new ArrayList<Integer>(set));
+
+        Set<Integer> unmodifiableSet = Collections.unmodifiableSet(new LinkedHashSet<Integer>(Arrays.asList(8, 5, 2)));
+        Set<Integer> filtered = ResultFilter.filter(unmodifiableSet, EVEN);
+        assertEquals(Arrays.asList(8, 2), new ArrayList<Integer>(filtered));
+        assertEquals(new HashSet<Integer>(Arrays.asList(8, 5, 2)), unmodifiableSet);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.benchmarks;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.utils.LocationRegistry;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic data and stubbed OpenMRS services for the interceptor benchmarks. No database or Spring context is
+ * needed: the services used by the interceptors are replaced by dynamic proxies answering from the generated data,
+ * so only the LBAC filtering itself is measured.
+ */
+public class BenchmarkFixture {
+
+    /**
+     * Number of locations the synthetic entities are spread over
+     */
+    public static final int LOCATION_COUNT = 1000;
+
+    private final PersonAttributeType locationAttributeType = new PersonAttributeType(1);
+
+    private final List<Location> locations = new ArrayList<Location>();
+
+    private final List<Patient> patients = new ArrayList<Patient>();
+
+    private final List<Person> persons = new ArrayList<Person>();
+
+    private final List<Encounter> encounters = new ArrayList<Encounter>();
+
+    private final List<User> users = new ArrayList<User>();
+
+    private final Map<Integer, String> personLocationUuids = new HashMap<Integer, String>();
+
+    private final Map<Integer, List<String>> userLocationProperties = new HashMap<Integer, List<String>>();
+
+    /**
+     * @param listSize number of entities of each type returned by the stubbed service calls
+     * @param accessibleLocationCount number of locations in the locationUuid property of the authenticated user
+     */
+    public BenchmarkFixture(int listSize, int accessibleLocationCount) throws Exception {
+        locationAttributeType.setUuid(LocationBasedAccessConstants.PERSONATTRIBUTETYPE_UUID);
+        for (int index = 0; index < LOCATION_COUNT; index++) {
+            Location location = new Location(index + 1);
+            location.setName("Location " + index);
+            locations.add(location);
+        }
+        for (int index = 0; index < listSize; index++) {
+            int id = index + 1;
+            String locationUuid = locations.get(index % LOCATION_COUNT).getUuid();
+
+            Patient patient = new Patient(id);
+            patient.addAttribute(new PersonAttribute(locationAttributeType, locationUuid));
+            patients.add(patient);
+            personLocationUuids.put(id, locationUuid);
+
+            // Every other person has no location attribute, so it is checked through its users
+            Person person = new Person(id);
+            if (index % 2 == 0) {
+                person.addAttribute(new PersonAttribute(locationAttributeType, locationUuid));
+            } else {
+                userLocationProperties.put(id, new ArrayList<String>(Arrays.asList(locationUuid)));
+            }
+            persons.add(person);
+
+            Encounter encounter = new Encounter(id);
+            encounter.setPatient(patient);
+            encounter.setLocation(locations.get(index % LOCATION_COUNT));
+            encounters.add(encounter);
+
+            User user = new User(id);
+            user.setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME, locationUuid);
+            users.add(user);
+        }
+
+        List<String> accessibleLocationUuids = new ArrayList<String>();
+        for (int index = 0; index < accessibleLocationCount; index++) {
+            accessibleLocationUuids.add(locations.get(index).getUuid());
+        }
+        User authenticatedUser = new User(0);
+        authenticatedUser.setPerson(new Person(0));
+        authenticatedUser.setUserProperty(LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+                StringUtils.join(accessibleLocationUuids, ","));
+
+        installServices();
+        authenticate(authenticatedUser);
+        LocationBasedAccessSettings.start();
+    }
+
+    public List<Location> getLocations() {
+        return locations;
+    }
+
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    public List<Person> getPersons() {
+        return persons;
+    }
+
+    public List<Encounter> getEncounters() {
+        return encounters;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Stops the settings cache, drops the location registry and removes the user context of the benchmark thread
+     */
+    public void tearDown() {
+        LocationBasedAccessSettings.stop();
+        LocationRegistry.clear();
+        Context.clearUserContext();
+    }
+
+    private void installServices() {
+        final Map<String, String> globalProperties = new HashMap<String, String>();
+        globalProperties.put(LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME, "true");
+        globalProperties.put(LocationBasedAccessConstants.PERSON_RESTRICTION_GLOBAL_PROPERTY_NAME, "true");
+        globalProperties.put(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME, "true");
+        globalProperties.put(LocationBasedAccessConstants.USER_RESTRICTION_GLOBAL_PROPERTY_NAME, "true");
+        globalProperties.put(LocationBasedAccessConstants.LOCATION_RESTRICTION_GLOBAL_PROPERTY_NAME, "true");
+        globalProperties.put(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME,
+                LocationBasedAccessConstants.PERSONATTRIBUTETYPE_UUID);
+        globalProperties.put(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_ENCOUNTER_LOCATION,
+                LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_TYPE_ENCOUNTER_LOCATION);
+
+        ServiceContext serviceContext = ServiceContext.getInstance();
+        serviceContext.setAdministrationService(stub(AdministrationService.class, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getGlobalProperty".equals(method.getName()) ? globalProperties.get(args[0]) : null;
+            }
+        }));
+        serviceContext.setLocationService(stub(LocationService.class, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getAllLocations".equals(method.getName()) ? locations : null;
+            }
+        }));
+        serviceContext.setPersonService(stub(PersonService.class, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getPersonAttributeTypeByUuid".equals(method.getName()) ? locationAttributeType : null;
+            }
+        }));
+        serviceContext.setModuleService(Arrays.<Object>asList(LocationBasedAccessService.class.getName(),
+                stub(LocationBasedAccessService.class, new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getPersonLocationUuids".equals(method.getName())) {
+                            return personLocationUuids;
+                        } else if ("getUserLocationPropertiesByPerson".equals(method.getName())) {
+                            return userLocationProperties;
+                        }
+                        return null;
+                    }
+                })));
+    }
+
+    private static void authenticate(User user) throws Exception {
+        UserContext userContext = new UserContext();
+        Field userField = UserContext.class.getDeclaredField("user");
+        userField.setAccessible(true);
+        userField.set(userContext, user);
+        Context.setUserContext(userContext);
+    }
+
+    private static <T> T stub(Class<T> serviceClass, final InvocationHandler handler) {
+        return serviceClass.cast(Proxy.newProxyInstance(BenchmarkFixture.class.getClassLoader(),
+                new Class<?>[] { serviceClass }, new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        // equals, hashCode and toString are answered by the handler itself
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.invoke(handler, args);
+                        }
+                        return handler.invoke(proxy, method, args);
+                    }
+                }));
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.benchmarks;
+
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.UserService;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.EncounterServiceInterceptorAdvice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.LocationServiceInterceptorAdvice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.PatientServiceInterceptorAdvice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.PersonServiceInterceptorAdvice;
+import org.openmrs.module.locationbasedaccess.aop.interceptor.UserServiceInterceptorAdvice;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every LBAC interceptor filtering the result of an advised list method, for a restricted user.
+ * The advised method itself is stubbed and returns a copy of a synthetic list, so the numbers are the cost LBAC
+ * adds to each service call. Run with {@code -prof gc} to get the allocation rate as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int listSize;
+
+    @Param({ "1", "10", "500" })
+    public int accessibleLocations;
+
+    private BenchmarkFixture fixture;
+
+    private PatientServiceInterceptorAdvice patientInterceptor;
+
+    private PersonServiceInterceptorAdvice personInterceptor;
+
+    private EncounterServiceInterceptorAdvice encounterInterceptor;
+
+    private UserServiceInterceptorAdvice userInterceptor;
+
+    private LocationServiceInterceptorAdvice locationInterceptor;
+
+    private StubMethodInvocation getPatients;
+
+    private StubMethodInvocation getPeople;
+
+    private StubMethodInvocation getEncounters;
+
+    private StubMethodInvocation getAllUsers;
+
+    private StubMethodInvocation getAllLocations;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new BenchmarkFixture(listSize, accessibleLocations);
+
+        patientInterceptor = new PatientServiceInterceptorAdvice();
+        personInterceptor = new PersonServiceInterceptorAdvice();
+        encounterInterceptor = new EncounterServiceInterceptorAdvice();
+        userInterceptor = new UserServiceInterceptorAdvice();
+        locationInterceptor = new LocationServiceInterceptorAdvice(Collections.singleton("getAllLocations"));
+
+        getPatients = new StubMethodInvocation(PatientService.class, "getPatients", new Class<?>[] { String.class },
+                new Object[] { "Patient" }, fixture.getPatients());
+        getPeople = new StubMethodInvocation(PersonService.class, "getPeople", new Class<?>[] { String.class, Boolean.class },
+                new Object[] { "Person", null }, fixture.getPersons());
+        getEncounters = new StubMethodInvocation(EncounterService.class, "getEncounters",
+                new Class<?>[] { EncounterSearchCriteria.class }, new Object[] { null }, fixture.getEncounters());
+        getAllUsers = new StubMethodInvocation(UserService.class, "getAllUsers", new Class<?>[0], new Object[0],
+                fixture.getUsers());
+        getAllLocations = new StubMethodInvocation(LocationService.class, "getAllLocations", new Class<?>[0],
+                new Object[0], fixture.getLocations());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public Object patientInterceptor() throws Throwable {
+        return patientInterceptor.invoke(getPatients);
+    }
+
+    @Benchmark
+    public Object personInterceptor() throws Throwable {
+        return personInterceptor.invoke(getPeople);
+    }
+
+    @Benchmark
+    public Object encounterInterceptor() throws Throwable {
+        return encounterInterceptor.invoke(getEncounters);
+    }
+
+    @Benchmark
+    public Object userInterceptor() throws Throwable {
+        return userInterceptor.invoke(getAllUsers);
+    }
+
+    @Benchmark
+    public Object locationInterceptor() throws Throwable {
+        return locationInterceptor.invoke(getAllLocations);
+    }
+}
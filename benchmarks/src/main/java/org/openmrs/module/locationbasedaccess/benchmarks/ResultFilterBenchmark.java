@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.benchmarks;
+
+import org.openmrs.module.locationbasedaccess.utils.ResultFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares removing the inaccessible elements of a service result through its iterator, as the interceptors used to,
+ * with {@link ResultFilter}. Each call filters a fresh array list, as returned by a service, so {@link #copy()} gives
+ * the cost of the copy included in the other results. {@link #resultFilterUnmodifiable()} filters an unmodifiable
+ * list, which the iterator removal cannot do at all.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultFilterBenchmark {
+
+    @Param({ "100000" })
+    public int listSize;
+
+    /**
+     * Percentage of the elements which are accessible
+     */
+    @Param({ "1", "50", "99" })
+    public int accessiblePercent;
+
+    private List<Integer> source;
+
+    private List<Integer> unmodifiableSource;
+
+    private ResultFilter.Predicate<Integer> accessible;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        source = new ArrayList<Integer>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            source.add(random.nextInt(100));
+        }
+        unmodifiableSource = Collections.unmodifiableList(source);
+        accessible = new ResultFilter.Predicate<Integer>() {
+
+            @Override
+            public boolean accept(Integer element) {
+                return element < accessiblePercent;
+            }
+        };
+    }
+
+    @Benchmark
+    public List<Integer> copy() {
+        return new ArrayList<Integer>(source);
+    }
+
+    @Benchmark
+    public List<Integer> iteratorRemove() {
+        List<Integer> list = new ArrayList<Integer>(source);
+        for (Iterator<Integer> iterator = list.iterator(); iterator.hasNext(); ) {
+            if (!accessible.accept(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        return list;
+    }
+
+    @Benchmark
+    public List<Integer> resultFilter() {
+        return ResultFilter.filter(new ArrayList<Integer>(source), accessible);
+    }
+
+    @Benchmark
+    public List<Integer> resultFilterUnmodifiable() {
+        return ResultFilter.filter(unmodifiableSource, accessible);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ * <p>
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+
+package org.openmrs.module.locationbasedaccess.benchmarks;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invocation of an advised service method which returns a fresh copy of a prepared result list, since the
+ * interceptors remove the inaccessible entities from the list they are given.
+ */
+public class StubMethodInvocation implements MethodInvocation {
+
+    private final Method method;
+
+    private final Object[] arguments;
+
+    private final List<?> result;
+
+    public StubMethodInvocation(Class<?> serviceClass, String methodName, Class<?>[] parameterTypes, Object[] arguments,
+                                List<?> result) throws NoSuchMethodException {
+        this.method = serviceClass.getMethod(methodName, parameterTypes);
+        this.arguments = arguments;
+        this.result = result;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    public Object proceed() {
+        return new ArrayList<Object>(result);
+    }
+
+    public Object getThis() {
+        return null;
+    }
+
+    public AccessibleObject getStaticPart() {
+        return method;
+    }
+}
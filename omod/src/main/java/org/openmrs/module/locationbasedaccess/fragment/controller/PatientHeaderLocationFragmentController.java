@@ -5,7 +5,7 @@ import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
-import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
 import org.openmrs.ui.framework.fragment.FragmentModel;
 import org.openmrs.api.context.Context;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -16,7 +16,7 @@ public class PatientHeaderLocationFragmentController {
                            @RequestParam(value = "patientId", required = false) Patient patient) {
         model.addAttribute("patientLocation", null);
         if (patient != null && Context.getAuthenticatedUser().isSuperUser()) {
-            String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+            String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
             if (StringUtils.isNotBlank(locationAttributeUuid)) {
                 final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid);
                 PersonAttribute personAttribute = patient.getAttribute(personAttributeType);
@@ -5,7 +5,10 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.http.HttpStatus;
@@ -28,18 +31,25 @@ public class LBACOnOffController extends BaseRestController {
 		for (String entity : entities) {
 			String entityGlobalPropertyValue = body.get(entity);
 			if (!StringUtils.isBlank(entityGlobalPropertyValue)) {
-				Context.getAdministrationService().setGlobalProperty(entity, entityGlobalPropertyValue);
+				// saveGlobalProperty notifies the global property listeners, which keep the LBAC settings cache in sync
+				AdministrationService administrationService = Context.getAdministrationService();
+				GlobalProperty globalProperty = administrationService.getGlobalPropertyObject(entity);
+				if (globalProperty == null) {
+					globalProperty = new GlobalProperty(entity);
+				}
+				globalProperty.setPropertyValue(entityGlobalPropertyValue);
+				administrationService.saveGlobalProperty(globalProperty);
 			}
 		}
 	}
 
 	private List<String> getLocationEntites() {
 		List<String> entities = new ArrayList<String>();
-		entities.add("locationbasedaccess.access.patient");
-		entities.add("locationbasedaccess.access.location");
-		entities.add("locationbasedaccess.access.person");
-		entities.add("locationbasedaccess.access.user");
-		entities.add("locationbasedaccess.access.encounter");
+		entities.add(LocationBasedAccessConstants.PATIENT_RESTRICTION_GLOBAL_PROPERTY_NAME);
+		entities.add(LocationBasedAccessConstants.LOCATION_RESTRICTION_GLOBAL_PROPERTY_NAME);
+		entities.add(LocationBasedAccessConstants.PERSON_RESTRICTION_GLOBAL_PROPERTY_NAME);
+		entities.add(LocationBasedAccessConstants.USER_RESTRICTION_GLOBAL_PROPERTY_NAME);
+		entities.add(LocationBasedAccessConstants.ENCOUNTER_RESTRICTION_GLOBAL_PROPERTY_NAME);
 		return entities;
 	}
 
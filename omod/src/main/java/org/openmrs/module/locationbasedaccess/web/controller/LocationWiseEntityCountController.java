@@ -1,27 +1,37 @@
 package org.openmrs.module.locationbasedaccess.web.controller;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 
 import org.apache.commons.lang3.StringUtils;
-import org.openmrs.Cohort;
-import org.openmrs.Encounter;
+import org.apache.commons.lang3.time.DateUtils;
 import org.openmrs.Location;
-import org.openmrs.Patient;
-import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
-import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
-import org.openmrs.module.locationbasedaccess.utils.LocationUtils;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.stats.LocationStats;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
+import org.openmrs.module.locationbasedaccess.utils.LocationRegistry;
 import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
@@ -29,25 +39,31 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/lbac")
 public class LocationWiseEntityCountController extends BaseRestController {
 
+	private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+	private static final List<String> ENCOUNTER_COUNT_PERIODS = Arrays.asList(
+			LocationBasedAccessConstants.ENCOUNTER_COUNT_PERIOD_DAY, LocationBasedAccessConstants.ENCOUNTER_COUNT_PERIOD_WEEK,
+			LocationBasedAccessConstants.ENCOUNTER_COUNT_PERIOD_MONTH);
+
 	@RequestMapping(value = "/locationwise-patients-count", method = RequestMethod.GET)
 	@ResponseBody
 	@ResponseStatus(value = HttpStatus.OK)
 	public Map<String, Object> getPatientLocationWiseCount() {
 
-		List<Patient> patientList = Context.getPatientService().getAllPatients();
 		Map<String, Integer> locationPatientMap = new HashMap<String, Integer>();
 		Map<String, String> locationNamesMap = getLocationUuidNameMap(locationPatientMap);
-		String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(
-				LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+		String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
 		final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(
 				locationAttributeUuid);
-		for (Patient patient : patientList) {
-			PersonAttribute personAttribute = patient.getPerson().getAttribute(personAttributeType);
-			if (personAttribute != null && locationNamesMap.get(personAttribute.getValue()) != null) {
-				Integer patientsCount = locationPatientMap.get(locationNamesMap.get(personAttribute.getValue()));
-				patientsCount++;
-				locationPatientMap.put(locationNamesMap.get(personAttribute.getValue()), patientsCount);
-			}
+		if (personAttributeType != null) {
+			LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+			Map<String, Long> patientCounts = LocationStats.isReady() ?
+					locationBasedAccessService.getLocationStats(LocationStats.PATIENT) :
+					locationBasedAccessService.getPatientCountByLocation(personAttributeType);
+			// Restricted users only count the patients they can access, as returned by PatientService#getAllPatients
+			LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+			boolean restricted = accessContext != null && accessContext.isPatientRestricted();
+			addLocationCounts(locationPatientMap, locationNamesMap, patientCounts, restricted ? accessContext : null);
 		}
 		Map<String, Object> obj = new HashMap<String, Object>();
 		obj.put("results", locationPatientMap);
@@ -61,48 +77,159 @@ public class LocationWiseEntityCountController extends BaseRestController {
 
 		Map<String, Integer> locationUsersMap = new HashMap<String, Integer>();
 		Map<String, String> locationNamesMap = getLocationUuidNameMap(locationUsersMap);
-		List<User> usersList = Context.getUserService().getAllUsers();
-		for (User user : usersList) {
-			List<String> userLocations = LocationUtils.getUserAccessibleLocationUuids(user);
-			for (String userLocation : userLocations) {
-				if (StringUtils.isNotBlank(userLocation) && locationNamesMap.get(userLocation) != null) {
-					Integer userCount = locationUsersMap.get(locationNamesMap.get(userLocation));
-					userCount++;
-					locationUsersMap.put(locationNamesMap.get(userLocation), userCount);
-				}
-			}
+		Map<String, Long> userCounts = getUserCounts();
+		// The users without the locationUuid property are counted at the session location, as done for each user by
+		// LocationUtils#getUserAccessibleLocationUuids
+		Long usersWithoutLocation = userCounts.remove(null);
+		Integer sessionLocationId = Context.getUserContext().getLocationId();
+		if (usersWithoutLocation != null && sessionLocationId != null) {
+			String sessionLocationUuid = LocationRegistry.getUuid(sessionLocationId);
+			Long sessionLocationCount = userCounts.get(sessionLocationUuid);
+			userCounts.put(sessionLocationUuid, usersWithoutLocation + (sessionLocationCount != null ? sessionLocationCount : 0));
 		}
+		// Restricted users only count the users at the locations they can access
+		LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+		boolean restricted = accessContext != null && accessContext.isUserRestricted();
+		addLocationCounts(locationUsersMap, locationNamesMap, userCounts, restricted ? accessContext : null);
 		Map<String, Object> obj = new HashMap<String, Object>();
 		obj.put("results", locationUsersMap);
 		return obj;
 	}
 
+	/**
+	 * @param from if given, only the encounters on or after this date (yyyy-MM-dd) are counted
+	 * @param to if given, only the encounters on or before this date (yyyy-MM-dd) are counted
+	 * @param bucket if given, day, week or month to return the counts of each location by period, keyed by the
+	 * first day of the period
+	 */
 	@RequestMapping(value = "/locationwise-encounters-count", method = RequestMethod.GET)
 	@ResponseBody
 	@ResponseStatus(value = HttpStatus.OK)
-	public Map<String, Object> getEncountersLocationWiseCount() {
-		List<Patient> patientList = Context.getPatientService().getAllPatients();
+	public Map<String, Object> getEncountersLocationWiseCount(@RequestParam(value = "from", required = false) String from,
+			@RequestParam(value = "to", required = false) String to,
+			@RequestParam(value = "bucket", required = false) String bucket) {
+		Date fromDate = parseDate(from, "from");
+		Date toDate = parseDate(to, "to");
+		if (toDate != null) {
+			// The to date is inclusive
+			toDate = DateUtils.addDays(toDate, 1);
+		}
+		if (bucket != null && !ENCOUNTER_COUNT_PERIODS.contains(bucket)) {
+			throw new IllegalRequestException("bucket has to be one of " + ENCOUNTER_COUNT_PERIODS);
+		}
 		Map<String, Integer> locationEncounterMap = new HashMap<String, Integer>();
 		Map<String, String> locationNamesMap = getLocationUuidNameMap(locationEncounterMap);
-		Map<Integer, List<Encounter>> encounterMap = Context.getEncounterService().getAllEncounters(new Cohort(patientList));
-		Iterator<Map.Entry<Integer, List<Encounter>>> mapIterator = encounterMap.entrySet().iterator();
-		while (mapIterator.hasNext()) {
-			Map.Entry<Integer, List<Encounter>> entry = mapIterator.next();
-			List<Encounter> encounterList = entry.getValue();
-			for (Encounter encounter : encounterList) {
-				if (encounter.getLocation() != null) {
-					String locationUuid = encounter.getLocation().getUuid();
-					Integer userCount = locationEncounterMap.get(locationNamesMap.get(locationUuid));
-					userCount++;
-					locationEncounterMap.put(locationNamesMap.get(locationUuid), userCount);
+		Map<String, Map<String, Long>> locationEncounterSeriesMap = new HashMap<String, Map<String, Long>>();
+		for (String locationName : locationEncounterMap.keySet()) {
+			locationEncounterSeriesMap.put(locationName, new LinkedHashMap<String, Long>());
+		}
+		LocationBasedAccessSettings settings = LocationBasedAccessSettings.get();
+		final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(
+				settings.getLocationAttributeUuid());
+		boolean byPatientLocation = settings.isPatientLocationRestrictionType();
+		if (personAttributeType != null || !byPatientLocation) {
+			// Restricted users only count the encounters of the patients and at the locations they can access
+			LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+			Collection<String> patientLocationUuids = null;
+			if (accessContext != null && accessContext.isPatientRestricted() && personAttributeType != null) {
+				patientLocationUuids = accessContext.getAccessibleLocations() != null ?
+						accessContext.getAccessibleLocations().asSet() : Collections.<String>emptySet();
+			}
+			boolean restricted = accessContext != null && accessContext.isEncounterRestricted();
+			LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+			if (bucket != null) {
+				Map<String, SortedMap<Date, Long>> encounterCounts = locationBasedAccessService
+						.getEncounterCountByLocationAndPeriod(byPatientLocation, personAttributeType, patientLocationUuids,
+								fromDate, toDate, bucket);
+				addLocationSeries(locationEncounterSeriesMap, locationNamesMap, encounterCounts,
+						restricted ? accessContext : null);
+			} else {
+				Map<String, Long> encounterCounts;
+				if (patientLocationUuids == null && fromDate == null && toDate == null && LocationStats.isReady()) {
+					encounterCounts = locationBasedAccessService.getLocationStats(byPatientLocation ?
+							LocationStats.ENCOUNTER_BY_PATIENT_LOCATION : LocationStats.ENCOUNTER);
+				} else {
+					encounterCounts = locationBasedAccessService.getEncounterCountByLocation(byPatientLocation,
+							personAttributeType, patientLocationUuids, fromDate, toDate);
 				}
+				addLocationCounts(locationEncounterMap, locationNamesMap, encounterCounts, restricted ? accessContext : null);
 			}
 		}
 		Map<String, Object> obj = new HashMap<String, Object>();
-		obj.put("results", locationEncounterMap);
+		obj.put("results", bucket != null ? locationEncounterSeriesMap : locationEncounterMap);
+		if (bucket != null) {
+			obj.put("bucket", bucket);
+		}
 		return obj;
 	}
 
+	/**
+	 * @return the number of users by location uuid, the users without the locationUuid property with the null key
+	 */
+	private Map<String, Long> getUserCounts() {
+		LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+		if (!LocationStats.isReady()) {
+			return new HashMap<String, Long>(locationBasedAccessService.getUserCountByLocation());
+		}
+		Map<String, Long> userCounts = new HashMap<String, Long>(
+				locationBasedAccessService.getLocationStats(LocationStats.USER));
+		Long usersWithoutLocation = userCounts.remove(LocationStats.NO_LOCATION);
+		if (usersWithoutLocation != null) {
+			userCounts.put(null, usersWithoutLocation);
+		}
+		return userCounts;
+	}
+
+	/**
+	 * Adds the counts by location uuid to the counts by location name, skipping the locations which are not
+	 * accessible in the given access context
+	 */
+	private void addLocationCounts(Map<String, Integer> locationEntityMap, Map<String, String> locationNamesMap,
+			Map<String, Long> countsByLocationUuid, LocationAccessContext accessContext) {
+		for (Map.Entry<String, Long> entry : countsByLocationUuid.entrySet()) {
+			String locationName = locationNamesMap.get(entry.getKey());
+			if (locationName != null && (accessContext == null || accessContext.canAccessLocation(entry.getKey()))) {
+				locationEntityMap.put(locationName, locationEntityMap.get(locationName) + entry.getValue().intValue());
+			}
+		}
+	}
+
+	/**
+	 * Adds the counts by location uuid and period to the series by location name, skipping the locations which are
+	 * not accessible in the given access context
+	 */
+	private void addLocationSeries(Map<String, Map<String, Long>> locationEntitySeriesMap,
+			Map<String, String> locationNamesMap, Map<String, SortedMap<Date, Long>> countsByLocationUuid,
+			LocationAccessContext accessContext) {
+		SimpleDateFormat periodFormat = new SimpleDateFormat(DATE_FORMAT);
+		for (Map.Entry<String, SortedMap<Date, Long>> entry : countsByLocationUuid.entrySet()) {
+			String locationName = locationNamesMap.get(entry.getKey());
+			if (locationName != null && (accessContext == null || accessContext.canAccessLocation(entry.getKey()))) {
+				Map<String, Long> series = locationEntitySeriesMap.get(locationName);
+				for (Map.Entry<Date, Long> periodCount : entry.getValue().entrySet()) {
+					// Locations with the same name are summed, like the counts without buckets
+					String period = periodFormat.format(periodCount.getKey());
+					Long count = series.get(period);
+					series.put(period, count != null ? count + periodCount.getValue() : periodCount.getValue());
+				}
+			}
+		}
+	}
+
+	private Date parseDate(String date, String parameterName) {
+		if (StringUtils.isBlank(date)) {
+			return null;
+		}
+		try {
+			SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+			dateFormat.setLenient(false);
+			return dateFormat.parse(date);
+		}
+		catch (ParseException e) {
+			throw new IllegalRequestException(parameterName + " has to be a date formatted as " + DATE_FORMAT);
+		}
+	}
+
 	private Map<String, String> getLocationUuidNameMap(Map<String, Integer> locationEntityMap) {
 		List<Location> locationList = Context.getLocationService().getAllLocations();
 		Map<String, String> locationNamesMap = new HashMap<String, String>();
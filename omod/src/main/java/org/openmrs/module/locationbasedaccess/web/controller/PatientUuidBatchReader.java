@@ -0,0 +1,112 @@
+package org.openmrs.module.locationbasedaccess.web.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
+
+/**
+ * Reads the patient uuids of a migration request body in batches while it is being received, so that a large list is
+ * never held in memory. The body is either the array of uuids or an object with the array in its patientList field,
+ * the fields after patientList are not read.
+ */
+class PatientUuidBatchReader implements Iterator<List<String>> {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final JsonParser parser;
+
+	private final int batchSize;
+
+	private List<String> nextBatch;
+
+	private boolean finished = false;
+
+	/**
+	 * @param inputStream the request body
+	 * @param batchSize maximum number of uuids of a batch
+	 */
+	PatientUuidBatchReader(InputStream inputStream, int batchSize) {
+		this.batchSize = batchSize;
+		try {
+			parser = JSON_FACTORY.createParser(inputStream);
+			moveToPatientList();
+		}
+		catch (IOException e) {
+			throw new IllegalRequestException("Invalid json: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextBatch == null && !finished) {
+			nextBatch = readBatch();
+		}
+		return nextBatch != null && !nextBatch.isEmpty();
+	}
+
+	@Override
+	public List<String> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		List<String> batch = nextBatch;
+		nextBatch = null;
+		return batch;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void moveToPatientList() throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.START_ARRAY) {
+			return;
+		}
+		if (token == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				token = parser.nextToken();
+				if ("patientList".equals(fieldName)) {
+					if (token != JsonToken.START_ARRAY) {
+						throw new IllegalRequestException("Patient List has to be List");
+					}
+					return;
+				}
+				parser.skipChildren();
+			}
+		}
+		throw new IllegalRequestException("patientList is required");
+	}
+
+	private List<String> readBatch() {
+		List<String> batch = new ArrayList<String>(batchSize);
+		try {
+			while (batch.size() < batchSize) {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.END_ARRAY) {
+					finished = true;
+					parser.close();
+					break;
+				}
+				if (token != JsonToken.VALUE_STRING) {
+					throw new IllegalRequestException("Patient List has to be a List of uuids");
+				}
+				batch.add(parser.getText());
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalRequestException("Invalid json: " + e.getMessage());
+		}
+		return batch;
+	}
+}
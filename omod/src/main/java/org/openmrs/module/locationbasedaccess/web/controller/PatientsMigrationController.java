@@ -1,10 +1,18 @@
 package org.openmrs.module.locationbasedaccess.web.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -19,9 +27,20 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessSettings;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationRunner;
+import org.openmrs.module.locationbasedaccess.migration.PatientSelector;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContext;
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
 import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.ConversionUtil;
 import org.openmrs.module.webservices.rest.web.RestUtil;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
+import org.openmrs.module.webservices.rest.web.response.ObjectNotFoundException;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -29,9 +48,11 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
@@ -39,6 +60,11 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/lbac/patient-migration")
 public class PatientsMigrationController extends BaseRestController {
 
+	/**
+	 * Number of patients read from a streamed request body before they are migrated or stored with their job
+	 */
+	private static final int STREAM_BATCH_SIZE = 1000;
+
 	/**
 	 * @param body json with list of patientsUUIDs and locationUuid to migrate to.
 	 * post request will migrate the patients to the location
@@ -54,8 +80,7 @@ public class PatientsMigrationController extends BaseRestController {
 		if (location == null) {
 			map.put("message", "Location Uuid " + locationUuid + " is Not valid");
 		} else {
-			String locationAttributeUuid = Context.getAdministrationService().getGlobalProperty(
-					LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME);
+			String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
 			if (StringUtils.isNotBlank(locationAttributeUuid)) {
 				final PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeTypeByUuid(
 						locationAttributeUuid);
@@ -75,6 +100,231 @@ public class PatientsMigrationController extends BaseRestController {
 		return (new SimpleObject()).add("status", map);
 	}
 
+	/**
+	 * @param body json with the locationUuid to migrate to and either a list of patientsUUIDs or the selectors of the
+	 * patients: fromLocationUuid, cohortUuid and identifierPrefix.
+	 * post request queues a job migrating the patients to the location in the background, in chunks
+	 * @return the job, with its uuid to follow its progress
+	 */
+	@RequestMapping(value = "/jobs", method = RequestMethod.POST)
+	@ResponseBody
+	@ResponseStatus(value = HttpStatus.CREATED)
+	public SimpleObject createMigrationJob(@RequestBody Map<String, Object> body) throws APIException {
+		List<String> patientList = (List<String>) body.get("patientList");
+		String locationUuid = (String) body.get("locationUuid");
+		PatientSelector selector = getPatientSelector(body, patientList);
+		if (Context.getLocationService().getLocationByUuid(locationUuid) == null) {
+			throw new IllegalRequestException("Location Uuid " + locationUuid + " is Not valid");
+		}
+		PersonAttributeType personAttributeType = getLocationAttributeType();
+		LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+		if (selector != null) {
+			PatientMigrationJob job = locationBasedAccessService.createPatientMigrationJob(selector, locationUuid);
+			PatientMigrationRunner.submit(job.getUuid());
+			return toSimpleObject(job);
+		}
+		Set<String> patientUuids = getAccessiblePatientUuids(patientList, personAttributeType);
+		PatientMigrationJob job = locationBasedAccessService.createPatientMigrationJob(
+				new ArrayList<String>(patientUuids), locationUuid);
+		PatientMigrationRunner.submit(job.getUuid());
+		return toSimpleObject(job).add("skipped", patientList.size() - patientUuids.size());
+	}
+
+	/**
+	 * @param body json with the locationUuid to migrate to and either a list of patientsUUIDs or the selectors of the
+	 * patients: fromLocationUuid, cohortUuid and identifierPrefix.
+	 * post request rewrites the location attributes of the patients with set based statements, without saving each
+	 * patient, so the patient validators and save handlers are not run
+	 * @return the number of patients migrated
+	 */
+	@RequestMapping(value = "/direct", method = RequestMethod.POST)
+	@ResponseBody
+	public SimpleObject migratePatientLocationsDirectly(@RequestBody Map<String, Object> body) throws APIException {
+		List<String> patientList = (List<String>) body.get("patientList");
+		String locationUuid = (String) body.get("locationUuid");
+		PatientSelector selector = getPatientSelector(body, patientList);
+		if (Context.getLocationService().getLocationByUuid(locationUuid) == null) {
+			throw new IllegalRequestException("Location Uuid " + locationUuid + " is Not valid");
+		}
+		PersonAttributeType personAttributeType = getLocationAttributeType();
+		LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+		SimpleObject result = new SimpleObject().add("locationUuid", locationUuid);
+		if (selector != null) {
+			return result.add("migrated", locationBasedAccessService.migratePatientLocations(selector, locationUuid));
+		}
+		Set<String> patientUuids = getAccessiblePatientUuids(patientList, personAttributeType);
+		return result.add("migrated", locationBasedAccessService.migratePatientLocations(patientUuids, locationUuid))
+				.add("skipped", patientList.size() - patientUuids.size());
+	}
+
+	/**
+	 * @param locationUuid uuid of the location to migrate to
+	 * @param request the body is the list of patientsUUIDs, or json with the list in patientList, read while it is
+	 * received
+	 * post request queues a job migrating the patients to the location in the background, in chunks
+	 * @return the job, with its uuid to follow its progress
+	 */
+	@RequestMapping(value = "/jobs/stream", method = RequestMethod.POST)
+	@ResponseBody
+	@ResponseStatus(value = HttpStatus.CREATED)
+	public SimpleObject createMigrationJobFromStream(@RequestParam("locationUuid") String locationUuid,
+			HttpServletRequest request) throws IOException {
+		if (Context.getLocationService().getLocationByUuid(locationUuid) == null) {
+			throw new IllegalRequestException("Location Uuid " + locationUuid + " is Not valid");
+		}
+		AccessiblePatientBatches batches = new AccessiblePatientBatches(request.getInputStream(),
+				getLocationAttributeType());
+		PatientMigrationJob job = Context.getService(LocationBasedAccessService.class).createPatientMigrationJob(batches,
+				locationUuid);
+		PatientMigrationRunner.submit(job.getUuid());
+		return toSimpleObject(job).add("skipped", batches.getSkipped());
+	}
+
+	/**
+	 * @param locationUuid uuid of the location to migrate to
+	 * @param request the body is the list of patientsUUIDs, or json with the list in patientList, read while it is
+	 * received
+	 * post request rewrites the location attributes of the patients a batch at a time as they are read, the same way
+	 * as the direct migration
+	 * @return the number of patients migrated
+	 */
+	@RequestMapping(value = "/direct/stream", method = RequestMethod.POST)
+	@ResponseBody
+	public SimpleObject migratePatientLocationsFromStream(@RequestParam("locationUuid") String locationUuid,
+			HttpServletRequest request) throws IOException {
+		if (Context.getLocationService().getLocationByUuid(locationUuid) == null) {
+			throw new IllegalRequestException("Location Uuid " + locationUuid + " is Not valid");
+		}
+		LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+		AccessiblePatientBatches batches = new AccessiblePatientBatches(request.getInputStream(),
+				getLocationAttributeType());
+		int migrated = 0;
+		while (batches.hasNext()) {
+			migrated += locationBasedAccessService.migratePatientLocations(batches.next(), locationUuid);
+		}
+		return new SimpleObject().add("locationUuid", locationUuid).add("migrated", migrated)
+				.add("skipped", batches.getSkipped());
+	}
+
+	/**
+	 * @param uuid uuid of the job
+	 * @return the status and progress of the job
+	 */
+	@RequestMapping(value = "/jobs/{uuid}", method = RequestMethod.GET)
+	@ResponseBody
+	public SimpleObject getMigrationJob(@PathVariable("uuid") String uuid) {
+		PatientMigrationJob job = Context.getService(LocationBasedAccessService.class).getPatientMigrationJobByUuid(uuid);
+		if (job == null) {
+			throw new ObjectNotFoundException();
+		}
+		return toSimpleObject(job);
+	}
+
+	private PersonAttributeType getLocationAttributeType() {
+		String locationAttributeUuid = LocationBasedAccessSettings.get().getLocationAttributeUuid();
+		PersonAttributeType personAttributeType = StringUtils.isNotBlank(locationAttributeUuid) ?
+				Context.getPersonService().getPersonAttributeTypeByUuid(locationAttributeUuid) : null;
+		if (personAttributeType == null) {
+			throw new IllegalRequestException("Global Property "
+					+ LocationBasedAccessConstants.LOCATION_ATTRIBUTE_GLOBAL_PROPERTY_NAME + " not Found");
+		}
+		return personAttributeType;
+	}
+
+	/**
+	 * @return the selector of the patients to migrate, or null if the patients are listed in the patientList
+	 */
+	private PatientSelector getPatientSelector(Map<String, Object> body, List<String> patientList) {
+		PatientSelector selector = new PatientSelector();
+		selector.setFromLocationUuid(StringUtils.trimToNull((String) body.get("fromLocationUuid")));
+		selector.setCohortUuid(StringUtils.trimToNull((String) body.get("cohortUuid")));
+		selector.setIdentifierPrefix(StringUtils.trimToNull((String) body.get("identifierPrefix")));
+		if (selector.isEmpty() == (patientList == null)) {
+			throw new IllegalRequestException("Either patientList or one of fromLocationUuid, cohortUuid and identifierPrefix"
+					+ " is required");
+		}
+		if (selector.isEmpty()) {
+			return null;
+		}
+		LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+		if (accessContext != null && accessContext.isPatientRestricted()) {
+			// Restricted users can only migrate the patients they can access
+			selector.setAccessibleLocationUuids(getAccessibleLocationUuids(accessContext));
+		}
+		return selector;
+	}
+
+	/**
+	 * @return the listed patients, without the duplicates and the patients the user cannot access
+	 */
+	private Set<String> getAccessiblePatientUuids(List<String> patientList, PersonAttributeType personAttributeType) {
+		Set<String> patientUuids = new LinkedHashSet<String>(patientList);
+		LocationAccessContext accessContext = LocationAccessContextHolder.getContext();
+		if (accessContext != null && accessContext.isPatientRestricted()) {
+			// Restricted users can only migrate the patients they can access
+			patientUuids.retainAll(new HashSet<String>(Context.getService(LocationBasedAccessService.class)
+					.getAccessiblePatientUuids(patientUuids, personAttributeType, getAccessibleLocationUuids(accessContext))));
+		}
+		return patientUuids;
+	}
+
+	private Collection<String> getAccessibleLocationUuids(LocationAccessContext accessContext) {
+		return accessContext.getAccessibleLocations() != null ?
+				accessContext.getAccessibleLocations().asSet() : Collections.<String>emptySet();
+	}
+
+	/**
+	 * The batches of patients read from a request body, without the patients the user cannot access
+	 */
+	private class AccessiblePatientBatches implements Iterator<List<String>> {
+
+		private final PatientUuidBatchReader reader;
+
+		private final PersonAttributeType personAttributeType;
+
+		private int skipped = 0;
+
+		AccessiblePatientBatches(InputStream inputStream, PersonAttributeType personAttributeType) {
+			this.reader = new PatientUuidBatchReader(inputStream, STREAM_BATCH_SIZE);
+			this.personAttributeType = personAttributeType;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return reader.hasNext();
+		}
+
+		@Override
+		public List<String> next() {
+			List<String> batch = reader.next();
+			Set<String> patientUuids = getAccessiblePatientUuids(batch, personAttributeType);
+			skipped += batch.size() - patientUuids.size();
+			return new ArrayList<String>(patientUuids);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		int getSkipped() {
+			return skipped;
+		}
+	}
+
+	private SimpleObject toSimpleObject(PatientMigrationJob job) {
+		return new SimpleObject()
+				.add("uuid", job.getUuid())
+				.add("locationUuid", job.getLocationUuid())
+				.add("status", job.getStatus())
+				.add("total", job.getTotal())
+				.add("processed", job.getProcessed())
+				.add("failed", job.getFailed())
+				.add("message", job.getMessage())
+				.add("dateCreated", ConversionUtil.convertToRepresentation(job.getDateCreated(), Representation.REF))
+				.add("dateChanged", ConversionUtil.convertToRepresentation(job.getDateChanged(), Representation.REF));
+	}
+
 	@ExceptionHandler(NullPointerException.class)
 	@ResponseBody
 	public SimpleObject handleNotFound(NullPointerException exception, HttpServletRequest request,
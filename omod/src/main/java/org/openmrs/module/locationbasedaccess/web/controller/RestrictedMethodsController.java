@@ -0,0 +1,50 @@
+package org.openmrs.module.locationbasedaccess.web.controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.module.locationbasedaccess.aop.RestrictedMethod;
+import org.openmrs.module.locationbasedaccess.aop.RestrictedMethodRegistry;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Shows the configured restricted methods, and reloads them after the configuration file was edited
+ */
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/lbac/restricted-methods")
+public class RestrictedMethodsController extends BaseRestController {
+
+	@RequestMapping(method = RequestMethod.GET)
+	@ResponseBody
+	@ResponseStatus(value = HttpStatus.OK)
+	public Map<String, Object> getRestrictedMethods() {
+		return toResult(RestrictedMethodRegistry.getRestrictedMethods());
+	}
+
+	@RequestMapping(value = "/reload", method = RequestMethod.POST)
+	@ResponseBody
+	@ResponseStatus(value = HttpStatus.OK)
+	public Map<String, Object> reloadRestrictedMethods() {
+		return toResult(RestrictedMethodRegistry.reload());
+	}
+
+	private Map<String, Object> toResult(List<RestrictedMethod> restrictedMethods) {
+		List<String> lines = new ArrayList<String>();
+		for (RestrictedMethod restrictedMethod : restrictedMethods) {
+			lines.add(restrictedMethod.toString());
+		}
+		Map<String, Object> obj = new HashMap<String, Object>();
+		obj.put("results", lines);
+		obj.put("configurationFile", RestrictedMethodRegistry.getConfigurationFile().getPath());
+		return obj;
+	}
+}
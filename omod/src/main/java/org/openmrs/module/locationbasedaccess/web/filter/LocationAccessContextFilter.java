@@ -0,0 +1,38 @@
+package org.openmrs.module.locationbasedaccess.web.filter;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openmrs.module.locationbasedaccess.utils.LocationAccessContextHolder;
+
+/**
+ * Opens the request scope of the {@link LocationAccessContextHolder}, so that the LBAC access context is built once
+ * per request and dropped when the request ends.
+ */
+public class LocationAccessContextFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		LocationAccessContextHolder.beginRequest();
+		try {
+			chain.doFilter(request, response);
+		}
+		finally {
+			LocationAccessContextHolder.endRequest();
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,122 @@
+package org.openmrs.module.locationbasedaccess.web.controller;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.RestControllerTestUtils;
+import org.openmrs.parameter.EncounterSearchCriteria;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+public class LocationWiseEntityCountController_Test extends RestControllerTestUtils {
+
+	private final String XML_FILENAME_WITH_PERSON_DATA = "PatientMigrationData.xml";
+
+	private final String LOCATION1_NAME = "Test Location 1";
+
+	private final String LOCATION2_NAME = "Test Location 2";
+
+	private final String LOCATION1_UUID = "ef93c695-ac43-450a-93f8-4b2b4d50a3c8";
+
+	@Before
+	public void init() throws Exception {
+		executeDataSet(XML_FILENAME_WITH_PERSON_DATA);
+	}
+
+	private Map<String, Object> getResults(String uri) throws Exception {
+		MockHttpServletRequest req = request(RequestMethod.GET, uri);
+		SimpleObject result = deserialize(handle(req));
+		return (Map<String, Object>) result.get("results");
+	}
+
+	@Test
+	public void getPatientLocationWiseCount_shouldCountPatientsByLocationAttribute() throws Exception {
+		Map<String, Object> results = getResults("lbac/locationwise-patients-count");
+		Assert.assertEquals(1, ((Number) results.get(LOCATION1_NAME)).intValue());
+		Assert.assertEquals(1, ((Number) results.get(LOCATION2_NAME)).intValue());
+	}
+
+	@Test
+	public void getEncountersLocationWiseCount_shouldCountEncountersByEncounterLocation() throws Exception {
+		Location location1 = Context.getLocationService().getLocationByUuid(LOCATION1_UUID);
+		int expectedCount = 0;
+		for (Encounter encounter : Context.getEncounterService().getEncounters(
+				new EncounterSearchCriteria(null, location1, null, null, null, null, null, null, null, null, false))) {
+			if (!encounter.getPatient().getVoided()) {
+				expectedCount++;
+			}
+		}
+		Map<String, Object> results = getResults("lbac/locationwise-encounters-count");
+		Assert.assertEquals(expectedCount, ((Number) results.get(LOCATION1_NAME)).intValue());
+	}
+
+	@Test
+	public void getUsersLocationWiseCount_shouldCountUsersByLocationUserProperty() throws Exception {
+		User user = Context.getAuthenticatedUser();
+		Context.getUserService().setUserProperty(user, LocationBasedAccessConstants.LOCATION_USER_PROPERTY_NAME,
+				LOCATION1_UUID);
+		Map<String, Object> results = getResults("lbac/locationwise-users-count");
+		Assert.assertEquals(1, ((Number) results.get(LOCATION1_NAME)).intValue());
+		Assert.assertEquals(0, ((Number) results.get(LOCATION2_NAME)).intValue());
+	}
+
+	@Test
+	public void getEncountersLocationWiseCount_shouldCountEncountersByMonth() throws Exception {
+		Map<String, Object> totals = getResults("lbac/locationwise-encounters-count");
+		MockHttpServletRequest req = request(RequestMethod.GET, "lbac/locationwise-encounters-count");
+		req.addParameter("bucket", "month");
+		SimpleObject result = deserialize(handle(req));
+		Assert.assertEquals("month", result.get("bucket"));
+		Map<String, Object> location1Series = (Map<String, Object>) ((Map<String, Object>) result.get("results"))
+				.get(LOCATION1_NAME);
+		int seriesTotal = 0;
+		for (Map.Entry<String, Object> periodCount : location1Series.entrySet()) {
+			Assert.assertTrue(periodCount.getKey().endsWith("-01"));
+			seriesTotal += ((Number) periodCount.getValue()).intValue();
+		}
+		Assert.assertEquals(((Number) totals.get(LOCATION1_NAME)).intValue(), seriesTotal);
+	}
+
+	@Test
+	public void getEncountersLocationWiseCount_shouldSumTheSeriesOfLocationsWithTheSameName() throws Exception {
+		Context.getLocationService().getLocation(2).setName(LOCATION1_NAME);
+		Map<String, Object> totals = getResults("lbac/locationwise-encounters-count");
+		MockHttpServletRequest req = request(RequestMethod.GET, "lbac/locationwise-encounters-count");
+		req.addParameter("bucket", "month");
+		SimpleObject result = deserialize(handle(req));
+		Map<String, Object> location1Series = (Map<String, Object>) ((Map<String, Object>) result.get("results"))
+				.get(LOCATION1_NAME);
+		int seriesTotal = 0;
+		for (Object periodCount : location1Series.values()) {
+			seriesTotal += ((Number) periodCount).intValue();
+		}
+		Assert.assertEquals(((Number) totals.get(LOCATION1_NAME)).intValue(), seriesTotal);
+	}
+
+	@Test
+	public void getEncountersLocationWiseCount_shouldCountOnlyEncountersInDateRange() throws Exception {
+		MockHttpServletRequest req = request(RequestMethod.GET, "lbac/locationwise-encounters-count");
+		req.addParameter("from", "1900-01-01");
+		req.addParameter("to", "1900-12-31");
+		SimpleObject result = deserialize(handle(req));
+		Map<String, Object> results = (Map<String, Object>) result.get("results");
+		Assert.assertEquals(0, ((Number) results.get(LOCATION1_NAME)).intValue());
+	}
+
+	@Test(expected = IllegalRequestException.class)
+	public void getEncountersLocationWiseCount_shouldRejectUnknownBucket() throws Exception {
+		MockHttpServletRequest req = request(RequestMethod.GET, "lbac/locationwise-encounters-count");
+		req.addParameter("bucket", "year");
+		handle(req);
+	}
+}
@@ -9,7 +9,11 @@ import org.openmrs.Patient;
 import org.openmrs.PersonAttribute;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.api.LocationBasedAccessService;
+import org.openmrs.module.locationbasedaccess.migration.PatientMigrationJob;
 import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.response.IllegalRequestException;
+import org.openmrs.module.webservices.rest.web.response.ObjectNotFoundException;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.RestControllerTestUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -75,4 +79,165 @@ public class PatientsMigrationController_Test extends RestControllerTestUtils {
 
 	}
 
+	@Test
+	public void createMigrationJob_shouldMigratePatientsInChunks() throws Exception {
+		createMigrationJobTables();
+		Patient patient2 = patientService.getPatient(PATIENT2_ID);
+		Patient patient3 = patientService.getPatient(PATIENT3_ID);
+		String patientList[] = { patient2.getUuid(), patient3.getUuid() };
+		SimpleObject obj = new SimpleObject();
+		obj.add("locationUuid", LOCATION_UUID);
+		obj.add("patientList", patientList);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/jobs");
+		req.setContent(new ObjectMapper().writeValueAsString(obj).getBytes());
+		SimpleObject job = deserialize(handle(req));
+		Assert.assertEquals(PatientMigrationJob.STATUS_QUEUED, job.get("status"));
+		Assert.assertEquals(2, ((Number) job.get("total")).intValue());
+
+		// The runner is not started in the tests, run the chunks in the test transaction
+		String jobUuid = (String) job.get("uuid");
+		LocationBasedAccessService locationBasedAccessService = Context.getService(LocationBasedAccessService.class);
+		Assert.assertEquals(PatientMigrationJob.STATUS_RUNNING,
+				locationBasedAccessService.migrateNextPatientChunk(jobUuid, 1).getStatus());
+		Assert.assertEquals(PatientMigrationJob.STATUS_COMPLETED,
+				locationBasedAccessService.migrateNextPatientChunk(jobUuid, 1).getStatus());
+
+		job = deserialize(handle(request(RequestMethod.GET, getURI() + "/jobs/" + jobUuid)));
+		Assert.assertEquals(PatientMigrationJob.STATUS_COMPLETED, job.get("status"));
+		Assert.assertEquals(2, ((Number) job.get("processed")).intValue());
+		Assert.assertEquals(0, ((Number) job.get("failed")).intValue());
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT2_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT3_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+	}
+
+	@Test
+	public void createMigrationJob_shouldSelectPatientsByIdentifierPrefix() throws Exception {
+		createMigrationJobTables();
+		SimpleObject obj = new SimpleObject();
+		obj.add("locationUuid", LOCATION_UUID);
+		obj.add("identifierPrefix", "1235Y");
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/jobs");
+		req.setContent(new ObjectMapper().writeValueAsString(obj).getBytes());
+		SimpleObject job = deserialize(handle(req));
+		Assert.assertEquals(1, ((Number) job.get("total")).intValue());
+
+		String jobUuid = (String) job.get("uuid");
+		Assert.assertEquals(PatientMigrationJob.STATUS_COMPLETED, Context.getService(LocationBasedAccessService.class)
+				.migrateNextPatientChunk(jobUuid, 10).getStatus());
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT3_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+	}
+
+	@Test(expected = IllegalRequestException.class)
+	public void createMigrationJob_shouldFailWithoutPatientListOrSelector() throws Exception {
+		createMigrationJobTables();
+		SimpleObject obj = new SimpleObject();
+		obj.add("locationUuid", LOCATION_UUID);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/jobs");
+		req.setContent(new ObjectMapper().writeValueAsString(obj).getBytes());
+		handle(req);
+	}
+
+	@Test(expected = ObjectNotFoundException.class)
+	public void getMigrationJob_shouldFailForUnknownJob() throws Exception {
+		createMigrationJobTables();
+		handle(request(RequestMethod.GET, getURI() + "/jobs/unknown-job"));
+	}
+
+	@Test
+	public void migratePatientLocationsDirectly_shouldRewriteLocationAttributes() throws Exception {
+		createLocationStatsTable();
+		Patient patient1 = patientService.getPatient(PATIENT1_ID);
+		Patient patient2 = patientService.getPatient(PATIENT2_ID);
+		Patient patient3 = patientService.getPatient(PATIENT3_ID);
+		PersonAttribute oldAttribute = patient3.getAttribute(PERSON_ATTRIBUTE_NAME);
+		String patientList[] = { patient1.getUuid(), patient2.getUuid(), patient3.getUuid() };
+		SimpleObject obj = new SimpleObject();
+		obj.add("locationUuid", LOCATION_UUID);
+		obj.add("patientList", patientList);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/direct");
+		req.setContent(new ObjectMapper().writeValueAsString(obj).getBytes());
+		SimpleObject result = deserialize(handle(req));
+		// Patient 1 is already at the location
+		Assert.assertEquals(2, ((Number) result.get("migrated")).intValue());
+
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT2_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+		Patient newPatient3 = patientService.getPatient(PATIENT3_ID);
+		Assert.assertEquals(LOCATION_UUID, newPatient3.getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+		Assert.assertEquals(1, newPatient3.getActiveAttributes().size());
+		PersonAttribute voidedAttribute = Context.getPersonService().getPersonAttribute(oldAttribute.getPersonAttributeId());
+		Assert.assertTrue(voidedAttribute.getVoided());
+		Assert.assertNotNull(voidedAttribute.getVoidedBy());
+		Assert.assertNotNull(voidedAttribute.getDateVoided());
+	}
+
+	@Test
+	public void migratePatientLocationsDirectly_shouldMigrateAllPatientsOfSourceLocation() throws Exception {
+		createLocationStatsTable();
+		String fromLocationUuid = patientService.getPatient(PATIENT3_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue();
+		SimpleObject obj = new SimpleObject();
+		obj.add("locationUuid", LOCATION_UUID);
+		obj.add("fromLocationUuid", fromLocationUuid);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/direct");
+		req.setContent(new ObjectMapper().writeValueAsString(obj).getBytes());
+		SimpleObject result = deserialize(handle(req));
+		Assert.assertTrue(((Number) result.get("migrated")).intValue() >= 1);
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT3_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+	}
+
+	@Test
+	public void migratePatientLocationsFromStream_shouldReadPatientListFromBody() throws Exception {
+		createLocationStatsTable();
+		Patient patient2 = patientService.getPatient(PATIENT2_ID);
+		Patient patient3 = patientService.getPatient(PATIENT3_ID);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/direct/stream");
+		req.addParameter("locationUuid", LOCATION_UUID);
+		req.setContent(("{\"comment\": {\"ignored\": [1, 2]}, \"patientList\": [\"" + patient2.getUuid() + "\", \""
+				+ patient3.getUuid() + "\"]}").getBytes());
+		SimpleObject result = deserialize(handle(req));
+		Assert.assertEquals(2, ((Number) result.get("migrated")).intValue());
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT2_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+		Assert.assertEquals(LOCATION_UUID, patientService.getPatient(PATIENT3_ID).getAttribute(PERSON_ATTRIBUTE_NAME).getValue());
+	}
+
+	@Test
+	public void createMigrationJobFromStream_shouldStorePatientsOfBody() throws Exception {
+		createMigrationJobTables();
+		Patient patient2 = patientService.getPatient(PATIENT2_ID);
+		Patient patient3 = patientService.getPatient(PATIENT3_ID);
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/jobs/stream");
+		req.addParameter("locationUuid", LOCATION_UUID);
+		req.setContent(new ObjectMapper().writeValueAsString(new String[] { patient2.getUuid(), patient3.getUuid() })
+				.getBytes());
+		SimpleObject job = deserialize(handle(req));
+		Assert.assertEquals(PatientMigrationJob.STATUS_QUEUED, job.get("status"));
+		Assert.assertEquals(2, ((Number) job.get("total")).intValue());
+	}
+
+	@Test(expected = IllegalRequestException.class)
+	public void createMigrationJobFromStream_shouldFailForInvalidPatientList() throws Exception {
+		createMigrationJobTables();
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/jobs/stream");
+		req.addParameter("locationUuid", LOCATION_UUID);
+		req.setContent("{\"patientList\": [1, 2]}".getBytes());
+		handle(req);
+	}
+
+	private void createLocationStatsTable() {
+		Context.getAdministrationService().executeSQL("create table if not exists locationbasedaccess_location_stats ("
+				+ "entity_type varchar(50) not null, location_uuid varchar(38) not null, entity_count bigint not null,"
+				+ " date_updated datetime not null, primary key (entity_type, location_uuid))", false);
+	}
+
+	/**
+	 * The module changelog is not run by the test context
+	 */
+	private void createMigrationJobTables() {
+		Context.getAdministrationService().executeSQL("create table if not exists locationbasedaccess_patient_migration_job ("
+				+ "uuid char(38) not null primary key, location_uuid varchar(38) not null, status varchar(20) not null,"
+				+ " total int not null, processed int not null, failed int not null, message varchar(1024), creator int,"
+				+ " date_created datetime not null, date_changed datetime)", false);
+		Context.getAdministrationService().executeSQL("create table if not exists locationbasedaccess_patient_migration_item ("
+				+ "job_uuid char(38) not null, item_position int not null, patient_uuid char(38) not null,"
+				+ " primary key (job_uuid, item_position))", false);
+	}
 }
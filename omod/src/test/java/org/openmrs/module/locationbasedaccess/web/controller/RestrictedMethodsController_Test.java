@@ -0,0 +1,53 @@
+package org.openmrs.module.locationbasedaccess.web.controller;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Role;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.locationbasedaccess.LocationBasedAccessConstants;
+import org.openmrs.module.locationbasedaccess.aop.MethodDispatchTable;
+import org.openmrs.module.locationbasedaccess.aop.RestrictedMethodRegistry;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.RestControllerTestUtils;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+public class RestrictedMethodsController_Test extends RestControllerTestUtils {
+
+	private String getURI() {
+		return "lbac/restricted-methods";
+	}
+
+	@After
+	public void tearDown() {
+		RestrictedMethodRegistry.clear();
+	}
+
+	@Test
+	public void reloadRestrictedMethods_shouldApplyTheGlobalProperty() throws Exception {
+		Context.getAdministrationService().setGlobalProperty(LocationBasedAccessConstants.RESTRICTED_METHODS_GLOBAL_PROPERTY_NAME,
+				"# users\nUserService.getUsersByRole = filter; UserService.getUsers(String,List,boolean) = none\nNoSuchService.getThings");
+		Assert.assertFalse(MethodDispatchTable.USER.get(UserService.class.getMethod("getUsersByRole",
+				Role.class)).isRestricted());
+
+		MockHttpServletRequest req = request(RequestMethod.POST, getURI() + "/reload");
+		SimpleObject result = deserialize(handle(req));
+
+		List<String> lines = (List<String>) result.get("results");
+		Assert.assertEquals(2, lines.size());
+		Assert.assertEquals("UserService.getUsersByRole = filter", lines.get(0));
+		Assert.assertEquals("UserService.getUsers(String,List,boolean) = none", lines.get(1));
+		Assert.assertTrue(MethodDispatchTable.USER.get(UserService.class.getMethod("getUsersByRole",
+				Role.class)).isRestricted());
+		Assert.assertFalse(MethodDispatchTable.USER.get(UserService.class.getMethod("getUsers", String.class,
+				List.class, boolean.class)).isRestricted());
+		Assert.assertTrue(MethodDispatchTable.USER.get(UserService.class.getMethod("getAllUsers")).isRestricted());
+
+		result = deserialize(handle(request(RequestMethod.GET, getURI())));
+		Assert.assertEquals(lines, result.get("results"));
+	}
+}